@@ -0,0 +1,18 @@
+package com.example.message.service.live;
+
+/**
+ * Wires a {@link ChangeLog} to a broadcaster without subscribers, for benchmarks outside this package.
+ */
+public final class BenchmarkChangeLogs {
+    private BenchmarkChangeLogs() {
+    }
+
+    public static ChangeLog open(int retention) {
+        var changeLog = new ChangeLog();
+        var broadcaster = new MessageBroadcaster();
+        changeLog.retention = retention;
+        changeLog.broadcaster = broadcaster;
+        broadcaster.changeLog = changeLog;
+        return changeLog;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.message.service.message;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Creates every {@link MessageRepository} implementation by the name used in {@code message.repository.type}.
+ */
+final class BenchmarkRepositories {
+    static final String OWNER = "owner";
+    static final String HEADER = "Weekly report";
+    static final String BODY = "All services are up, latency is within the budget and no incidents were reported.";
+
+    private BenchmarkRepositories() {
+    }
+
+    static MessageRepository open(String type, Path directory) {
+        switch (type) {
+            case "in-memory":
+                return new MessageRepositoryInMemory();
+            case "concurrent":
+                return new MessageRepositoryConcurrent();
+            case "sharded":
+                var sharded = new MessageRepositorySharded();
+                sharded.init();
+                return sharded;
+            case "off-heap":
+                var offHeap = new MessageRepositoryOffHeap();
+                offHeap.segmentSize = 64 * 1024 * 1024;
+                offHeap.init();
+                return offHeap;
+            case "log":
+                var repository = new MessageRepositoryLog();
+                repository.directory = directory.toString();
+                repository.segmentSize = 64 * 1024 * 1024;
+                repository.fsyncIntervalMs = 50;
+                repository.snapshotIntervalMs = 1000;
+                repository.snapshotSegments = 4;
+                repository.start();
+                return repository;
+            case "jdbc":
+                var pool = JdbcConnectionPool.create("jdbc:h2:file:" + directory.resolve("messages-db") + ";QUERY_CACHE_SIZE=32",
+                    "sa", "");
+                pool.setMaxConnections(64);
+                var jdbc = new MessageRepositoryJdbc();
+                jdbc.dataSource = pool;
+                jdbc.init();
+                return jdbc;
+            default:
+                throw new IllegalArgumentException("Unknown repository type " + type);
+        }
+    }
+
+    static void close(MessageRepository repository, Path directory) throws IOException {
+        if (repository instanceof MessageRepositoryLog) {
+            ((MessageRepositoryLog) repository).stop();
+        }
+        if (repository instanceof MessageRepositoryJdbc) {
+            // the database file is closed with the last connection
+            ((JdbcConnectionPool) ((MessageRepositoryJdbc) repository).dataSource).dispose();
+        }
+        try (var files = Files.walk(directory)) {
+            for (var path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * @return ids of the created messages, oldest first
+     */
+    static long[] preload(MessageRepository repository, int count) {
+        return IntStream.range(0, count)
+            .mapToLong(i -> repository.create(newMessage()))
+            .toArray();
+    }
+
+    static MessageEntity newMessage() {
+        return new MessageEntity(OWNER, HEADER, BODY);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.message.service.message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Prints the heap retained per stored message for every storage type.
+ * <p>
+ * Messages get their own header and body strings and one of a few owners, as they do when parsed from requests or
+ * read from the log. The heap is measured after repeated full collections, so run it with a fixed heap size and
+ * nothing else going on.
+ */
+public final class MessageFootprintReport {
+    private static final int OWNERS = 100;
+
+    private MessageFootprintReport() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        var payload = BenchmarkRepositories.HEADER.getBytes(StandardCharsets.UTF_8).length
+            + BenchmarkRepositories.BODY.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("%d messages, %d bytes of UTF-8 header and body each%n", count, payload);
+        System.out.printf("%-12s %14s %14s%n", "storage", "bytes/message", "overhead");
+        for (var type : List.of("in-memory", "concurrent", "log", "off-heap")) {
+            var directory = Files.createTempDirectory("message-footprint");
+            var before = usedHeap();
+            var repository = BenchmarkRepositories.open(type, directory);
+            for (int i = 0; i < count; i++) {
+                repository.create(new MessageEntity(
+                    new String(("owner" + i % OWNERS).toCharArray()),
+                    new String(BenchmarkRepositories.HEADER.toCharArray()),
+                    new String(BenchmarkRepositories.BODY.toCharArray())));
+            }
+            var perMessage = (double) (usedHeap() - before) / count;
+            System.out.printf("%-12s %14.1f %14.1f%n", type, perMessage, perMessage - payload);
+            BenchmarkRepositories.close(repository, directory);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.message.service.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id generation alone, where a shared counter shows up first. Run with {@code -t N} to see how each generator
+ * scales with the threads creating messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageIdGeneratorBenchmark {
+    @Param({"sequential", "snowflake"})
+    String generator;
+
+    private MessageIdGenerator ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("snowflake".equals(generator)) {
+            var snowflake = new SnowflakeIdGenerator();
+            snowflake.init();
+            ids = snowflake;
+        } else {
+            ids = new SequentialIdGenerator();
+        }
+    }
+
+    @Benchmark
+    public long next() {
+        return ids.next();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.message.service.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state repository operations: the store keeps its size, so results do not drift over a run.
+ * Run with {@code -t N} to scale the thread count; the mixed groups keep their read/write ratio and can be
+ * scaled with {@code -tg}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageRepositoryBenchmark {
+    @Param({"in-memory", "concurrent", "sharded", "log", "off-heap", "jdbc"})
+    String type;
+    @Param({"10000"})
+    int size;
+
+    private Path directory;
+    private MessageRepository repository;
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-benchmark");
+        repository = BenchmarkRepositories.open(type, directory);
+        ids = BenchmarkRepositories.preload(repository, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkRepositories.close(repository, directory);
+    }
+
+    @Benchmark
+    public Optional<MessageEntity> getById() {
+        return repository.getById(ids[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public boolean update() {
+        // an edit is stored only over the version it was made from, so it is made from the current one
+        var current = repository.getById(ids[ThreadLocalRandom.current().nextInt(size)]).orElseThrow();
+        return repository.update(current.edited(BenchmarkRepositories.HEADER, BenchmarkRepositories.BODY));
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(9)
+    public Optional<MessageEntity> readHeavyRead() {
+        return getById();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public boolean readHeavyWrite() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public Optional<MessageEntity> balancedRead() {
+        return getById();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public boolean balancedWrite() {
+        return update();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.message.service.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates from several threads into one shared store, alone and while a reader follows the new messages with a
+ * cursor. Unlike {@link MessageRepositoryWriteBenchmark}, the threads contend for the store. It grows for the length
+ * of an iteration and is replaced by a fresh one for the next. Run with {@code -t N} to scale the creating threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRepositoryCreateBenchmark {
+    @Param({"in-memory", "concurrent", "sharded", "off-heap"})
+    String type;
+
+    private Path directory;
+    private MessageRepository repository;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-benchmark");
+        repository = BenchmarkRepositories.open(type, directory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkRepositories.close(repository, directory);
+    }
+
+    @Benchmark
+    public long create() {
+        return repository.create(BenchmarkRepositories.newMessage());
+    }
+
+    @Benchmark
+    @Group("createWhileFollowing")
+    @GroupThreads(3)
+    public long followedCreate() {
+        return create();
+    }
+
+    @Benchmark
+    @Group("createWhileFollowing")
+    @GroupThreads(1)
+    public List<MessageEntity> follow(Cursor cursor) {
+        var page = repository.getAfter(cursor.afterId, 100);
+        if (!page.isEmpty()) {
+            cursor.afterId = page.get(page.size() - 1).getId();
+        }
+        return page;
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        long afterId;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            afterId = -1;
+        }
+    }
+}
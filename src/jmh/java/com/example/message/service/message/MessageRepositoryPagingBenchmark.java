@@ -0,0 +1,68 @@
+package com.example.message.service.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offset paging against keyset paging at the same position, which shows the cost of skipping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageRepositoryPagingBenchmark {
+    @Param({"in-memory", "concurrent", "sharded", "log", "off-heap", "jdbc"})
+    String type;
+    @Param({"10000"})
+    int size;
+    @Param({"0", "5000", "9900"})
+    int offset;
+    @Param({"10", "100"})
+    int limit;
+
+    private Path directory;
+    private MessageRepository repository;
+    private long afterId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-benchmark");
+        repository = BenchmarkRepositories.open(type, directory);
+        var ids = BenchmarkRepositories.preload(repository, size);
+        afterId = offset == 0 ? -1 : ids[offset - 1];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkRepositories.close(repository, directory);
+    }
+
+    @Benchmark
+    public List<MessageEntity> getAll() {
+        return repository.getAll(limit, offset);
+    }
+
+    @Benchmark
+    public List<MessageEntity> getAfter() {
+        return repository.getAfter(afterId, limit);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.message.service.message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates and deletes change the store size, so they are measured in fixed batches on a fresh store
+ * instead of for a fixed time. Scores are per batch of {@link #BATCH} operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = MessageRepositoryWriteBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = MessageRepositoryWriteBenchmark.BATCH)
+@Fork(1)
+public class MessageRepositoryWriteBenchmark {
+    static final int BATCH = 10_000;
+
+    @Param({"in-memory", "concurrent", "sharded", "log", "off-heap", "jdbc"})
+    String type;
+
+    private Path directory;
+    private MessageRepository repository;
+    private long[] ids;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-benchmark");
+        repository = BenchmarkRepositories.open(type, directory);
+        ids = BenchmarkRepositories.preload(repository, BATCH);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkRepositories.close(repository, directory);
+    }
+
+    @Benchmark
+    public long create() {
+        return repository.create(BenchmarkRepositories.newMessage());
+    }
+
+    @Benchmark
+    public void delete() {
+        repository.delete(ids[next++]);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.message.service.message;
+
+import com.example.message.service.cache.ResponseCache;
+import com.example.message.service.live.BenchmarkChangeLogs;
+import com.example.message.service.search.SearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service calls as the controller makes them, including entity to response mapping and search indexing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageServiceBenchmark {
+    @Param({"in-memory", "concurrent", "sharded", "log", "off-heap", "jdbc"})
+    String type;
+    @Param({"10000"})
+    int size;
+
+    private Path directory;
+    private MessageService service;
+    private long[] ids;
+    private final MessageRequest request = new MessageRequest(BenchmarkRepositories.HEADER, BenchmarkRepositories.BODY);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-benchmark");
+        service = new MessageService();
+        service.repository = BenchmarkRepositories.open(type, directory);
+        service.searchIndex = new SearchIndex();
+        // the service only invalidates the cache, responses are cached by the controller
+        service.responseCache = new ResponseCache();
+        service.changeLog = BenchmarkChangeLogs.open(10000);
+        ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = service.create(BenchmarkRepositories.OWNER, request);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkRepositories.close(service.repository, directory);
+    }
+
+    @Benchmark
+    public MessageResponse getById() {
+        return service.getById(randomId());
+    }
+
+    @Benchmark
+    public MessageListResponse getAll() {
+        return service.getAll(100, 0);
+    }
+
+    @Benchmark
+    public void update() {
+        service.update(BenchmarkRepositories.OWNER, randomId(), request);
+    }
+
+    private long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(size)];
+    }
+}
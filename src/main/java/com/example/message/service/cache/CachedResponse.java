@@ -0,0 +1,19 @@
+package com.example.message.service.cache;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.Date;
+
+/**
+ * Serialized JSON body of a response together with the validators it was sent with.
+ */
+public final class CachedResponse {
+    public final byte[] json;
+    public final EntityTag tag;
+    public final Date lastModified;
+
+    public CachedResponse(byte[] json, EntityTag tag, Date lastModified) {
+        this.json = json;
+        this.tag = tag;
+        this.lastModified = lastModified;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.message.service.cache;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Cursor and limit of a message page, in any of the three ways pages can be requested.
+ */
+public final class PageKey {
+    private enum Kind {
+        OFFSET, AFTER, BEFORE
+    }
+
+    private final Kind kind;
+    private final long cursor;
+    private final int limit;
+
+    private PageKey(Kind kind, long cursor, int limit) {
+        this.kind = kind;
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    public static PageKey offset(int offset, int limit) {
+        return new PageKey(Kind.OFFSET, offset, limit);
+    }
+
+    public static PageKey after(long afterId, int limit) {
+        return new PageKey(Kind.AFTER, afterId, limit);
+    }
+
+    public static PageKey before(long beforeId, int limit) {
+        return new PageKey(Kind.BEFORE, beforeId, limit);
+    }
+
+    /**
+     * Ids a created or deleted message may have to take to change the page. A full page is bounded by its last
+     * message, anything beyond it does not move into the page.
+     */
+    IdRange coverage(List<Long> ids) {
+        var content = IdRange.of(ids);
+        var full = ids.size() >= limit;
+        switch (kind) {
+            case AFTER:
+                return new IdRange(cursor == Long.MAX_VALUE ? cursor : cursor + 1, full ? content.to : Long.MAX_VALUE);
+            case BEFORE:
+                return new IdRange(full ? content.from : Long.MIN_VALUE, cursor == Long.MIN_VALUE ? cursor : cursor - 1);
+            default:
+                // every message before the page shifts it
+                return new IdRange(Long.MIN_VALUE, full ? content.to : Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        var other = (PageKey) o;
+        return kind == other.kind && cursor == other.cursor && limit == other.limit;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, cursor, limit);
+    }
+
+    @Override
+    public String toString() {
+        return kind.name().toLowerCase() + "=" + cursor + "&limit=" + limit;
+    }
+
+    static final class IdRange {
+        static final IdRange EMPTY = new IdRange(Long.MAX_VALUE, Long.MIN_VALUE);
+
+        final long from;
+        final long to;
+
+        IdRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        static IdRange of(List<Long> ids) {
+            if (ids.isEmpty()) {
+                return EMPTY;
+            }
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (var id : ids) {
+                min = Math.min(min, id);
+                max = Math.max(max, id);
+            }
+            return new IdRange(min, max);
+        }
+
+        boolean contains(long id) {
+            return from <= id && id <= to;
+        }
+    }
+}
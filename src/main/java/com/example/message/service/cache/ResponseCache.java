@@ -0,0 +1,320 @@
+package com.example.message.service.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized responses of single messages and message pages, so hot reads skip the store and the object mapper.
+ * <p>
+ * Reads take no lock, they only look the entry up and mark it used. Puts, invalidations and evictions are
+ * serialized. Entries are evicted by a clock, roughly least recently used first: an entry used since the clock last
+ * passed it is kept for one more round. Eviction starts once there are more than {@code max-size} entries or their
+ * bodies take more than {@code max-bytes}, pages are bounded on their own by {@code max-pages}.
+ * <p>
+ * Writes drop exactly the entries they may change: the message itself and the pages whose id range covers it. Pages
+ * are indexed by the ids on them and by the end of their range, so a write only looks at the pages it may touch.
+ * <p>
+ * A response must be put with the generation read before it was read from the store, {@link #generation(long)} for
+ * a message and {@link #generation()} for a page. The put is ignored if a write was invalidated in between, as the
+ * response may predate that write. Messages only watch writes to ids sharing their stripe, pages watch all writes.
+ */
+@ApplicationScoped
+public class ResponseCache implements MeterBinder {
+    private static final int GENERATION_STRIPES = 64;
+
+    @ConfigProperty(name = "message.response-cache.max-size", defaultValue = "10000")
+    int maxSize;
+    @ConfigProperty(name = "message.response-cache.max-bytes", defaultValue = "16777216")
+    long maxBytes;
+    @ConfigProperty(name = "message.response-cache.max-pages", defaultValue = "256")
+    int maxPages;
+
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLongArray messageGenerations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLong pageGeneration = new AtomicLong();
+    // everything below is guarded by clock, entries are dropped from the clocks lazily once removed
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private final ArrayDeque<Entry> pageClock = new ArrayDeque<>();
+    private final Map<Long, Set<Entry>> pagesById = new HashMap<>();
+    private final TreeMap<Long, Set<Entry>> pagesByCoverageEnd = new TreeMap<>();
+    private int pages;
+    private volatile long bytes;
+
+    private final LongAdder messageHits = new LongAdder();
+    private final LongAdder messageMisses = new LongAdder();
+    private final LongAdder pageHits = new LongAdder();
+    private final LongAdder pageMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Generation to put a page with.
+     */
+    public long generation() {
+        return pageGeneration.get();
+    }
+
+    /**
+     * Generation to put the message with the id with.
+     */
+    public long generation(long id) {
+        return messageGenerations.get(stripe(id));
+    }
+
+    public CachedResponse getMessage(long id) {
+        var entry = entries.get(id);
+        (entry != null ? messageHits : messageMisses).increment();
+        return entry != null ? entry.use() : null;
+    }
+
+    public CachedResponse getPage(PageKey key) {
+        var entry = entries.get(key);
+        (entry != null ? pageHits : pageMisses).increment();
+        return entry != null ? entry.use() : null;
+    }
+
+    public void putMessage(long id, CachedResponse response, long generation) {
+        if (response.json.length > maxBytes) {
+            return;
+        }
+        synchronized (clock) {
+            if (generation == generation(id)) {
+                put(new Entry(id, response, null, null));
+            }
+        }
+    }
+
+    /**
+     * @param ids ids of the messages on the page, in page order
+     */
+    public void putPage(PageKey key, List<Long> ids, CachedResponse response, long generation) {
+        if (response.json.length > maxBytes) {
+            return;
+        }
+        synchronized (clock) {
+            if (generation == generation()) {
+                put(new Entry(key, response, ids, key.coverage(ids)));
+            }
+        }
+    }
+
+    public void created(long id) {
+        synchronized (clock) {
+            pageGeneration.incrementAndGet();
+            removeCovering(id);
+        }
+    }
+
+    public void updated(long id) {
+        synchronized (clock) {
+            messageGenerations.incrementAndGet(stripe(id));
+            pageGeneration.incrementAndGet();
+            removeMessage(id);
+            var holding = pagesById.get(id);
+            if (holding != null) {
+                new ArrayList<>(holding).forEach(this::remove);
+            }
+        }
+    }
+
+    public void deleted(long id) {
+        synchronized (clock) {
+            messageGenerations.incrementAndGet(stripe(id));
+            pageGeneration.incrementAndGet();
+            removeMessage(id);
+            removeCovering(id);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (clock) {
+            for (var i = 0; i < GENERATION_STRIPES; i++) {
+                messageGenerations.incrementAndGet(i);
+            }
+            pageGeneration.incrementAndGet();
+            entries.clear();
+            clock.clear();
+            pageClock.clear();
+            pagesById.clear();
+            pagesByCoverageEnd.clear();
+            pages = 0;
+            bytes = 0;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("message.response.cache.requests", messageHits, LongAdder::sum)
+            .tags("kind", "message", "result", "hit")
+            .description("Response cache lookups")
+            .register(registry);
+        FunctionCounter.builder("message.response.cache.requests", messageMisses, LongAdder::sum)
+            .tags("kind", "message", "result", "miss")
+            .description("Response cache lookups")
+            .register(registry);
+        FunctionCounter.builder("message.response.cache.requests", pageHits, LongAdder::sum)
+            .tags("kind", "page", "result", "hit")
+            .description("Response cache lookups")
+            .register(registry);
+        FunctionCounter.builder("message.response.cache.requests", pageMisses, LongAdder::sum)
+            .tags("kind", "page", "result", "miss")
+            .description("Response cache lookups")
+            .register(registry);
+        FunctionCounter.builder("message.response.cache.evictions", evictions, LongAdder::sum)
+            .description("Responses dropped to stay within the size limits")
+            .register(registry);
+        Gauge.builder("message.response.cache.size", this, ResponseCache::size)
+            .description("Cached responses")
+            .register(registry);
+        Gauge.builder("message.response.cache.bytes", this, ResponseCache::bytes)
+            .description("Total size of the cached response bodies")
+            .register(registry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    private void put(Entry entry) {
+        var previous = entries.get(entry.key);
+        if (previous != null) {
+            remove(previous);
+        }
+        entries.put(entry.key, entry);
+        bytes += entry.response.json.length;
+        clock.add(entry);
+        if (entry.ids != null) {
+            pages++;
+            pageClock.add(entry);
+            for (var id : entry.ids) {
+                pagesById.computeIfAbsent(id, key -> new HashSet<>()).add(entry);
+            }
+            pagesByCoverageEnd.computeIfAbsent(entry.coverage.to, key -> new HashSet<>()).add(entry);
+        }
+        while (pages > maxPages) {
+            evict(pageClock);
+        }
+        while (entries.size() > maxSize || bytes > maxBytes) {
+            evict(clock);
+        }
+        // removed entries are only skipped when the clock reaches them, so it is swept once they pile up
+        if (clock.size() > 2 * entries.size() + 16) {
+            clock.removeIf(queued -> queued.removed);
+            pageClock.removeIf(queued -> queued.removed);
+        }
+    }
+
+    /**
+     * Removes the first entry of the clock not used since it was last passed, the ones used meanwhile go round again.
+     */
+    private void evict(ArrayDeque<Entry> entriesClock) {
+        while (true) {
+            var entry = entriesClock.poll();
+            if (entry.removed) {
+                continue;
+            }
+            if (entry.used) {
+                entry.used = false;
+                entriesClock.add(entry);
+                continue;
+            }
+            remove(entry);
+            evictions.increment();
+            return;
+        }
+    }
+
+    private void removeMessage(long id) {
+        var message = entries.get(id);
+        if (message != null) {
+            remove(message);
+        }
+    }
+
+    private void removeCovering(long id) {
+        // pages whose range ends below the id are not looked at
+        var covering = new ArrayList<Entry>();
+        for (var ending : pagesByCoverageEnd.tailMap(id, true).values()) {
+            for (var page : ending) {
+                if (page.coverage.contains(id)) {
+                    covering.add(page);
+                }
+            }
+        }
+        covering.forEach(this::remove);
+    }
+
+    private void remove(Entry entry) {
+        if (entry.removed) {
+            return;
+        }
+        entry.removed = true;
+        entries.remove(entry.key, entry);
+        bytes -= entry.response.json.length;
+        if (entry.ids != null) {
+            pages--;
+            for (var id : entry.ids) {
+                unindex(pagesById, id, entry);
+            }
+            unindex(pagesByCoverageEnd, entry.coverage.to, entry);
+        }
+    }
+
+    private static void unindex(Map<Long, Set<Entry>> index, long id, Entry page) {
+        var indexed = index.get(id);
+        if (indexed != null && indexed.remove(page) && indexed.isEmpty()) {
+            index.remove(id);
+        }
+    }
+
+    private static int stripe(long id) {
+        return Long.hashCode(id) & (GENERATION_STRIPES - 1);
+    }
+
+    private static final class Entry {
+        final Object key;
+        final CachedResponse response;
+        // both null for single messages
+        final List<Long> ids;
+        final PageKey.IdRange coverage;
+        // set by reads without a lock, cleared by the clock
+        volatile boolean used;
+        // guarded by the clock
+        boolean removed;
+
+        Entry(Object key, CachedResponse response, List<Long> ids, PageKey.IdRange coverage) {
+            this.key = key;
+            this.response = response;
+            this.ids = ids;
+            this.coverage = coverage;
+        }
+
+        CachedResponse use() {
+            // skips the write when already marked, so hot entries are only read
+            if (!used) {
+                used = true;
+            }
+            return response;
+        }
+    }
+}
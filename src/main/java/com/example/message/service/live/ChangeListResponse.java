@@ -0,0 +1,21 @@
+package com.example.message.service.live;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.Collections;
+import java.util.List;
+
+@Schema(title = "Change list response")
+public class ChangeListResponse {
+    public List<MessageEvent> changes = Collections.emptyList();
+    @Schema(description = "Offset to pass as since to get the changes following this page")
+    public long nextSince;
+
+    public ChangeListResponse() {
+    }
+
+    public ChangeListResponse(List<MessageEvent> changes, long nextSince) {
+        this.changes = changes;
+        this.nextSince = nextSince;
+    }
+}
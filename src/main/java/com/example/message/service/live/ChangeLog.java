@@ -0,0 +1,151 @@
+package com.example.message.service.live;
+
+import com.example.message.service.message.MessageResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Ordered log of the latest message changes, read by offset.
+ * <p>
+ * Offsets start at the startup time shifted by 20 bits, so they keep growing across restarts and offsets of an
+ * earlier run are never taken for current ones. Only the latest {@code message.changes.retention} events are
+ * kept, a consumer that fell further behind has to read the messages again.
+ */
+@ApplicationScoped
+public class ChangeLog implements MeterBinder {
+    private static final int OFFSET_SHIFT = 20;
+
+    @ConfigProperty(name = "message.changes.retention", defaultValue = "10000")
+    int retention;
+    @Inject
+    MessageBroadcaster broadcaster;
+
+    // guards the fields below and orders appending against subscribing
+    private final Object lock = new Object();
+    // ring of the kept events, the one at an offset sits at the offset modulo its length
+    private MessageEvent[] events;
+    private int retained;
+    private long nextOffset = System.currentTimeMillis() << OFFSET_SHIFT;
+
+    public void created(MessageResponse message) {
+        append(MessageEvent.CREATED, message.id, message);
+    }
+
+    public void updated(MessageResponse message) {
+        append(MessageEvent.UPDATED, message.id, message);
+    }
+
+    public void deleted(long messageId) {
+        append(MessageEvent.DELETED, messageId, null);
+    }
+
+    /**
+     * Returns up to {@code limit} events following the offset, oldest first, or nothing if events following it
+     * are no longer kept or the offset was never handed out.
+     *
+     * @param since offset of the last event the consumer has seen, or null to start from the oldest kept event
+     */
+    public Optional<ChangeListResponse> read(Long since, int limit) {
+        synchronized (lock) {
+            if (since == null) {
+                since = firstOffset() - 1;
+            } else if (since < firstOffset() - 1 || since >= nextOffset) {
+                return Optional.empty();
+            }
+            var count = (int) Math.min(limit, nextOffset - 1 - since);
+            var result = new ArrayList<MessageEvent>(count);
+            // offsets have no gaps, so the events to return are found by position without walking the others
+            for (var offset = since + 1; offset <= since + count; offset++) {
+                result.add(events[slot(offset)]);
+            }
+            var nextSince = result.isEmpty() ? since : result.get(result.size() - 1).offset;
+            return Optional.of(new ChangeListResponse(result, nextSince));
+        }
+    }
+
+    /**
+     * Offset of the latest event, or the one before the first event if none was appended yet.
+     */
+    public long lastOffset() {
+        synchronized (lock) {
+            return nextOffset - 1;
+        }
+    }
+
+    /**
+     * Waits until an event following the offset is appended, at most for the timeout.
+     *
+     * @return whether such an event was appended
+     */
+    public boolean await(long since, long timeoutMs) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (lock) {
+            while (nextOffset - 1 <= since) {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.changes.retained", this, ChangeLog::retained)
+            .description("Change events kept for consumers")
+            .register(registry);
+    }
+
+    /**
+     * Passes the events following the offset to the action, while no other event can be appended. Events
+     * appended afterwards reach the broadcaster, so together they form the complete sequence.
+     */
+    void catchUp(long since, int limit, Consumer<Optional<List<MessageEvent>>> action) {
+        synchronized (lock) {
+            action.accept(read(since, limit).map(page -> page.changes));
+        }
+    }
+
+    int retained() {
+        synchronized (lock) {
+            return retained;
+        }
+    }
+
+    private void append(String type, long messageId, MessageResponse message) {
+        synchronized (lock) {
+            var event = new MessageEvent(nextOffset++, type, messageId, message);
+            if (retention > 0) {
+                if (events == null) {
+                    events = new MessageEvent[retention];
+                }
+                // overwrites the oldest event once the ring is full
+                events[slot(event.offset)] = event;
+                retained = Math.min(retained + 1, events.length);
+            }
+            // still under the lock, so subscribers get the events in log order
+            broadcaster.publish(event);
+            lock.notifyAll();
+        }
+    }
+
+    private long firstOffset() {
+        return nextOffset - retained;
+    }
+
+    private int slot(long offset) {
+        return Math.floorMod(offset, events.length);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.message.service.live;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Connection of one live subscriber.
+ */
+public interface EventSink {
+    /**
+     * Sends the event, completing once the connection accepted it. At most one send is pending at a time.
+     */
+    CompletionStage<?> send(MessageEvent event);
+
+    void close();
+}
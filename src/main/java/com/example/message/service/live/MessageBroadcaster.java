@@ -0,0 +1,209 @@
+package com.example.message.service.live;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans the events of the {@link ChangeLog} out to live subscribers.
+ * <p>
+ * Every subscriber has a bounded buffer, drained on a separate thread by sending one event at a time as its
+ * connection accepts them. Publishing only fills the buffers and never waits for a subscriber: one whose buffer is
+ * full is disconnected and can resume later.
+ * A subscriber resuming after an event the change log no longer holds gets a reset event instead of a replay.
+ */
+@ApplicationScoped
+public class MessageBroadcaster implements MeterBinder {
+    @ConfigProperty(name = "message.live.buffer-size", defaultValue = "256")
+    int bufferSize;
+    @Inject
+    ChangeLog changeLog;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Runs the sends, which may block until the client reads. Never the thread publishing the event.
+     */
+    Executor sender;
+
+    @PostConstruct
+    void start() {
+        sender = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "message-live");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        if (sender instanceof ExecutorService) {
+            ((ExecutorService) sender).shutdownNow();
+        }
+    }
+
+    /**
+     * Registers the sink for all events appended from now on.
+     *
+     * @param lastEventId offset of the last event the subscriber has seen, or null to only get new events
+     * @return handle to unsubscribe with
+     */
+    public AutoCloseable subscribe(String lastEventId, EventSink sink) {
+        var subscriber = new Subscriber(sink, Math.max(bufferSize, 1));
+        var since = lastEventId != null ? parseOffset(lastEventId) : changeLog.lastOffset();
+        changeLog.catchUp(since, subscriber.buffer.remainingCapacity(), missed -> {
+            var caughtUp = missed.isPresent() && missed.get().size() < subscriber.buffer.remainingCapacity();
+            if (caughtUp) {
+                subscriber.buffer.addAll(missed.get());
+            } else {
+                subscriber.buffer.offer(new MessageEvent(changeLog.lastOffset(), MessageEvent.RESET, null, null));
+            }
+            subscribers.add(subscriber);
+        });
+        subscriber.schedule();
+        return () -> remove(subscriber, false);
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.live.subscribers", subscribers, List::size)
+            .description("Connected live subscribers")
+            .register(registry);
+        FunctionCounter.builder("message.live.events", published, LongAdder::sum)
+            .description("Message changes published to subscribers")
+            .register(registry);
+        FunctionCounter.builder("message.live.dropped", dropped, LongAdder::sum)
+            .description("Subscribers disconnected for falling behind")
+            .register(registry);
+    }
+
+    /**
+     * Called by the change log for every appended event, in log order. Only hands the event over to the subscribers,
+     * the sending happens on the sender threads.
+     */
+    void publish(MessageEvent event) {
+        for (var subscriber : subscribers) {
+            if (subscriber.buffer.offer(event)) {
+                subscriber.schedule();
+            } else {
+                remove(subscriber, true);
+            }
+        }
+        published.increment();
+    }
+
+    private static long parseOffset(String eventId) {
+        try {
+            return Long.parseLong(eventId);
+        } catch (NumberFormatException e) {
+            // never a valid offset, so the subscriber gets a reset
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private void remove(Subscriber subscriber, boolean slow) {
+        if (subscribers.remove(subscriber)) {
+            if (slow) {
+                dropped.increment();
+            }
+            subscriber.close();
+        }
+    }
+
+    private final class Subscriber {
+        final EventSink sink;
+        final ArrayBlockingQueue<MessageEvent> buffer;
+        final AtomicBoolean sending = new AtomicBoolean();
+        volatile boolean closed;
+
+        Subscriber(EventSink sink, int bufferSize) {
+            this.sink = sink;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        /**
+         * Starts draining the buffer unless a drain is already running or waiting for the connection.
+         */
+        void schedule() {
+            if (!closed && !buffer.isEmpty() && sending.compareAndSet(false, true)) {
+                execute();
+            }
+        }
+
+        private void execute() {
+            try {
+                sender.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                remove(this, false);
+            }
+        }
+
+        /**
+         * Sends the buffered events, running on a sender thread while holding the sending flag.
+         */
+        private void drain() {
+            while (!closed) {
+                var event = buffer.poll();
+                if (event == null) {
+                    sending.set(false);
+                    // an event offered just before the flag was cleared found the drain still running
+                    if (buffer.isEmpty() || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                final CompletableFuture<?> sent;
+                try {
+                    sent = sink.send(event).toCompletableFuture();
+                } catch (RuntimeException e) {
+                    // the connection is gone
+                    remove(this, false);
+                    return;
+                }
+                if (sent.isDone() && !sent.isCompletedExceptionally()) {
+                    // accepted right away, keep sending on this thread
+                    continue;
+                }
+                sent.whenComplete((result, failure) -> {
+                    if (failure != null) {
+                        remove(this, false);
+                        return;
+                    }
+                    execute();
+                });
+                return;
+            }
+        }
+
+        void close() {
+            closed = true;
+            buffer.clear();
+            sink.close();
+        }
+    }
+}
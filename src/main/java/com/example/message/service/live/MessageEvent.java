@@ -0,0 +1,32 @@
+package com.example.message.service.live;
+
+import com.example.message.service.message.MessageResponse;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+@Schema(title = "Change of a message, pushed to live subscribers")
+public class MessageEvent {
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+    /** Events were missed, the subscriber has to read the messages again. */
+    public static final String RESET = "reset";
+
+    @Schema(description = "Position in the change log, pass it as since or Last-Event-ID to resume after it")
+    public long offset;
+    @Schema(description = "One of created, updated, deleted or reset")
+    public String type;
+    @Schema(description = "Id of the changed message, absent for reset")
+    public Long messageId;
+    @Schema(description = "Message after the change, absent for deleted and reset")
+    public MessageResponse message;
+
+    public MessageEvent() {
+    }
+
+    public MessageEvent(long offset, String type, Long messageId, MessageResponse message) {
+        this.offset = offset;
+        this.type = type;
+        this.messageId = messageId;
+        this.message = message;
+    }
+}
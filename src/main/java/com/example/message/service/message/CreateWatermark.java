@@ -0,0 +1,58 @@
+package com.example.message.service.message;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps cursor reads from passing ids that are still being created, for stores that take ids without holding one
+ * monitor for the whole create.
+ * <p>
+ * There a higher id can become visible before a lower one, and a cursor that read the higher one never comes back
+ * for the lower. So a create registers before it takes its id, with a bound no id it can get is below, and completes
+ * once the message is stored. Reads only return ids below {@link #limit()}, the lowest bound of the creates in
+ * progress and at most one above the highest id taken. Neither creates nor reads wait for each other. This relies on
+ * ids growing in the order they are handed out. A generator handing out blocks per thread only keeps them in order
+ * within a block.
+ */
+final class CreateWatermark {
+    // bounds of the creates in progress, with the number of creates registered under each
+    private final ConcurrentSkipListMap<Long, Integer> inProgress = new ConcurrentSkipListMap<>();
+    // one above the highest id taken
+    private final AtomicLong taken = new AtomicLong();
+
+    /**
+     * Registers a create about to take its ids.
+     *
+     * @return bound to complete the create with
+     */
+    long begin() {
+        var bound = taken.get();
+        inProgress.merge(bound, 1, Integer::sum);
+        return bound;
+    }
+
+    /**
+     * Records an id taken by a create, or stored under an id it already carried. Reads return it once no create
+     * that may still store a lower id is in progress.
+     */
+    void taken(long id) {
+        taken.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Called once the messages of the create are stored, or it failed.
+     */
+    void complete(long bound) {
+        inProgress.computeIfPresent(bound, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Reads may return the ids below this one, all lower ids that will ever be visible already are.
+     */
+    long limit() {
+        // read before the creates in progress: a create that took an id below it registered before reading it
+        var limit = taken.get();
+        var oldest = inProgress.firstEntry();
+        return oldest == null ? limit : Math.min(limit, oldest.getKey());
+    }
+}
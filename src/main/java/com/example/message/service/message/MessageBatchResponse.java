@@ -0,0 +1,34 @@
+package com.example.message.service.message;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.Collections;
+import java.util.List;
+
+@Schema(title = "Batch response with one result per requested item, in request order")
+public class MessageBatchResponse {
+    public List<Result> results = Collections.emptyList();
+
+    public MessageBatchResponse() {
+    }
+
+    public MessageBatchResponse(List<Result> results) {
+        this.results = results;
+    }
+
+    @Schema(title = "Result of one batch item")
+    public static class Result {
+        @Schema(description = "Message id, absent for messages that were not created")
+        public Long id;
+        @Schema(description = "HTTP status the single-message endpoint would have returned")
+        public int status;
+
+        public Result() {
+        }
+
+        public Result(Long id, int status) {
+            this.id = id;
+            this.status = status;
+        }
+    }
+}
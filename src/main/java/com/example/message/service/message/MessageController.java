@@ -1,5 +1,15 @@
 package com.example.message.service.message;
 
+import com.example.message.service.cache.CachedResponse;
+import com.example.message.service.cache.PageKey;
+import com.example.message.service.cache.ResponseCache;
+import com.example.message.service.live.ChangeListResponse;
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.live.EventSink;
+import com.example.message.service.live.MessageBroadcaster;
+import com.example.message.service.live.MessageEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.security.identity.SecurityIdentity;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.SecuritySchemeType;
@@ -19,40 +29,247 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @SecuritySchemes(value = {
-    @SecurityScheme(securitySchemeName = "basic", type = SecuritySchemeType.HTTP, scheme = "Basic")
+    @SecurityScheme(securitySchemeName = "basic", type = SecuritySchemeType.HTTP, scheme = "Basic"),
+    @SecurityScheme(securitySchemeName = "bearer", type = SecuritySchemeType.HTTP, scheme = "Bearer")
 })
 @Path("/message")
 public class MessageController {
+    private static final String NDJSON = "application/x-ndjson";
+    // store versions restart with the process, so page tags of an earlier run must not match
+    private static final String PAGE_TAG_PREFIX = Long.toHexString(new SecureRandom().nextLong());
+    private static final CacheControl REVALIDATE = CacheControl.valueOf("no-cache");
+
     @Inject
     MessageService messageService;
     @Inject
     SecurityIdentity identity;
+    @Inject
+    ObjectMapper objectMapper;
+    @Inject
+    ResponseCache responseCache;
+    @Inject
+    MessageBroadcaster broadcaster;
+    @Inject
+    ChangeLog changeLog;
+    @Context
+    Request request;
+    @Context
+    HttpHeaders headers;
 
-    @Operation(summary = "Get all messages with limit/offset")
+    @Operation(summary = "Get all messages with limit and either offset or after/before cursor")
     @APIResponses(value = {
         @APIResponse(
             responseCode = "200",
             description = "List of messages",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageListResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "304",
+            description = "No message changed since the page with the If-None-Match tag was read"
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "More than one of offset, after and before is specified"
         )
     })
     @GET
     @Path("/all")
     @Produces(MediaType.APPLICATION_JSON)
-    public MessageListResponse getAll(
+    public Response getAll(
         @Parameter(description = "Message number limit") @DefaultValue("100") @QueryParam("limit") int limit,
-        @Parameter(description = "Message list offset") @DefaultValue("0") @QueryParam("offset") int offset
+        @Parameter(description = "Message list offset") @DefaultValue("0") @QueryParam("offset") int offset,
+        @Parameter(description = "Return messages following this id, oldest first") @QueryParam("after") Long after,
+        @Parameter(description = "Return messages preceding this id, newest first") @QueryParam("before") Long before
     ) {
-        return messageService.getAll(limit, offset);
+        if (after != null && before != null || offset != 0 && (after != null || before != null)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        final PageKey key;
+        final Supplier<MessageListResponse> page;
+        if (after != null) {
+            key = PageKey.after(after, limit);
+            page = () -> messageService.getAllAfter(after, limit);
+        } else if (before != null) {
+            key = PageKey.before(before, limit);
+            page = () -> messageService.getAllBefore(before, limit);
+        } else {
+            key = PageKey.offset(offset, limit);
+            page = () -> messageService.getAll(limit, offset);
+        }
+        return cachedPage(key, page);
+    }
+
+    @Operation(summary = "Export all messages as newline-delimited JSON, oldest first")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "One message per line",
+            content = @Content(mediaType = NDJSON, schema = @Schema(implementation = MessageResponse.class))
+        )
+    })
+    @GET
+    @Path("/export")
+    @Produces(NDJSON)
+    public StreamingOutput export() {
+        // written straight to the response as the repository is read; a slow client blocks the write,
+        // and with it further reads
+        return output -> {
+            var generator = objectMapper.getFactory().createGenerator(output);
+            try (var messages = messageService.export()) {
+                var iterator = messages.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(iterator.next());
+                    generator.writeRaw('\n');
+                }
+            }
+            generator.flush();
+        };
+    }
+
+    @Operation(summary = "Stream created, updated and deleted messages as server-sent events")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "One event per change, named by its type. A reset event means changes were missed",
+            content = @Content(mediaType = MediaType.SERVER_SENT_EVENTS, schema = @Schema(implementation = MessageEvent.class))
+        )
+    })
+    @GET
+    @Path("/live")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void live(
+        @Parameter(description = "Resume after this event id, sent by browsers on reconnect")
+        @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventIdHeader,
+        @Parameter(description = "Resume after this event id, for clients that cannot set headers")
+        @QueryParam("lastEventId") String lastEventId,
+        @Context SseEventSink sink,
+        @Context Sse sse
+    ) {
+        broadcaster.subscribe(lastEventIdHeader != null ? lastEventIdHeader : lastEventId, new EventSink() {
+            @Override
+            public CompletionStage<?> send(MessageEvent event) {
+                return sink.send(sse.newEventBuilder()
+                    .id(String.valueOf(event.offset))
+                    .name(event.type)
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(MessageEvent.class, event)
+                    .build());
+            }
+
+            @Override
+            public void close() {
+                sink.close();
+            }
+        });
+    }
+
+    @Operation(summary = "Get the changes following an offset of the change log, oldest first")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "List of changes, empty if there are no new ones",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = ChangeListResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Limit is not between 1 and " + MessageService.MAX_BATCH_SIZE
+        ),
+        @APIResponse(
+            responseCode = "410",
+            description = "Changes following the offset are no longer kept, the messages have to be read again"
+        )
+    })
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getChanges(
+        @Parameter(description = "Return changes following this offset, the oldest kept ones if absent") @QueryParam("since") Long since,
+        @Parameter(description = "Change number limit") @DefaultValue("100") @QueryParam("limit") int limit
+    ) {
+        if (limit < 1 || limit > MessageService.MAX_BATCH_SIZE) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return changeLog.read(since, limit)
+            .map(changes -> Response.ok(changes).build())
+            .orElseGet(() -> Response.status(Response.Status.GONE).build());
+    }
+
+    @Operation(summary = "Search messages containing all words of the query, best match first")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "List of matching messages",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageListResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Query is missing or empty, or limit or offset is negative"
+        )
+    })
+    @GET
+    @Path("/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(
+        @Parameter(description = "Words to search in message header and body") @QueryParam("q") String query,
+        @Parameter(description = "Message number limit") @DefaultValue("100") @QueryParam("limit") int limit,
+        @Parameter(description = "Result list offset") @DefaultValue("0") @QueryParam("offset") int offset
+    ) {
+        if (query == null || query.isBlank() || limit < 0 || offset < 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(messageService.search(query, limit, offset)).build();
+    }
+
+    @Operation(summary = "Get messages of one author, oldest first")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "List of messages",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageListResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "304",
+            description = "No message changed since the page with the If-None-Match tag was read"
+        )
+    })
+    @GET
+    @Path("/by-author/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getByAuthor(
+        @PathParam String name,
+        @Parameter(description = "Message number limit") @DefaultValue("100") @QueryParam("limit") int limit,
+        @Parameter(description = "Return messages following this id") @DefaultValue("-1") @QueryParam("after") long after
+    ) {
+        return conditionalPage(tag -> messageService.getByAuthor(name, after, limit));
     }
 
     @Operation(summary = "Get message by id")
@@ -62,6 +279,10 @@ public class MessageController {
             description = "Message for specified id",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageResponse.class))
         ),
+        @APIResponse(
+            responseCode = "304",
+            description = "Message is unchanged since the If-None-Match tag or If-Modified-Since time"
+        ),
         @APIResponse(
             responseCode = "404",
             description = "Message id not found"
@@ -70,8 +291,20 @@ public class MessageController {
     @GET
     @Path("/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public MessageResponse getById(@PathParam long id) {
-        return messageService.getById(id);
+    public Response getById(@PathParam long id) {
+        var cached = responseCache.getMessage(id);
+        if (cached == null) {
+            var generation = responseCache.generation(id);
+            var message = messageService.getById(id);
+            var modifiedAt = message.editedAt != null ? message.editedAt : message.createdAt;
+            var tag = messageTag(message);
+            // HTTP dates have second precision, a finer one would never compare as unmodified
+            var lastModified = Date.from(modifiedAt.atZone(ZoneId.systemDefault()).toInstant().truncatedTo(ChronoUnit.SECONDS));
+            cached = new CachedResponse(toJson(message), tag, lastModified);
+            responseCache.putMessage(id, cached, generation);
+        }
+        var response = cached;
+        return conditional(response.tag, response.lastModified, () -> response.json);
     }
 
     @Operation(summary = "Create message")
@@ -91,6 +324,7 @@ public class MessageController {
         )
     })
     @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
     @POST
     @RolesAllowed("user")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -125,19 +359,39 @@ public class MessageController {
         @APIResponse(
             responseCode = "404",
             description = "Message id not found"
+        ),
+        @APIResponse(
+            responseCode = "409",
+            description = "Message was edited by another request while this one was applied"
+        ),
+        @APIResponse(
+            responseCode = "412",
+            description = "Message no longer matches the If-Match tag"
         )
     })
     @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
     @PUT
     @RolesAllowed("user")
     @Path("/{id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response update(@PathParam int id, MessageRequest request) {
+    public Response update(
+        @PathParam long id,
+        @Parameter(description = "Only update if the message still has this tag, as returned by get by id")
+        @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+        MessageRequest request
+    ) {
         if (request.header == null || request.header.isEmpty()
             || request.body == null || request.body.isEmpty()) {
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
-        messageService.update(identity.getPrincipal().getName(), id, request);
+        var userName = identity.getPrincipal().getName();
+        if (ifMatch == null) {
+            messageService.update(userName, id, request);
+        } else {
+            messageService.update(userName, id, request,
+                current -> this.request.evaluatePreconditions(messageTag(current)) == null);
+        }
         return Response.ok().build();
     }
 
@@ -161,11 +415,164 @@ public class MessageController {
         )
     })
     @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
     @DELETE
     @RolesAllowed("user")
     @Path("/{id}")
-    public Response delete(@PathParam int id) {
+    public Response delete(@PathParam long id) {
         messageService.delete(identity.getPrincipal().getName(), id);
         return Response.ok().build();
     }
+
+    @Operation(summary = "Create several messages at once")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Batch processed. Each result holds the new message id, or status 400 for an invalid item",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageBatchResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Batch is empty or larger than " + MessageService.MAX_BATCH_SIZE + " items"
+        ),
+        @APIResponse(
+            responseCode = "401",
+            description = "User is not authenticated"
+        )
+    })
+    @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
+    @POST
+    @RolesAllowed("user")
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response createAll(List<MessageRequest> requests) {
+        if (!isValidBatch(requests)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(messageService.createAll(identity.getPrincipal().getName(), requests)).build();
+    }
+
+    @Operation(summary = "Update several messages at once")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Batch processed. Each result holds the status the single update would have returned",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageBatchResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Batch is empty or larger than " + MessageService.MAX_BATCH_SIZE + " items"
+        ),
+        @APIResponse(
+            responseCode = "401",
+            description = "User is not authenticated"
+        )
+    })
+    @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
+    @PUT
+    @RolesAllowed("user")
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateAll(List<MessageUpdateRequest> requests) {
+        if (!isValidBatch(requests)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(messageService.updateAll(identity.getPrincipal().getName(), requests)).build();
+    }
+
+    @Operation(summary = "Delete several messages at once")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Batch processed. Each result holds the status the single delete would have returned",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = MessageBatchResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "400",
+            description = "Batch is empty or larger than " + MessageService.MAX_BATCH_SIZE + " items"
+        ),
+        @APIResponse(
+            responseCode = "401",
+            description = "User is not authenticated"
+        )
+    })
+    @SecurityRequirement(name = "basic")
+    @SecurityRequirement(name = "bearer")
+    @POST
+    @RolesAllowed("user")
+    @Path("/batch/delete")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response deleteAll(List<Long> ids) {
+        if (!isValidBatch(ids)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(messageService.deleteAll(identity.getPrincipal().getName(), ids)).build();
+    }
+
+    /**
+     * Pages are tagged with the store version, which is read before the page, so a matching tag skips
+     * reading and serializing the page.
+     */
+    private Response conditionalPage(Function<EntityTag, ?> page) {
+        var tag = new EntityTag(PAGE_TAG_PREFIX + "-" + Long.toHexString(messageService.version()));
+        return conditional(tag, null, () -> page.apply(tag));
+    }
+
+    /**
+     * A cached page keeps the tag of the version it was read at. Writes that do not touch the page leave it
+     * cached, so that tag may be older than the current version.
+     */
+    private Response cachedPage(PageKey key, Supplier<MessageListResponse> page) {
+        var cached = responseCache.getPage(key);
+        if (cached != null) {
+            return conditional(cached.tag, null, () -> cached.json);
+        }
+        return conditionalPage(tag -> {
+            var generation = responseCache.generation();
+            var messages = page.get();
+            var json = toJson(messages);
+            var ids = messages.messages.stream().map(message -> message.id).collect(Collectors.toList());
+            responseCache.putPage(key, ids, new CachedResponse(json, tag, null), generation);
+            return json;
+        });
+    }
+
+    private Response conditional(EntityTag tag, Date lastModified, Supplier<?> entity) {
+        // If-None-Match wins over If-Modified-Since, whose second precision misses quick successive edits
+        var notModified = lastModified == null || headers.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null
+            ? request.evaluatePreconditions(tag)
+            : request.evaluatePreconditions(lastModified);
+        var response = notModified != null ? notModified : Response.ok(entity.get());
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        return response.tag(tag).cacheControl(REVALIDATE).build();
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the version alone would repeat after a restart, the modification time tells those versions apart
+    private static EntityTag messageTag(MessageResponse message) {
+        var modifiedAt = message.editedAt != null ? message.editedAt : message.createdAt;
+        return new EntityTag(message.id + "-" + Long.toHexString(fingerprint(modifiedAt)) + "-" + message.version);
+    }
+
+    private static long fingerprint(LocalDateTime time) {
+        return time.toLocalDate().toEpochDay() * 86_400_000_000_000L + time.toLocalTime().toNanoOfDay();
+    }
+
+    private static boolean isValidBatch(List<?> items) {
+        return items != null && !items.isEmpty() && items.size() <= MessageService.MAX_BATCH_SIZE;
+    }
 }
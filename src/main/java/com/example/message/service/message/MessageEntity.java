@@ -1,35 +1,81 @@
 package com.example.message.service.message;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class MessageEntity {
-    private long id;
+/**
+ * Stored form of a message, immutable and kept compact since the store holds every message on the heap.
+ * <p>
+ * Timestamps are local date-times in epoch milliseconds, owner names are shared between the messages of an owner
+ * and the body is kept as UTF-8 bytes. {@link MessageResponse} is only built from it when a message is returned.
+ * <p>
+ * Every edit produces a copy with the next version, which repositories store only over the version it was made
+ * from, so concurrent edits cannot overwrite each other. Only the {@code jdbc} store persists versions, the others
+ * start them at 0 on every run.
+ */
+public final class MessageEntity {
+    private static final long NOT_EDITED = Long.MIN_VALUE;
+    // owners are accounts, so there are few of them and the dictionary never shrinks
+    private static final ConcurrentHashMap<String, String> OWNER_NAMES = new ConcurrentHashMap<>();
+
+    private final long id;
     private final String ownerName;
-    private String header;
-    private String body;
-    private final LocalDateTime createdAt;
-    private LocalDateTime editedAt;
+    private final String header;
+    private final byte[] body;
+    private final long createdAt;
+    private final long editedAt;
+    private final int version;
 
     public MessageEntity(String ownerName, String header, String body) {
+        this(0, ownerName, header, body, LocalDateTime.now(), null);
+    }
+
+    public MessageEntity(long id, String ownerName, String header, String body, LocalDateTime createdAt, LocalDateTime editedAt) {
+        this(id, ownerName, header, body, createdAt, editedAt, 0);
+    }
+
+    MessageEntity(long id, String ownerName, String header, String body, LocalDateTime createdAt, LocalDateTime editedAt,
+                  int version) {
+        this(id, ownerName(ownerName), header, body.getBytes(StandardCharsets.UTF_8),
+            toMillis(createdAt), editedAt == null ? NOT_EDITED : toMillis(editedAt), version);
+    }
+
+    MessageEntity(long id, String ownerName, String header, byte[] body, long createdAt, long editedAt, int version) {
+        this.id = id;
         this.ownerName = ownerName;
         this.header = header;
         this.body = body;
-        this.createdAt = LocalDateTime.now();
-        this.editedAt = null;
+        this.createdAt = createdAt;
+        this.editedAt = editedAt;
+        this.version = version;
     }
 
-    public void update(String header, String body) {
-        this.header = header;
-        this.body = body;
-        this.editedAt = LocalDateTime.now();
+    /**
+     * Returns the message stored under the id the repository assigned.
+     */
+    public MessageEntity withId(long id) {
+        return new MessageEntity(id, ownerName, header, body, createdAt, editedAt, version);
     }
 
-    public long getId() {
-        return id;
+    /**
+     * Returns the next version of the message with new content, edited now.
+     */
+    public MessageEntity edited(String header, String body) {
+        return new MessageEntity(id, ownerName, header, body.getBytes(StandardCharsets.UTF_8),
+            createdAt, toMillis(LocalDateTime.now()), version + 1);
     }
 
-    public void setId(long id) {
-        this.id = id;
+    /**
+     * Whether this is the edit directly following the given version of the message.
+     */
+    public boolean follows(MessageEntity previous) {
+        return previous.id == id && previous.version + 1 == version;
+    }
+
+    public long getId() {
+        return id;
     }
 
     public String getOwnerName() {
@@ -41,14 +87,47 @@ public class MessageEntity {
     }
 
     public String getBody() {
-        return body;
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    public int getVersion() {
+        return version;
     }
 
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        return toDateTime(createdAt);
     }
 
     public LocalDateTime getEditedAt() {
+        return editedAt == NOT_EDITED ? null : toDateTime(editedAt);
+    }
+
+    // for stores keeping messages in another form; the body array is shared and must not be changed
+
+    byte[] bodyBytes() {
+        return body;
+    }
+
+    long createdAtMillis() {
+        return createdAt;
+    }
+
+    long editedAtMillis() {
         return editedAt;
     }
+
+    private static String ownerName(String name) {
+        var shared = OWNER_NAMES.putIfAbsent(name, name);
+        return shared != null ? shared : name;
+    }
+
+    // local date-times are counted as if they were UTC, the same way the log stores them
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000,
+            ZoneOffset.UTC);
+    }
 }
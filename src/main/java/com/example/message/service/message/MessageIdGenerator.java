@@ -0,0 +1,20 @@
+package com.example.message.service.message;
+
+/**
+ * Hands out the ids of created messages, selected by {@code message.id.generator}. Ids grow in the order they are
+ * handed out, at least roughly, as pages list messages in id order and cursors resume after an id.
+ */
+public interface MessageIdGenerator {
+    long next();
+
+    /**
+     * Id handed out next. Generators handing out ids in blocks only know the id the next block starts at, ids left in
+     * blocks already taken may be lower.
+     */
+    long peek();
+
+    /**
+     * Makes the ids handed out from now on greater than the given one, which a store restored or got from elsewhere.
+     */
+    void advancePast(long id);
+}
@@ -8,6 +8,8 @@ import java.util.List;
 @Schema(title = "Message list response")
 public class MessageListResponse {
     public List<MessageResponse> messages = Collections.emptyList();
+    @Schema(description = "Id to pass as the same cursor parameter to get the next page, absent on the last page")
+    public Long nextCursor;
 
     public MessageListResponse() {
     }
@@ -15,4 +17,9 @@ public class MessageListResponse {
     public MessageListResponse(List<MessageResponse> messages) {
         this.messages = messages;
     }
+
+    public MessageListResponse(List<MessageResponse> messages, Long nextCursor) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
 }
@@ -0,0 +1,144 @@
+package com.example.message.service.message;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.security.ForbiddenException;
+import io.quarkus.security.UnauthorizedException;
+import io.quarkus.security.identity.SecurityIdentity;
+import io.quarkus.vertx.web.Body;
+import io.quarkus.vertx.web.Param;
+import io.quarkus.vertx.web.Route;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Variant of {@link MessageController} served from the Vert.x event loop instead of a worker thread.
+ * <p>
+ * Bodies are read and written with the application's {@link ObjectMapper}, like the REST endpoints do, rather than
+ * with the Vert.x mapper the routes would use for objects, which is shared by everything running on Vert.x.
+ */
+public class MessageReactiveController {
+    private static final String PATH = "/reactive/message";
+    private static final String JSON = "application/json";
+
+    @Inject
+    MessageReactiveService messageService;
+    @Inject
+    SecurityIdentity identity;
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Route(path = PATH + "/all", methods = HttpMethod.GET, produces = JSON)
+    Uni<Buffer> getAll(@Param("limit") Optional<String> limit, @Param("offset") Optional<String> offset) {
+        // a page is bounded by its limit, so it is encoded as one array
+        return messageService.getAll(parseInt(limit, 100), parseInt(offset, 0))
+            .collect().asList()
+            .map(this::toJson);
+    }
+
+    @Route(path = PATH + "/:id", methods = HttpMethod.GET, produces = JSON)
+    Uni<Buffer> getById(@Param("id") String id) {
+        return messageService.getById(parseId(id)).map(this::toJson);
+    }
+
+    @Route(path = PATH, methods = HttpMethod.POST, consumes = JSON, produces = "text/plain")
+    @RolesAllowed("user")
+    Uni<String> create(@Body Buffer body) {
+        var request = toRequest(body);
+        validate(request);
+        return messageService.create(identity.getPrincipal().getName(), request).map(String::valueOf);
+    }
+
+    @Route(path = PATH + "/:id", methods = HttpMethod.PUT, consumes = JSON)
+    @RolesAllowed("user")
+    Uni<Void> update(@Param("id") String id, @Body Buffer body) {
+        var request = toRequest(body);
+        validate(request);
+        return messageService.update(identity.getPrincipal().getName(), parseId(id), request);
+    }
+
+    @Route(path = PATH + "/:id", methods = HttpMethod.DELETE)
+    @RolesAllowed("user")
+    Uni<Void> delete(@Param("id") String id) {
+        return messageService.delete(identity.getPrincipal().getName(), parseId(id));
+    }
+
+    @Route(regex = PATH + "(/.*)?", type = Route.HandlerType.FAILURE)
+    void onFailure(RoutingContext context) {
+        context.response().setStatusCode(statusOf(context.failure(), context.statusCode())).end();
+    }
+
+    private static int statusOf(Throwable failure, int statusCode) {
+        if (failure instanceof BadRequestException) {
+            return Response.Status.BAD_REQUEST.getStatusCode();
+        }
+        if (failure instanceof NotFoundException) {
+            return Response.Status.NOT_FOUND.getStatusCode();
+        }
+        if (failure instanceof UnauthorizedException) {
+            return Response.Status.UNAUTHORIZED.getStatusCode();
+        }
+        if (failure instanceof ForbiddenException || failure instanceof javax.ws.rs.ForbiddenException) {
+            return Response.Status.FORBIDDEN.getStatusCode();
+        }
+        if (failure instanceof WebApplicationException) {
+            return ((WebApplicationException) failure).getResponse().getStatus();
+        }
+        return statusCode > 0 ? statusCode : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+    }
+
+    private Buffer toJson(Object value) {
+        try {
+            return Buffer.buffer(objectMapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MessageRequest toRequest(Buffer body) {
+        if (body == null || body.length() == 0) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(body.getBytes(), MessageRequest.class);
+        } catch (IOException e) {
+            throw new BadRequestException();
+        }
+    }
+
+    private static void validate(MessageRequest request) {
+        if (request == null
+            || request.header == null || request.header.isEmpty()
+            || request.body == null || request.body.isEmpty()) {
+            throw new BadRequestException();
+        }
+    }
+
+    private static long parseId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new NotFoundException();
+        }
+    }
+
+    private static int parseInt(Optional<String> value, int defaultValue) {
+        try {
+            return value.map(Integer::parseInt).orElse(defaultValue);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.message.service.message;
+
+import com.example.message.service.replication.ReplicationFollower;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking facade of {@link MessageService}.
+ * <p>
+ * In-memory stores answer in microseconds, so operations run right on the calling event loop thread.
+ * Only stores that may block on I/O are offloaded to the worker pool, and the writes of a replication follower,
+ * which wait for the leader.
+ */
+@ApplicationScoped
+public class MessageReactiveService {
+    @Inject
+    MessageService messageService;
+    @Inject
+    MessageRepository repository;
+    @Inject
+    ReplicationFollower follower;
+
+    public Multi<MessageResponse> getAll(int limit, int offset) {
+        return call(() -> messageService.getAll(limit, offset))
+            .onItem().transformToMulti(list -> Multi.createFrom().iterable(list.messages));
+    }
+
+    public Uni<MessageResponse> getById(long messageId) {
+        return call(() -> messageService.getById(messageId));
+    }
+
+    public Uni<Long> create(String userName, MessageRequest request) {
+        return write(() -> messageService.create(userName, request));
+    }
+
+    public Uni<Void> update(String userName, long messageId, MessageRequest request) {
+        return write(() -> {
+            messageService.update(userName, messageId, request);
+            return null;
+        });
+    }
+
+    public Uni<Void> delete(String userName, long messageId) {
+        return write(() -> {
+            messageService.delete(userName, messageId);
+            return null;
+        });
+    }
+
+    private <T> Uni<T> call(Supplier<T> operation) {
+        return call(operation, repository.isBlocking());
+    }
+
+    private <T> Uni<T> write(Supplier<T> operation) {
+        return call(operation, repository.isBlocking() || follower.isActive());
+    }
+
+    private static <T> Uni<T> call(Supplier<T> operation, boolean blocking) {
+        var uni = Uni.createFrom().item(operation);
+        return blocking ? uni.runSubscriptionOn(Infrastructure.getDefaultWorkerPool()) : uni;
+    }
+}
@@ -2,15 +2,72 @@ package com.example.message.service.message;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public interface MessageRepository {
     List<MessageEntity> getAll(int limit, int offset);
 
+    List<MessageEntity> getAfter(long afterId, int limit);
+
+    List<MessageEntity> getBefore(long beforeId, int limit);
+
+    List<MessageEntity> getByOwner(String ownerName, long afterId, int limit);
+
     Optional<MessageEntity> getById(long id);
 
     long create(MessageEntity message);
 
-    void update(MessageEntity message);
+    /**
+     * Stores the edit if it {@link MessageEntity#follows follows} the stored version of the message.
+     *
+     * @return false if the message was deleted or edited since the edit was made from it
+     */
+    boolean update(MessageEntity message);
 
     void delete(long id);
+
+    /**
+     * Changes whenever a message is created, updated or deleted. A change is applied before the version moves,
+     * so a page read after reading the version is at least as new as that version.
+     */
+    long version();
+
+    /**
+     * Id the next created message gets, or the next block of them starts at, see {@link MessageIdGenerator#peek}. Ids
+     * are never handed out twice, even after the message was deleted.
+     */
+    long nextId();
+
+    /**
+     * Creates the messages as one write, assigning ids in list order.
+     *
+     * @return ids of the created messages, in list order
+     */
+    default List<Long> createAll(List<MessageEntity> messages) {
+        return messages.stream().map(this::create).collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether each edit was stored, see {@link #update}, in list order
+     */
+    default List<Boolean> updateAll(List<MessageEntity> messages) {
+        return messages.stream().map(this::update).collect(Collectors.toList());
+    }
+
+    default void deleteAll(List<Long> ids) {
+        ids.forEach(this::delete);
+    }
+
+    /**
+     * Stores the messages under the ids they already carry, over the stored ones, for stores kept in step with
+     * another store. Later creates get ids above all of them.
+     */
+    void putAll(List<MessageEntity> messages);
+
+    /**
+     * Whether operations may block on I/O, so they must not run on an event loop thread.
+     */
+    default boolean isBlocking() {
+        return false;
+    }
 }
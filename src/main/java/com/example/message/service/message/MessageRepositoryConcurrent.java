@@ -0,0 +1,194 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+@ApplicationScoped
+@IfBuildProperty(name = "message.repository.type", stringValue = "concurrent")
+public class MessageRepositoryConcurrent implements MessageRepository, MeterBinder {
+    @Inject
+    MessageIdGenerator idGenerator = new SequentialIdGenerator();
+    // ids are handed out in increasing order, so key order is roughly insertion order
+    private final ConcurrentSkipListMap<Long, MessageEntity> messages = new ConcurrentSkipListMap<>();
+    // owner is immutable, so ids only enter on create and leave on delete
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<Long>> ownerIndex = new ConcurrentHashMap<>();
+    // the skip list counts its entries by walking them, so the size is tracked separately
+    private final LongAdder size = new LongAdder();
+    private final AtomicLong version = new AtomicLong();
+    // creates take and insert ids without a lock, so reads stop short of ids still being created
+    private final CreateWatermark watermark = new CreateWatermark();
+    private final LongAdder pageScans = new LongAdder();
+    private final LongAdder scannedEntries = new LongAdder();
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        var result = messages.headMap(watermark.limit(), false).values().stream()
+            .skip(offset)
+            .limit(limit)
+            .collect(Collectors.toList());
+        pageScans.increment();
+        scannedEntries.add(offset + result.size());
+        return result;
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        var visible = watermark.limit();
+        if (afterId >= visible) {
+            return new ArrayList<>();
+        }
+        return firstValues(messages.subMap(afterId, false, visible, false).values(), limit);
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        var before = Math.min(beforeId, watermark.limit());
+        return firstValues(messages.headMap(before, false).descendingMap().values(), limit);
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        var result = new ArrayList<MessageEntity>();
+        var ids = ownerIndex.get(ownerName);
+        var visible = watermark.limit();
+        if (ids == null || afterId >= visible) {
+            return result;
+        }
+        for (var id : ids.subSet(afterId, false, visible, false)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            // the id may have been deleted since it was read from the index
+            var message = messages.get(id);
+            if (message != null) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        return Optional.ofNullable(messages.get(id));
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        var bound = watermark.begin();
+        try {
+            var stored = message.withId(idGenerator.next());
+            watermark.taken(stored.getId());
+            messages.put(stored.getId(), stored);
+            size.increment();
+            indexOwner(stored);
+            version.incrementAndGet();
+            return stored.getId();
+        } finally {
+            watermark.complete(bound);
+        }
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        var stored = messages.get(message.getId());
+        // entities compare by identity, so the swap fails if another edit or a delete got in between
+        if (stored == null || !message.follows(stored) || !messages.replace(message.getId(), stored, message)) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void delete(long id) {
+        var message = messages.remove(id);
+        if (message != null) {
+            size.decrement();
+            var ids = ownerIndex.get(message.getOwnerName());
+            if (ids != null) {
+                ids.remove(id);
+            }
+            version.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.repository.size", size, LongAdder::sum)
+            .description("Number of stored messages")
+            .register(registry);
+        Gauge.builder("message.repository.next.id", idGenerator, MessageIdGenerator::peek)
+            .description("Id the next created message gets")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scans", pageScans, LongAdder::sum)
+            .description("Offset page reads")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scanned", scannedEntries, LongAdder::sum)
+            .description("Entries walked by offset page reads, including the skipped ones")
+            .register(registry);
+    }
+
+    @Override
+    public long nextId() {
+        return idGenerator.peek();
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        messages.forEach(this::restore);
+    }
+
+    Collection<MessageEntity> values() {
+        return messages.values();
+    }
+
+    void restore(MessageEntity message) {
+        if (messages.put(message.getId(), message) == null) {
+            size.increment();
+        }
+        indexOwner(message);
+        idGenerator.advancePast(message.getId());
+        watermark.taken(message.getId());
+        version.incrementAndGet();
+    }
+
+    void restoreNextId(long nextId) {
+        idGenerator.advancePast(nextId - 1);
+    }
+
+    private void indexOwner(MessageEntity message) {
+        ownerIndex.computeIfAbsent(message.getOwnerName(), owner -> new ConcurrentSkipListSet<>()).add(message.getId());
+    }
+
+    private static List<MessageEntity> firstValues(Collection<MessageEntity> values, int limit) {
+        var result = new ArrayList<MessageEntity>();
+        for (var message : values) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(message);
+        }
+        return result;
+    }
+}
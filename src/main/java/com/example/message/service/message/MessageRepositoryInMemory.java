@@ -1,54 +1,218 @@
 package com.example.message.service.message;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+
 import javax.enterprise.context.ApplicationScoped;
-import java.util.LinkedHashMap;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @ApplicationScoped
-public class MessageRepositoryInMemory implements MessageRepository {
-    private static final AtomicLong ID_GENERATOR = new AtomicLong();
-    private final LinkedHashMap<Long, MessageEntity> messages = new LinkedHashMap<>();
+@IfBuildProperty(name = "message.repository.type", stringValue = "in-memory", enableIfMissing = true)
+public class MessageRepositoryInMemory implements MessageRepository, MeterBinder {
+    @Inject
+    MessageIdGenerator idGenerator = new SequentialIdGenerator();
+    private final MessageTable<MessageEntity> messages = new MessageTable<>();
+    // guarded by messages, holds the same entities as the table, so owner pages need no lookups
+    private final HashMap<String, MessageTable<MessageEntity>> ownerIndex = new HashMap<>();
+    // only written under the monitor, read without it
+    private volatile long version;
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder pageScans = new LongAdder();
+    private final LongAdder scannedEntries = new LongAdder();
 
     @Override
     public List<MessageEntity> getAll(int limit, int offset) {
         final List<MessageEntity> result;
+        var waitStart = System.nanoTime();
         synchronized (messages) {
-            result = messages.values().stream()
-                .skip(offset)
-                .limit(limit)
-                .collect(Collectors.toList());
+            lockAcquired(waitStart);
+            result = messages.page(offset, limit);
         }
+        pageScans.increment();
+        scannedEntries.add(offset + result.size());
         return result;
     }
 
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return messages.after(afterId, limit);
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return messages.before(beforeId, limit);
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            var owned = ownerIndex.get(ownerName);
+            return owned == null ? new ArrayList<>() : owned.after(afterId, limit);
+        }
+    }
+
     @Override
     public Optional<MessageEntity> getById(long id) {
-        return Optional.ofNullable(messages.get(id));
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return Optional.ofNullable(messages.get(id));
+        }
     }
 
     @Override
     public long create(MessageEntity message) {
-        message.setId(ID_GENERATOR.getAndIncrement());
+        MessageEntity stored;
+        var waitStart = System.nanoTime();
         synchronized (messages) {
-            messages.put(message.getId(), message);
+            lockAcquired(waitStart);
+            // taken with the monitor held, so no higher id becomes visible first and a cursor skips none
+            stored = message.withId(idGenerator.next());
+            messages.put(stored.getId(), stored);
+            ownerIndex.computeIfAbsent(stored.getOwnerName(), owner -> new MessageTable<>()).put(stored.getId(), stored);
+            version++;
         }
-        return message.getId();
+        return stored.getId();
     }
 
     @Override
-    public void update(MessageEntity message) {
+    public boolean update(MessageEntity message) {
+        var waitStart = System.nanoTime();
         synchronized (messages) {
-            messages.put(message.getId(), message);
+            lockAcquired(waitStart);
+            var stored = messages.get(message.getId());
+            if (stored == null || !message.follows(stored)) {
+                return false;
+            }
+            messages.replace(message.getId(), message);
+            ownerIndex.get(message.getOwnerName()).replace(message.getId(), message);
+            version++;
+            return true;
         }
     }
 
     @Override
     public void delete(long id) {
+        var waitStart = System.nanoTime();
         synchronized (messages) {
-            messages.remove(id);
+            lockAcquired(waitStart);
+            var message = messages.remove(id);
+            if (message != null) {
+                var owned = ownerIndex.get(message.getOwnerName());
+                owned.remove(id);
+                if (owned.size() == 0) {
+                    ownerIndex.remove(message.getOwnerName());
+                }
+                version++;
+            }
         }
     }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public long nextId() {
+        return idGenerator.peek();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.repository.size", this, repository -> repository.count())
+            .description("Number of stored messages")
+            .register(registry);
+        Gauge.builder("message.repository.next.id", idGenerator, MessageIdGenerator::peek)
+            .description("Id the next created message gets")
+            .register(registry);
+        FunctionTimer.builder("message.repository.lock.wait", this,
+            repository -> repository.lockAcquisitions.sum(),
+            repository -> repository.lockWaitNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Time spent waiting for the store monitor")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scans", pageScans, LongAdder::sum)
+            .description("Offset page reads")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scanned", scannedEntries, LongAdder::sum)
+            .description("Entries walked by offset page reads, including the skipped ones")
+            .register(registry);
+    }
+
+    long count() {
+        synchronized (messages) {
+            return messages.size();
+        }
+    }
+
+    // the monitor is reentrant, holding it across the batch makes the batch visible at once
+
+    @Override
+    public List<Long> createAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            return MessageRepository.super.createAll(messages);
+        }
+    }
+
+    @Override
+    public List<Boolean> updateAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            return MessageRepository.super.updateAll(messages);
+        }
+    }
+
+    @Override
+    public void deleteAll(List<Long> ids) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            MessageRepository.super.deleteAll(ids);
+        }
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            for (var message : messages) {
+                this.messages.put(message.getId(), message);
+                ownerIndex.computeIfAbsent(message.getOwnerName(), owner -> new MessageTable<>()).put(message.getId(), message);
+                idGenerator.advancePast(message.getId());
+                version++;
+            }
+        }
+    }
+
+    private void lockAcquired(long waitStart) {
+        lockWaitNanos.add(System.nanoTime() - waitStart);
+        lockAcquisitions.increment();
+    }
 }
@@ -0,0 +1,412 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.Startup;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Store keeping messages in a relational database, an embedded H2 file by default, so the data can be inspected
+ * with standard SQL tools. Cursor pages are read as primary key ranges and owner pages through an index on the
+ * owner, batches are sent as one JDBC batch in a single transaction.
+ * <p>
+ * Every call borrows a connection from the pool for its duration only. Statements are prepared on every call and
+ * left to the per-connection statement cache of the database.
+ * <p>
+ * Transactions commit in any order, so a created row can become visible before one with a lower id. Reads stop at a
+ * {@link CreateWatermark}, which only sees the creates of this instance, so the file is not shared with another one.
+ */
+@Startup
+@ApplicationScoped
+@IfBuildProperty(name = "message.repository.type", stringValue = "jdbc")
+public class MessageRepositoryJdbc implements MessageRepository, MeterBinder {
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS message ("
+            + "id BIGINT PRIMARY KEY, "
+            + "owner_name VARCHAR(255) NOT NULL, "
+            + "header VARCHAR NOT NULL, "
+            + "body VARCHAR NOT NULL, "
+            + "created_at TIMESTAMP NOT NULL, "
+            + "edited_at TIMESTAMP, "
+            + "version INT NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS message_owner ON message (owner_name, id)",
+        "CREATE SEQUENCE IF NOT EXISTS message_id START WITH 0 MINVALUE 0",
+    };
+    private static final String SELECT = "SELECT id, owner_name, header, body, created_at, edited_at, version FROM message ";
+    private static final String SELECT_PAGE = SELECT + "WHERE id < ? ORDER BY id LIMIT ? OFFSET ?";
+    private static final String SELECT_AFTER = SELECT + "WHERE id > ? AND id < ? ORDER BY id LIMIT ?";
+    private static final String SELECT_BEFORE = SELECT + "WHERE id < ? ORDER BY id DESC LIMIT ?";
+    private static final String SELECT_BY_OWNER = SELECT + "WHERE owner_name = ? AND id > ? AND id < ? ORDER BY id LIMIT ?";
+    private static final String SELECT_BY_ID = SELECT + "WHERE id = ?";
+    private static final String NEXT_IDS = "SELECT NEXT VALUE FOR message_id FROM SYSTEM_RANGE(1, ?)";
+    private static final String INSERT = "INSERT INTO message (id, owner_name, header, body, created_at, edited_at, version) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    // stores the edit only over the version it was made from
+    private static final String UPDATE = "UPDATE message SET header = ?, body = ?, edited_at = ?, version = ? "
+        + "WHERE id = ? AND version = ?";
+    private static final String MERGE = "MERGE INTO message (id, owner_name, header, body, created_at, edited_at, version) "
+        + "KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM message WHERE id = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM message";
+    private static final String NEXT_ID = "SELECT CURRENT_VALUE + INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES "
+        + "WHERE SEQUENCE_NAME = 'MESSAGE_ID'";
+    private static final String RESTART_IDS = "ALTER SEQUENCE message_id RESTART WITH ";
+
+    @Inject
+    DataSource dataSource;
+
+    // counts writes of this instance only, changes made to the database by others are not seen
+    private final AtomicLong version = new AtomicLong();
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder connectionAcquisitions = new LongAdder();
+    private final LongAdder connectionWaitNanos = new LongAdder();
+    private final LongAdder pageScans = new LongAdder();
+    private final LongAdder scannedEntries = new LongAdder();
+    // creates commit without a lock, so reads stop short of ids still being created
+    private final CreateWatermark watermark = new CreateWatermark();
+
+    @PostConstruct
+    void init() {
+        execute(connection -> {
+            try (var statement = connection.createStatement()) {
+                for (var ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return null;
+        });
+        // rows stored before the start are all visible
+        watermark.taken(nextId() - 1);
+    }
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        var result = execute(connection -> {
+            try (var statement = connection.prepareStatement(SELECT_PAGE)) {
+                statement.setLong(1, watermark.limit());
+                statement.setInt(2, limit);
+                statement.setInt(3, offset);
+                return readAll(statement);
+            }
+        });
+        // the database walks the skipped rows of the primary key index as well
+        pageScans.increment();
+        scannedEntries.add(offset + result.size());
+        return result;
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        return execute(connection -> {
+            try (var statement = connection.prepareStatement(SELECT_AFTER)) {
+                statement.setLong(1, afterId);
+                statement.setLong(2, watermark.limit());
+                statement.setInt(3, limit);
+                return readAll(statement);
+            }
+        });
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        return execute(connection -> {
+            try (var statement = connection.prepareStatement(SELECT_BEFORE)) {
+                statement.setLong(1, Math.min(beforeId, watermark.limit()));
+                statement.setInt(2, limit);
+                return readAll(statement);
+            }
+        });
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        return execute(connection -> {
+            try (var statement = connection.prepareStatement(SELECT_BY_OWNER)) {
+                statement.setString(1, ownerName);
+                statement.setLong(2, afterId);
+                statement.setLong(3, watermark.limit());
+                statement.setInt(4, limit);
+                return readAll(statement);
+            }
+        });
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        return execute(connection -> {
+            try (var statement = connection.prepareStatement(SELECT_BY_ID)) {
+                statement.setLong(1, id);
+                return readAll(statement).stream().findFirst();
+            }
+        });
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        return createAll(List.of(message)).get(0);
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        return updateAll(List.of(message)).get(0);
+    }
+
+    @Override
+    public void delete(long id) {
+        deleteAll(List.of(id));
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    @Override
+    public long nextId() {
+        return queryLong(NEXT_ID);
+    }
+
+    @Override
+    public List<Long> createAll(List<MessageEntity> messages) {
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        var bound = watermark.begin();
+        try {
+            var ids = executeInTransaction(connection -> {
+                var nextIds = nextIds(connection, messages.size());
+                watermark.taken(nextIds.get(nextIds.size() - 1));
+                try (var statement = connection.prepareStatement(INSERT)) {
+                    for (var i = 0; i < messages.size(); i++) {
+                        setRow(statement, nextIds.get(i), messages.get(i));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                return nextIds;
+            });
+            version.incrementAndGet();
+            return ids;
+        } finally {
+            watermark.complete(bound);
+        }
+    }
+
+    @Override
+    public List<Boolean> updateAll(List<MessageEntity> messages) {
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        var counts = executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement(UPDATE)) {
+                for (var message : messages) {
+                    statement.setString(1, message.getHeader());
+                    statement.setString(2, message.getBody());
+                    setDateTime(statement, 3, message.getEditedAt());
+                    statement.setInt(4, message.getVersion());
+                    statement.setLong(5, message.getId());
+                    statement.setInt(6, message.getVersion() - 1);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+        // a second edit of the same message in the batch finds the version the first one stored
+        var results = new ArrayList<Boolean>(counts.length);
+        var changed = false;
+        for (var count : counts) {
+            results.add(count > 0);
+            changed |= count > 0;
+        }
+        if (changed) {
+            version.incrementAndGet();
+        }
+        return results;
+    }
+
+    @Override
+    public void deleteAll(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        var counts = executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement(DELETE)) {
+                for (var id : ids) {
+                    statement.setLong(1, id);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        });
+        for (var count : counts) {
+            if (count > 0) {
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        var highestId = executeInTransaction(connection -> {
+            var maxId = Long.MIN_VALUE;
+            try (var statement = connection.prepareStatement(MERGE)) {
+                for (var message : messages) {
+                    setRow(statement, message.getId(), message);
+                    statement.addBatch();
+                    maxId = Math.max(maxId, message.getId());
+                }
+                statement.executeBatch();
+            }
+            if (maxId >= queryLong(connection, NEXT_ID)) {
+                try (var statement = connection.createStatement()) {
+                    statement.execute(RESTART_IDS + (maxId + 1));
+                }
+            }
+            return maxId;
+        });
+        watermark.taken(highestId);
+        version.incrementAndGet();
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.repository.size", this, repository -> repository.queryLong(COUNT))
+            .description("Number of stored messages")
+            .register(registry);
+        Gauge.builder("message.repository.next.id", this, repository -> repository.nextId())
+            .description("Id the next created message gets")
+            .register(registry);
+        FunctionTimer.builder("message.repository.lock.wait", this,
+            repository -> repository.connectionAcquisitions.sum(),
+            repository -> repository.connectionWaitNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Time spent waiting for a pooled connection")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scans", pageScans, LongAdder::sum)
+            .description("Offset page reads")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scanned", scannedEntries, LongAdder::sum)
+            .description("Entries walked by offset page reads, including the skipped ones")
+            .register(registry);
+    }
+
+    long queryLong(String query) {
+        return execute(connection -> queryLong(connection, query));
+    }
+
+    private static long queryLong(Connection connection, String query) throws SQLException {
+        try (var statement = connection.createStatement(); var result = statement.executeQuery(query)) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    private static List<Long> nextIds(Connection connection, int count) throws SQLException {
+        var ids = new ArrayList<Long>(count);
+        try (var statement = connection.prepareStatement(NEXT_IDS)) {
+            statement.setInt(1, count);
+            try (var result = statement.executeQuery()) {
+                while (result.next()) {
+                    ids.add(result.getLong(1));
+                }
+            }
+        }
+        // ids are assigned in list order
+        ids.sort(null);
+        return ids;
+    }
+
+    private static List<MessageEntity> readAll(PreparedStatement statement) throws SQLException {
+        var messages = new ArrayList<MessageEntity>();
+        try (var result = statement.executeQuery()) {
+            while (result.next()) {
+                messages.add(new MessageEntity(
+                    result.getLong(1),
+                    result.getString(2),
+                    result.getString(3),
+                    result.getString(4),
+                    result.getObject(5, LocalDateTime.class),
+                    result.getObject(6, LocalDateTime.class),
+                    result.getInt(7)));
+            }
+        }
+        return messages;
+    }
+
+    private static void setRow(PreparedStatement statement, long id, MessageEntity message) throws SQLException {
+        statement.setLong(1, id);
+        statement.setString(2, message.getOwnerName());
+        statement.setString(3, message.getHeader());
+        statement.setString(4, message.getBody());
+        statement.setObject(5, message.getCreatedAt());
+        setDateTime(statement, 6, message.getEditedAt());
+        statement.setInt(7, message.getVersion());
+    }
+
+    private static void setDateTime(PreparedStatement statement, int index, LocalDateTime dateTime) throws SQLException {
+        if (dateTime == null) {
+            statement.setNull(index, Types.TIMESTAMP);
+        } else {
+            statement.setObject(index, dateTime);
+        }
+    }
+
+    private <T> T execute(SqlWork<T> work) {
+        var waitStart = System.nanoTime();
+        try (var connection = dataSource.getConnection()) {
+            connectionWaitNanos.add(System.nanoTime() - waitStart);
+            connectionAcquisitions.increment();
+            return work.run(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Message database call failed", e);
+        }
+    }
+
+    private <T> T executeInTransaction(SqlWork<T> work) {
+        return execute(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                var result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
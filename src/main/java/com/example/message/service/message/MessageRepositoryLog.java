@@ -0,0 +1,304 @@
+package com.example.message.service.message;
+
+import com.example.message.service.storage.MessageLog;
+import com.example.message.service.storage.MessageSnapshot;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Startup
+@ApplicationScoped
+@IfBuildProperty(name = "message.repository.type", stringValue = "log")
+public class MessageRepositoryLog implements MessageRepository, MeterBinder {
+    private static final Logger LOG = Logger.getLogger(MessageRepositoryLog.class);
+    private static final long NO_SNAPSHOT = -1;
+    private static final int RETAINED_SNAPSHOTS = 2;
+
+    @ConfigProperty(name = "message.log.directory", defaultValue = "data/messages")
+    String directory;
+    @ConfigProperty(name = "message.log.segment-size", defaultValue = "67108864")
+    long segmentSize;
+    @ConfigProperty(name = "message.log.fsync-interval-ms", defaultValue = "50")
+    long fsyncIntervalMs;
+    @ConfigProperty(name = "message.log.snapshot-interval-ms", defaultValue = "60000")
+    long snapshotIntervalMs;
+    @ConfigProperty(name = "message.log.snapshot-segments", defaultValue = "4")
+    int snapshotSegments;
+
+    // reads are served from memory; writes go to the log first and are applied under the log monitor,
+    // so the log order always matches the order changes become visible
+    private final MessageRepositoryConcurrent index = new MessageRepositoryConcurrent();
+    private Path logDirectory;
+    private MessageLog log;
+    private ScheduledExecutorService scheduler;
+    private long lastSnapshotSegment = NO_SNAPSHOT;
+    private long startupMillis;
+    private long replayedRecords;
+
+    @PostConstruct
+    void start() {
+        try {
+            open(Path.of(directory), segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open message log in " + directory, e);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "message-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sync, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::snapshotIfNeeded, snapshotIntervalMs, snapshotIntervalMs,
+            TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close message log", e);
+        }
+    }
+
+    void open(Path directory, long segmentSize) throws IOException {
+        var started = System.nanoTime();
+        logDirectory = directory;
+        var snapshot = MessageSnapshot.loadLatest(directory);
+        snapshot.ifPresent(loaded -> {
+            loaded.getMessages().forEach(index::restore);
+            index.restoreNextId(loaded.getNextId());
+            lastSnapshotSegment = loaded.getLastSegment();
+        });
+
+        log = new MessageLog(directory, segmentSize);
+        replayedRecords = log.replay(lastSnapshotSegment, new MessageLog.Visitor() {
+            @Override
+            public void put(MessageEntity message) {
+                index.restore(message);
+            }
+
+            @Override
+            public void delete(long id) {
+                index.delete(id);
+            }
+        });
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        LOG.infof("Message store ready in %d ms: %d messages from snapshot, %d log records replayed",
+            startupMillis, snapshot.map(loaded -> loaded.getMessages().size()).orElse(0), replayedRecords);
+    }
+
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        index.bindTo(registry);
+        TimeGauge.builder("message.log.startup", this, TimeUnit.MILLISECONDS, MessageRepositoryLog::getStartupMillis)
+            .description("Time to load the snapshot and replay the log tail")
+            .register(registry);
+        Gauge.builder("message.log.replayed.records", this, MessageRepositoryLog::getReplayedRecords)
+            .description("Log records replayed at startup")
+            .register(registry);
+    }
+
+    void sync() {
+        try {
+            log.sync();
+        } catch (IOException e) {
+            LOG.error("Failed to sync message log", e);
+        }
+    }
+
+    void snapshotIfNeeded() {
+        if (log.sealedSegmentCountAfter(lastSnapshotSegment) < snapshotSegments) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException e) {
+            LOG.error("Failed to write message snapshot", e);
+        }
+    }
+
+    void snapshot() throws IOException {
+        final long lastSealed;
+        final long nextId;
+        // every change in a sealed segment is already applied to the index, as writes hold the same monitor
+        synchronized (log) {
+            lastSealed = log.seal();
+            nextId = index.nextId();
+        }
+        MessageSnapshot.write(logDirectory, lastSealed, nextId, index.values());
+        lastSnapshotSegment = lastSealed;
+        // the previous snapshot is kept as a fallback, together with the segments it needs
+        var oldestRetained = MessageSnapshot.retainLatest(logDirectory, RETAINED_SNAPSHOTS);
+        if (oldestRetained.isPresent()) {
+            log.deleteSegmentsUpTo(oldestRetained.get());
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        return index.getAll(limit, offset);
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        return index.getAfter(afterId, limit);
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        return index.getBefore(beforeId, limit);
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        return index.getByOwner(ownerName, afterId, limit);
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        return index.getById(id);
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        synchronized (log) {
+            var stored = message.withId(index.nextId());
+            append(() -> log.appendPut(stored));
+            index.restore(stored);
+            return stored.getId();
+        }
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        synchronized (log) {
+            if (!followsStored(message)) {
+                return false;
+            }
+            append(() -> log.appendPut(message));
+            return index.update(message);
+        }
+    }
+
+    @Override
+    public void delete(long id) {
+        synchronized (log) {
+            append(() -> log.appendDelete(id));
+            index.delete(id);
+        }
+    }
+
+    @Override
+    public long version() {
+        return index.version();
+    }
+
+    @Override
+    public long nextId() {
+        return index.nextId();
+    }
+
+    @Override
+    public List<Long> createAll(List<MessageEntity> messages) {
+        var stored = new ArrayList<MessageEntity>(messages.size());
+        synchronized (log) {
+            // restore advances the id generator only after the records are appended
+            var nextId = index.nextId();
+            for (var message : messages) {
+                stored.add(message.withId(nextId++));
+            }
+            append(() -> log.appendPuts(stored));
+            stored.forEach(index::restore);
+        }
+        return stored.stream().map(MessageEntity::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Boolean> updateAll(List<MessageEntity> messages) {
+        var results = new ArrayList<Boolean>(messages.size());
+        var accepted = new ArrayList<MessageEntity>();
+        var acceptedIds = new HashSet<Long>();
+        synchronized (log) {
+            for (var message : messages) {
+                // a second edit of the same message in the batch was made from the same version as the first
+                var follows = followsStored(message) && acceptedIds.add(message.getId());
+                if (follows) {
+                    accepted.add(message);
+                }
+                results.add(follows);
+            }
+            append(() -> log.appendPuts(accepted));
+            accepted.forEach(index::update);
+        }
+        return results;
+    }
+
+    @Override
+    public void deleteAll(List<Long> ids) {
+        synchronized (log) {
+            append(() -> log.appendDeletes(ids));
+            ids.forEach(index::delete);
+        }
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        synchronized (log) {
+            append(() -> log.appendPuts(messages));
+            messages.forEach(index::restore);
+        }
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    private boolean followsStored(MessageEntity message) {
+        return index.getById(message.getId()).map(message::follows).orElse(false);
+    }
+
+    private static void append(LogWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to message log", e);
+        }
+    }
+
+    private interface LogWrite {
+        void run() throws IOException;
+    }
+}
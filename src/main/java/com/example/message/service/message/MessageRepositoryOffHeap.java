@@ -0,0 +1,325 @@
+package com.example.message.service.message;
+
+import com.example.message.service.storage.OffHeapTextStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Store that keeps message bodies, and optionally headers, in {@link OffHeapTextStore} memory, so the heap only
+ * holds a small fixed-size entry per message whatever the text volume. Reads copy the text back into the returned
+ * entities, which only live as long as the request. Guarded by a single monitor, like the {@code in-memory} store.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "message.repository.type", stringValue = "off-heap")
+public class MessageRepositoryOffHeap implements MessageRepository, MeterBinder {
+    @ConfigProperty(name = "message.off-heap.segment-size", defaultValue = "67108864")
+    int segmentSize;
+    @ConfigProperty(name = "message.off-heap.headers", defaultValue = "false")
+    boolean headersOffHeap;
+
+    @Inject
+    MessageIdGenerator idGenerator = new SequentialIdGenerator();
+    private final MessageTable<StoredMessage> messages = new MessageTable<>();
+    // guarded by messages, like the text store
+    private final HashMap<String, MessageTable<StoredMessage>> ownerIndex = new HashMap<>();
+    private OffHeapTextStore text;
+    // only written under the monitor, read without it
+    private volatile long version;
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder pageScans = new LongAdder();
+    private final LongAdder scannedEntries = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        text = new OffHeapTextStore(segmentSize);
+    }
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        final List<MessageEntity> result;
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            result = toEntities(messages.page(offset, limit));
+        }
+        pageScans.increment();
+        scannedEntries.add(offset + result.size());
+        return result;
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return toEntities(messages.after(afterId, limit));
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return toEntities(messages.before(beforeId, limit));
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            var owned = ownerIndex.get(ownerName);
+            return owned == null ? new ArrayList<>() : toEntities(owned.after(afterId, limit));
+        }
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            return Optional.ofNullable(messages.get(id)).map(this::toEntity);
+        }
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        var encoded = encodeText(message);
+        var waitStart = System.nanoTime();
+        final long id;
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            // taken with the monitor held, so no higher id becomes visible first and a cursor skips none
+            id = idGenerator.next();
+            var stored = new StoredMessage(id, message, headersOffHeap, text.add(encoded));
+            messages.put(id, stored);
+            ownerIndex.computeIfAbsent(stored.ownerName, owner -> new MessageTable<>()).put(id, stored);
+            version++;
+        }
+        return id;
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        var encoded = encodeText(message);
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            var existing = messages.get(message.getId());
+            if (existing == null || existing.version + 1 != message.getVersion()) {
+                return false;
+            }
+            var stored = new StoredMessage(message.getId(), message, headersOffHeap, text.replace(existing.text, encoded));
+            messages.replace(stored.id, stored);
+            ownerIndex.get(stored.ownerName).replace(stored.id, stored);
+            version++;
+            return true;
+        }
+    }
+
+    @Override
+    public void delete(long id) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            var stored = messages.remove(id);
+            if (stored == null) {
+                return;
+            }
+            text.free(stored.text);
+            var owned = ownerIndex.get(stored.ownerName);
+            owned.remove(id);
+            if (owned.size() == 0) {
+                ownerIndex.remove(stored.ownerName);
+            }
+            version++;
+        }
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public long nextId() {
+        return idGenerator.peek();
+    }
+
+    // the monitor is reentrant, holding it across the batch makes the batch visible at once
+
+    @Override
+    public List<Long> createAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            return MessageRepository.super.createAll(messages);
+        }
+    }
+
+    @Override
+    public List<Boolean> updateAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            return MessageRepository.super.updateAll(messages);
+        }
+    }
+
+    @Override
+    public void deleteAll(List<Long> ids) {
+        var waitStart = System.nanoTime();
+        synchronized (messages) {
+            lockAcquired(waitStart);
+            MessageRepository.super.deleteAll(ids);
+        }
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        var waitStart = System.nanoTime();
+        synchronized (this.messages) {
+            lockAcquired(waitStart);
+            for (var message : messages) {
+                var encoded = encodeText(message);
+                var existing = this.messages.get(message.getId());
+                var textHandle = existing == null ? text.add(encoded) : text.replace(existing.text, encoded);
+                var stored = new StoredMessage(message.getId(), message, headersOffHeap, textHandle);
+                this.messages.put(stored.id, stored);
+                ownerIndex.computeIfAbsent(stored.ownerName, owner -> new MessageTable<>()).put(stored.id, stored);
+                idGenerator.advancePast(stored.id);
+                version++;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.repository.size", this, repository -> repository.count())
+            .description("Number of stored messages")
+            .register(registry);
+        Gauge.builder("message.repository.next.id", idGenerator, MessageIdGenerator::peek)
+            .description("Id the next created message gets")
+            .register(registry);
+        FunctionTimer.builder("message.repository.lock.wait", this,
+            repository -> repository.lockAcquisitions.sum(),
+            repository -> repository.lockWaitNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Time spent waiting for the store monitor")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scans", pageScans, LongAdder::sum)
+            .description("Offset page reads")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scanned", scannedEntries, LongAdder::sum)
+            .description("Entries walked by offset page reads, including the skipped ones")
+            .register(registry);
+        Gauge.builder("message.repository.off.heap.used", this, repository -> repository.usedBytes())
+            .description("Off-heap bytes holding message text")
+            .baseUnit("bytes")
+            .register(registry);
+        Gauge.builder("message.repository.off.heap.reserved", this, repository -> repository.reservedBytes())
+            .description("Off-heap bytes reserved for message text")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    long count() {
+        synchronized (messages) {
+            return messages.size();
+        }
+    }
+
+    long usedBytes() {
+        synchronized (messages) {
+            return text.usedBytes();
+        }
+    }
+
+    long reservedBytes() {
+        synchronized (messages) {
+            return text.reservedBytes();
+        }
+    }
+
+    private void lockAcquired(long waitStart) {
+        lockWaitNanos.add(System.nanoTime() - waitStart);
+        lockAcquisitions.increment();
+    }
+
+    // off-heap text is the body alone, or the header length, header and body
+    private byte[] encodeText(MessageEntity message) {
+        var body = message.bodyBytes();
+        if (!headersOffHeap) {
+            return body;
+        }
+        var header = message.getHeader().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES + header.length + body.length)
+            .putInt(header.length)
+            .put(header)
+            .put(body)
+            .array();
+    }
+
+    private List<MessageEntity> toEntities(List<StoredMessage> stored) {
+        return stored.stream().map(this::toEntity).collect(Collectors.toList());
+    }
+
+    private MessageEntity toEntity(StoredMessage stored) {
+        var bytes = text.get(stored.text);
+        var header = stored.header;
+        var body = bytes;
+        if (header == null) {
+            var buffer = ByteBuffer.wrap(bytes);
+            var headerLength = buffer.getInt();
+            header = new String(bytes, Integer.BYTES, headerLength, StandardCharsets.UTF_8);
+            body = new byte[bytes.length - Integer.BYTES - headerLength];
+            buffer.position(Integer.BYTES + headerLength);
+            buffer.get(body);
+        }
+        return new MessageEntity(stored.id, stored.ownerName, header, body, stored.createdAt, stored.editedAt,
+            stored.version);
+    }
+
+    private static final class StoredMessage {
+        final long id;
+        final String ownerName;
+        // null when kept off-heap
+        final String header;
+        final long createdAt;
+        final long editedAt;
+        final int version;
+        final long text;
+
+        StoredMessage(long id, MessageEntity message, boolean headerOffHeap, long text) {
+            this.id = id;
+            this.ownerName = message.getOwnerName();
+            this.header = headerOffHeap ? null : message.getHeader();
+            this.createdAt = message.createdAtMillis();
+            this.editedAt = message.editedAtMillis();
+            this.version = message.getVersion();
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.arc.properties.IfBuildProperty;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Store split into shards by id, each a table like the {@code in-memory} store's with its own owner index and
+ * monitor, so writes to different shards never wait for each other. Consecutive ids land in different shards,
+ * which spreads both creates and reads of recent messages over all of them.
+ * <p>
+ * Pages are merged from the shards in id order. Ids come from the {@link MessageIdGenerator} rather than from blocks
+ * owned by each shard, so that order remains the order messages were created in, which cursor pages rely on. Ids are
+ * taken before entering the shard monitor, so creates in different shards may store them out of order. Reads stop
+ * below the lowest id still being created, see {@link CreateWatermark}.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "message.repository.type", stringValue = "sharded")
+public class MessageRepositorySharded implements MessageRepository, MeterBinder {
+    // shard pages are read in chunks while merging, to hold each monitor only briefly
+    private static final int MERGE_CHUNK_SIZE = 256;
+    private static final Comparator<ShardCursor> BY_NEXT_ID = Comparator.comparingLong(cursor -> cursor.next().getId());
+
+    @ConfigProperty(name = "message.sharded.shards", defaultValue = "0")
+    int shardCount;
+
+    @Inject
+    MessageIdGenerator idGenerator = new SequentialIdGenerator();
+    private Shard[] shards;
+    private final CreateWatermark watermark = new CreateWatermark();
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder pageScans = new LongAdder();
+    private final LongAdder scannedEntries = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        var count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        shards = new Shard[count];
+        for (var i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        var result = merge(shard -> shard.messages, -1, offset, limit);
+        pageScans.increment();
+        scannedEntries.add(offset + result.size());
+        return result;
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        return merge(shard -> shard.messages, afterId, 0, limit);
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        // the newest messages before the id are among the newest of every shard
+        var before = Math.min(beforeId, watermark.limit());
+        var candidates = new ArrayList<MessageEntity>();
+        for (var shard : shards) {
+            var waitStart = System.nanoTime();
+            synchronized (shard) {
+                lockAcquired(waitStart);
+                candidates.addAll(shard.messages.before(before, limit));
+            }
+        }
+        candidates.sort(Comparator.comparingLong(MessageEntity::getId).reversed());
+        return candidates.size() > limit ? new ArrayList<>(candidates.subList(0, limit)) : candidates;
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        return merge(shard -> shard.owners.get(ownerName), afterId, 0, limit);
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        var shard = shardOf(id);
+        var waitStart = System.nanoTime();
+        synchronized (shard) {
+            lockAcquired(waitStart);
+            return Optional.ofNullable(shard.messages.get(id));
+        }
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        var bound = watermark.begin();
+        try {
+            var stored = message.withId(idGenerator.next());
+            watermark.taken(stored.getId());
+            var shard = shardOf(stored.getId());
+            var waitStart = System.nanoTime();
+            synchronized (shard) {
+                lockAcquired(waitStart);
+                shard.put(stored);
+            }
+            return stored.getId();
+        } finally {
+            watermark.complete(bound);
+        }
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        var shard = shardOf(message.getId());
+        var waitStart = System.nanoTime();
+        synchronized (shard) {
+            lockAcquired(waitStart);
+            var stored = shard.messages.get(message.getId());
+            if (stored == null || !message.follows(stored)) {
+                return false;
+            }
+            shard.messages.replace(message.getId(), message);
+            shard.owners.get(message.getOwnerName()).replace(message.getId(), message);
+            shard.version++;
+            return true;
+        }
+    }
+
+    @Override
+    public void delete(long id) {
+        var shard = shardOf(id);
+        var waitStart = System.nanoTime();
+        synchronized (shard) {
+            lockAcquired(waitStart);
+            var message = shard.messages.remove(id);
+            if (message != null) {
+                var owned = shard.owners.get(message.getOwnerName());
+                owned.remove(id);
+                if (owned.size() == 0) {
+                    shard.owners.remove(message.getOwnerName());
+                }
+                shard.version++;
+            }
+        }
+    }
+
+    /**
+     * Sum of the shard versions, each of which only grows, so the sum changes with every write as well.
+     */
+    @Override
+    public long version() {
+        var version = 0L;
+        for (var shard : shards) {
+            version += shard.version;
+        }
+        return version;
+    }
+
+    @Override
+    public long nextId() {
+        return idGenerator.peek();
+    }
+
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        for (var message : messages) {
+            var shard = shardOf(message.getId());
+            var waitStart = System.nanoTime();
+            synchronized (shard) {
+                lockAcquired(waitStart);
+                shard.put(message);
+            }
+            idGenerator.advancePast(message.getId());
+            watermark.taken(message.getId());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.repository.size", this, repository -> repository.count())
+            .description("Number of stored messages")
+            .register(registry);
+        Gauge.builder("message.repository.next.id", idGenerator, MessageIdGenerator::peek)
+            .description("Id the next created message gets")
+            .register(registry);
+        Gauge.builder("message.repository.shards", this, repository -> repository.shards.length)
+            .description("Shards the store is split into")
+            .register(registry);
+        FunctionTimer.builder("message.repository.lock.wait", this,
+            repository -> repository.lockAcquisitions.sum(),
+            repository -> repository.lockWaitNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Time spent waiting for shard monitors")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scans", pageScans, LongAdder::sum)
+            .description("Offset page reads")
+            .register(registry);
+        FunctionCounter.builder("message.repository.page.scanned", scannedEntries, LongAdder::sum)
+            .description("Entries walked by offset page reads, including the skipped ones")
+            .register(registry);
+    }
+
+    long count() {
+        var count = 0L;
+        for (var shard : shards) {
+            synchronized (shard) {
+                count += shard.messages.size();
+            }
+        }
+        return count;
+    }
+
+    private Shard shardOf(long id) {
+        return shards[(int) Math.floorMod(id, (long) shards.length)];
+    }
+
+    /**
+     * Merges the tables of every shard in id order, skipping {@code offset} messages after {@code afterId}. Stops at
+     * the first id a create still in progress may precede.
+     */
+    private List<MessageEntity> merge(Function<Shard, MessageTable<MessageEntity>> table, long afterId, int offset,
+                                      int limit) {
+        var visible = watermark.limit();
+        var chunkSize = (int) Math.min((long) offset + limit, MERGE_CHUNK_SIZE);
+        var cursors = new PriorityQueue<>(shards.length, BY_NEXT_ID);
+        for (var shard : shards) {
+            var cursor = new ShardCursor(shard, table, afterId, chunkSize);
+            if (cursor.hasNext()) {
+                cursors.add(cursor);
+            }
+        }
+        // the limit comes from the client, so the list only grows with what is actually found
+        var result = new ArrayList<MessageEntity>(Math.min(limit, MERGE_CHUNK_SIZE));
+        var skipped = 0;
+        while (result.size() < limit && !cursors.isEmpty()) {
+            var cursor = cursors.poll();
+            var message = cursor.next();
+            if (message.getId() >= visible) {
+                break;
+            }
+            cursor.advance();
+            if (cursor.hasNext()) {
+                cursors.add(cursor);
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    private void lockAcquired(long waitStart) {
+        lockWaitNanos.add(System.nanoTime() - waitStart);
+        lockAcquisitions.increment();
+    }
+
+    private static final class Shard {
+        final MessageTable<MessageEntity> messages = new MessageTable<>();
+        // holds the same entities as the table, so owner pages need no lookups
+        final HashMap<String, MessageTable<MessageEntity>> owners = new HashMap<>();
+        // only written under the shard monitor, read without it
+        volatile long version;
+
+        void put(MessageEntity message) {
+            messages.put(message.getId(), message);
+            owners.computeIfAbsent(message.getOwnerName(), owner -> new MessageTable<>()).put(message.getId(), message);
+            version++;
+        }
+    }
+
+    /**
+     * Reads one shard table in id order, a chunk at a time, each under the shard monitor.
+     */
+    private final class ShardCursor {
+        private final Shard shard;
+        private final Function<Shard, MessageTable<MessageEntity>> table;
+        private final int chunkSize;
+        private List<MessageEntity> chunk;
+        private int position;
+
+        ShardCursor(Shard shard, Function<Shard, MessageTable<MessageEntity>> table, long afterId, int chunkSize) {
+            this.shard = shard;
+            this.table = table;
+            this.chunkSize = chunkSize;
+            fetch(afterId);
+        }
+
+        boolean hasNext() {
+            return position < chunk.size();
+        }
+
+        MessageEntity next() {
+            return chunk.get(position);
+        }
+
+        void advance() {
+            position++;
+            // a short chunk was the end of the table
+            if (position == chunk.size() && chunk.size() == chunkSize) {
+                fetch(chunk.get(position - 1).getId());
+            }
+        }
+
+        private void fetch(long afterId) {
+            var waitStart = System.nanoTime();
+            synchronized (shard) {
+                lockAcquired(waitStart);
+                var messages = table.apply(shard);
+                chunk = messages == null ? List.of() : messages.after(afterId, chunkSize);
+            }
+            position = 0;
+        }
+    }
+}
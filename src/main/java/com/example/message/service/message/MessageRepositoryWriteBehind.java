@@ -0,0 +1,400 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Alternative;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Puts an in-memory view in front of the durable store selected by {@code message.repository.type}. Writes are
+ * acknowledged once applied to the view and queued, and reach the durable store in batches written by a background
+ * thread. Reads are served from the view.
+ * <p>
+ * One change is queued per message: a later edit replaces the queued one and a message created and deleted before
+ * it was flushed is never written. A batch is flushed once the oldest queued change is {@code max-lag-ms} old or
+ * {@code max-pending} messages are queued, writers wait while the queue is full. The queue is flushed on shutdown,
+ * a crash loses it.
+ */
+@Startup
+@Alternative
+@Priority(1)
+@ApplicationScoped
+@IfBuildProperty(name = "message.write-behind.enabled", stringValue = "true")
+public class MessageRepositoryWriteBehind implements MessageRepository {
+    private static final Logger LOG = Logger.getLogger(MessageRepositoryWriteBehind.class);
+    private static final int LOAD_PAGE_SIZE = 1000;
+    // queued delete of a message the durable store may have
+    private static final MessageEntity DELETED = new MessageEntity("", "", "");
+
+    @ConfigProperty(name = "message.write-behind.max-lag-ms", defaultValue = "100")
+    long maxLagMs;
+    @ConfigProperty(name = "message.write-behind.max-pending", defaultValue = "10000")
+    int maxPending;
+    @Inject
+    BeanManager beanManager;
+    // not a MeterBinder bean, as an alternative among them would hide all the others from lookups by that type
+    @Inject
+    MeterRegistry registry;
+    @Inject
+    MessageIdGenerator idGenerator;
+
+    MessageRepository durable;
+    private final MessageRepositoryConcurrent view = new MessageRepositoryConcurrent();
+    // changes in the order the messages were first changed, guarded by its own monitor like everything below
+    private final LinkedHashMap<Long, MessageEntity> pending = new LinkedHashMap<>();
+    // queued messages the durable store has not seen yet
+    private final HashSet<Long> pendingCreates = new HashSet<>();
+    private long oldestPendingNanos;
+    private boolean running;
+    private Thread flusher;
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder backPressureWaits = new LongAdder();
+    private final LongAdder backPressureNanos = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        // injecting the durable store by type would resolve to this alternative, so it is looked up among all of them
+        var bean = beanManager.getBeans(MessageRepository.class, Any.Literal.INSTANCE).stream()
+            .filter(candidate -> candidate.getBeanClass() != MessageRepositoryWriteBehind.class)
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No durable message repository to write behind"));
+        durable = (MessageRepository) beanManager.getReference(bean, MessageRepository.class,
+            beanManager.createCreationalContext(bean));
+        // the view hands out the ids, the durable store only gets them with the queued messages
+        view.idGenerator = idGenerator;
+        start();
+        bindTo(registry);
+    }
+
+    void start() {
+        var page = durable.getAfter(-1, LOAD_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            page.forEach(view::restore);
+            page = durable.getAfter(page.get(page.size() - 1).getId(), LOAD_PAGE_SIZE);
+        }
+        // ids of deleted messages are not handed out again either
+        view.restoreNextId(durable.nextId());
+        running = true;
+        flusher = new Thread(this::flushLoop, "message-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        stop();
+    }
+
+    void stop() {
+        if (flusher == null) {
+            return;
+        }
+        synchronized (pending) {
+            running = false;
+            pending.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public List<MessageEntity> getAll(int limit, int offset) {
+        return view.getAll(limit, offset);
+    }
+
+    @Override
+    public List<MessageEntity> getAfter(long afterId, int limit) {
+        return view.getAfter(afterId, limit);
+    }
+
+    @Override
+    public List<MessageEntity> getBefore(long beforeId, int limit) {
+        return view.getBefore(beforeId, limit);
+    }
+
+    @Override
+    public List<MessageEntity> getByOwner(String ownerName, long afterId, int limit) {
+        return view.getByOwner(ownerName, afterId, limit);
+    }
+
+    @Override
+    public Optional<MessageEntity> getById(long id) {
+        return view.getById(id);
+    }
+
+    @Override
+    public long create(MessageEntity message) {
+        return createAll(List.of(message)).get(0);
+    }
+
+    @Override
+    public boolean update(MessageEntity message) {
+        return updateAll(List.of(message)).get(0);
+    }
+
+    @Override
+    public void delete(long id) {
+        deleteAll(List.of(id));
+    }
+
+    @Override
+    public long version() {
+        return view.version();
+    }
+
+    @Override
+    public long nextId() {
+        return view.nextId();
+    }
+
+    @Override
+    public List<Long> createAll(List<MessageEntity> messages) {
+        synchronized (pending) {
+            awaitCapacity();
+            var ids = view.createAll(messages);
+            for (var i = 0; i < ids.size(); i++) {
+                var id = ids.get(i);
+                pendingCreates.add(id);
+                enqueue(id, messages.get(i).withId(id));
+            }
+            return ids;
+        }
+    }
+
+    @Override
+    public List<Boolean> updateAll(List<MessageEntity> messages) {
+        synchronized (pending) {
+            awaitCapacity();
+            var results = view.updateAll(messages);
+            for (var i = 0; i < results.size(); i++) {
+                if (results.get(i)) {
+                    enqueue(messages.get(i).getId(), messages.get(i));
+                }
+            }
+            return results;
+        }
+    }
+
+    @Override
+    public void deleteAll(List<Long> ids) {
+        synchronized (pending) {
+            awaitCapacity();
+            for (var id : ids) {
+                if (view.getById(id).isEmpty()) {
+                    continue;
+                }
+                view.delete(id);
+                if (pendingCreates.remove(id)) {
+                    // the durable store never saw the message, so it need not see the delete either
+                    pending.remove(id);
+                    coalesced.increment();
+                } else {
+                    enqueue(id, DELETED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queued like edits: whether or not the durable store has the messages already, it gets them under their ids.
+     */
+    @Override
+    public void putAll(List<MessageEntity> messages) {
+        synchronized (pending) {
+            awaitCapacity();
+            // also moves the ids handed out by the view past them
+            view.putAll(messages);
+            for (var message : messages) {
+                enqueue(message.getId(), message);
+            }
+        }
+    }
+
+    /**
+     * Writers wait while the queue is full, so flushes may block them on the durable store.
+     */
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    void bindTo(MeterRegistry registry) {
+        Gauge.builder("message.write.behind.pending", this, repository -> repository.pendingCount())
+            .description("Messages with changes not yet written to the durable store")
+            .register(registry);
+        TimeGauge.builder("message.write.behind.lag", this, TimeUnit.NANOSECONDS, repository -> repository.lagNanos())
+            .description("Age of the oldest change not yet written to the durable store")
+            .register(registry);
+        FunctionCounter.builder("message.write.behind.coalesced", coalesced, LongAdder::sum)
+            .description("Changes replaced or cancelled by a later change before they were written")
+            .register(registry);
+        FunctionCounter.builder("message.write.behind.flushed", flushed, LongAdder::sum)
+            .description("Message changes written to the durable store")
+            .register(registry);
+        FunctionCounter.builder("message.write.behind.flush.failures", flushFailures, LongAdder::sum)
+            .description("Batches the durable store failed to write, retried later")
+            .register(registry);
+        FunctionTimer.builder("message.write.behind.back.pressure", this,
+            repository -> repository.backPressureWaits.sum(),
+            repository -> repository.backPressureNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Time writers spent waiting for a full queue to be flushed")
+            .register(registry);
+    }
+
+    long pendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    long lagNanos() {
+        synchronized (pending) {
+            return pending.isEmpty() ? 0 : System.nanoTime() - oldestPendingNanos;
+        }
+    }
+
+    private void enqueue(long id, MessageEntity change) {
+        if (pending.isEmpty()) {
+            oldestPendingNanos = System.nanoTime();
+            pending.notifyAll();
+        }
+        if (pending.put(id, change) != null) {
+            coalesced.increment();
+        }
+        if (pending.size() >= maxPending) {
+            pending.notifyAll();
+        }
+    }
+
+    private void awaitCapacity() {
+        if (pending.size() < maxPending) {
+            return;
+        }
+        var waitStart = System.nanoTime();
+        try {
+            while (pending.size() >= maxPending) {
+                pending.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for queued message writes", e);
+        } finally {
+            backPressureNanos.add(System.nanoTime() - waitStart);
+            backPressureWaits.increment();
+        }
+    }
+
+    private void flushLoop() {
+        var maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMs);
+        while (true) {
+            final Map<Long, MessageEntity> batch;
+            synchronized (pending) {
+                try {
+                    while (running && !isDue(maxLagNanos)) {
+                        if (pending.isEmpty()) {
+                            pending.wait();
+                        } else {
+                            var remainingNanos = oldestPendingNanos + maxLagNanos - System.nanoTime();
+                            pending.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>(pending);
+                pending.clear();
+                pendingCreates.clear();
+                pending.notifyAll();
+            }
+            if (!write(batch) && !requeue(batch)) {
+                return;
+            }
+        }
+    }
+
+    private boolean isDue(long maxLagNanos) {
+        return !pending.isEmpty()
+            && (pending.size() >= maxPending || System.nanoTime() - oldestPendingNanos >= maxLagNanos);
+    }
+
+    private boolean write(Map<Long, MessageEntity> batch) {
+        var puts = new ArrayList<MessageEntity>();
+        var deletes = new ArrayList<Long>();
+        batch.forEach((id, change) -> {
+            if (change == DELETED) {
+                deletes.add(id);
+            } else {
+                puts.add(change);
+            }
+        });
+        try {
+            if (!puts.isEmpty()) {
+                durable.putAll(puts);
+            }
+            if (!deletes.isEmpty()) {
+                durable.deleteAll(deletes);
+            }
+            flushed.add(batch.size());
+            return true;
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            LOG.errorf(e, "Failed to write %d message changes to the durable store", batch.size());
+            return false;
+        }
+    }
+
+    // changes queued since the batch was taken are newer and stay; false when stopped and the batch is lost
+    private boolean requeue(Map<Long, MessageEntity> batch) {
+        synchronized (pending) {
+            if (!running) {
+                LOG.errorf("Dropped %d message changes not written before shutdown", batch.size());
+                return false;
+            }
+            if (pending.isEmpty()) {
+                oldestPendingNanos = System.nanoTime();
+            }
+            batch.forEach(pending::putIfAbsent);
+            try {
+                // the durable store gets a lag interval to recover before the next attempt
+                pending.wait(Math.max(1, maxLagMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            return true;
+        }
+    }
+}
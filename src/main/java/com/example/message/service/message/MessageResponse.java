@@ -12,13 +12,24 @@ public class MessageResponse {
     public String body;
     public LocalDateTime createdAt;
     public LocalDateTime editedAt;
+    @Schema(description = "Incremented by every edit, starting over when the service restarts")
+    public int version;
+
+    public MessageResponse() {
+    }
 
     public MessageResponse(long id, String author, String header, String body, LocalDateTime createdAt, LocalDateTime editedAt) {
+        this(id, author, header, body, createdAt, editedAt, 0);
+    }
+
+    public MessageResponse(long id, String author, String header, String body, LocalDateTime createdAt,
+                           LocalDateTime editedAt, int version) {
         this.id = id;
         this.author = author;
         this.header = header;
         this.body = body;
         this.createdAt = createdAt;
         this.editedAt = editedAt;
+        this.version = version;
     }
 }
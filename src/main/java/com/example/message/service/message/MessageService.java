@@ -1,42 +1,433 @@
 package com.example.message.service.message;
 
+import com.example.message.service.cache.ResponseCache;
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.replication.ReplicationFollower;
+import com.example.message.service.search.SearchIndex;
+import io.micrometer.core.annotation.Timed;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.collectingAndThen;
 
+/**
+ * Writes of one message hold its lock stripe from reading the stored version until the change is published, so the
+ * store, the search index and the change log see the changes of a message in the same order. Ids are only known
+ * once a message is stored, so a create takes the stripe afterwards. An edit or delete of the new message may have
+ * been published by then, in that case the create publishes what is stored now.
+ */
 @ApplicationScoped
 public class MessageService {
+    // every operation is timed, except the export, which only returns a lazy stream, the version read and the
+    // replicated changes, which are applied by the replication follower in the background
+    private static final String TIMER = "message.service";
+    static final int EXPORT_BATCH_SIZE = 500;
+    public static final int MAX_BATCH_SIZE = 1000;
+    private static final int LOCK_STRIPES = 256;
+
     @Inject
     MessageRepository repository;
+    @Inject
+    SearchIndex searchIndex;
+    @Inject
+    ResponseCache responseCache;
+    @Inject
+    ChangeLog changeLog;
+    @Inject
+    ReplicationFollower follower;
+
+    private final ReentrantLock[] locks = IntStream.range(0, LOCK_STRIPES)
+        .mapToObj(i -> new ReentrantLock())
+        .toArray(ReentrantLock[]::new);
+    // edits and deletes published so far, tells a create whether one may have overtaken it
+    private final AtomicLong published = new AtomicLong();
 
+    @Timed(TIMER)
     public MessageListResponse getAll(int limit, int offset) {
-        return repository.getAll(limit, offset).stream()
+        return toListResponse(repository.getAll(limit, offset), limit);
+    }
+
+    @Timed(TIMER)
+    public MessageListResponse getAllAfter(long afterId, int limit) {
+        return toListResponse(repository.getAfter(afterId, limit), limit);
+    }
+
+    @Timed(TIMER)
+    public MessageListResponse getAllBefore(long beforeId, int limit) {
+        return toListResponse(repository.getBefore(beforeId, limit), limit);
+    }
+
+    @Timed(TIMER)
+    public MessageListResponse getByAuthor(String author, long afterId, int limit) {
+        return toListResponse(repository.getByOwner(author, afterId, limit), limit);
+    }
+
+    @Timed(TIMER)
+    public MessageListResponse search(String query, int limit, int offset) {
+        return searchIndex.search(query, limit, offset).stream()
+            .map(repository::getById)
+            .flatMap(Optional::stream)
             .map(MessageService::entityToResponse)
             .collect(collectingAndThen(Collectors.toList(), MessageListResponse::new));
     }
 
+    /**
+     * Version of the stored messages. Pages read after it are at least as new, see {@link MessageRepository#version()}.
+     */
+    public long version() {
+        return repository.version();
+    }
+
+    /**
+     * Lazily reads all messages, oldest first, one batch at a time. Only the current batch is held in memory,
+     * and changes made while the stream is consumed are visible in batches not read yet.
+     */
+    public Stream<MessageResponse> export() {
+        return Stream.iterate(
+                repository.getAfter(-1, EXPORT_BATCH_SIZE),
+                batch -> !batch.isEmpty(),
+                batch -> batch.size() < EXPORT_BATCH_SIZE
+                    ? List.of()
+                    : repository.getAfter(batch.get(batch.size() - 1).getId(), EXPORT_BATCH_SIZE))
+            .flatMap(List::stream)
+            .map(MessageService::entityToResponse);
+    }
+
+    @Timed(TIMER)
     public MessageResponse getById(long messageId) {
         var message = getMessageOrThrow(messageId);
         return entityToResponse(message);
     }
 
+    @Timed(TIMER)
     public long create(String userName, MessageRequest request) {
-        return repository.create(new MessageEntity(userName, request.header, request.body));
+        if (follower.isActive()) {
+            return follower.create(userName, request);
+        }
+        var message = new MessageEntity(userName, request.header, request.body);
+        var publishedBefore = published.get();
+        var messageId = repository.create(message);
+        publishCreated(message.withId(messageId), publishedBefore);
+        return messageId;
     }
 
+    @Timed(TIMER)
     public void update(String userName, long messageId, MessageRequest request) {
-        var message = getMessageForOwner(userName, messageId);
-        message.update(request.header, request.body);
-        repository.update(message);
+        updateIf(userName, messageId, request, null);
     }
 
+    /**
+     * Updates the message only if the precondition holds for the version the edit is made from, otherwise fails
+     * with 412. Fails with 409 if another edit was stored after that version was read.
+     */
+    @Timed(TIMER)
+    public void update(String userName, long messageId, MessageRequest request, Predicate<MessageResponse> precondition) {
+        updateIf(userName, messageId, request, precondition);
+    }
+
+    private void updateIf(String userName, long messageId, MessageRequest request, Predicate<MessageResponse> precondition) {
+        if (follower.isActive()) {
+            // the leader checks the owner again, and that the version the precondition held for is still current;
+            // no stripe is held, the follower applies the change it waits for under it
+            var current = getMessageForUpdate(userName, messageId, precondition);
+            follower.update(userName, messageId, request,
+                precondition == null ? ReplicationFollower.ANY_VERSION : current.getVersion());
+            return;
+        }
+        withLock(messageId, () -> {
+            var message = getMessageForUpdate(userName, messageId, precondition).edited(request.header, request.body);
+            if (!repository.update(message)) {
+                throw repository.getById(messageId).isPresent()
+                    ? new ClientErrorException(Status.CONFLICT)
+                    : new NotFoundException();
+            }
+            publishUpdated(message);
+            return null;
+        });
+    }
+
+    @Timed(TIMER)
     public void delete(String userId, long messageId) {
-        getMessageForOwner(userId, messageId);
-        repository.delete(messageId);
+        if (follower.isActive()) {
+            follower.delete(userId, messageId);
+            return;
+        }
+        withLock(messageId, () -> {
+            getMessageForOwner(userId, messageId);
+            repository.delete(messageId);
+            publishDeleted(messageId);
+            return null;
+        });
+    }
+
+    /**
+     * Creates the valid messages of the batch with a single repository write. Invalid items are skipped.
+     */
+    @Timed(TIMER)
+    public MessageBatchResponse createAll(String userName, List<MessageRequest> requests) {
+        if (follower.isActive()) {
+            return follower.createAll(userName, requests);
+        }
+        var results = new MessageBatchResponse.Result[requests.size()];
+        var positions = new ArrayList<Integer>();
+        var messages = new ArrayList<MessageEntity>();
+        for (int i = 0; i < requests.size(); i++) {
+            var request = requests.get(i);
+            if (isValid(request)) {
+                positions.add(i);
+                messages.add(new MessageEntity(userName, request.header, request.body));
+            } else {
+                results[i] = new MessageBatchResponse.Result(null, Status.BAD_REQUEST.getStatusCode());
+            }
+        }
+        var publishedBefore = published.get();
+        var ids = repository.createAll(messages);
+        for (int i = 0; i < ids.size(); i++) {
+            publishCreated(messages.get(i).withId(ids.get(i)), publishedBefore);
+            results[positions.get(i)] = new MessageBatchResponse.Result(ids.get(i), Status.OK.getStatusCode());
+        }
+        return new MessageBatchResponse(Arrays.asList(results));
+    }
+
+    /**
+     * Applies the updates the user is allowed to make with a single repository write, the rest are skipped.
+     */
+    @Timed(TIMER)
+    public MessageBatchResponse updateAll(String userName, List<MessageUpdateRequest> requests) {
+        if (follower.isActive()) {
+            return follower.updateAll(userName, requests);
+        }
+        var ids = requests.stream().filter(MessageService::isValid).map(request -> request.id).collect(Collectors.toList());
+        return withLocks(ids, () -> updateAllLocked(userName, requests));
+    }
+
+    private MessageBatchResponse updateAllLocked(String userName, List<MessageUpdateRequest> requests) {
+        var results = new MessageBatchResponse.Result[requests.size()];
+        var positions = new ArrayList<Integer>();
+        var messages = new ArrayList<MessageEntity>();
+        for (int i = 0; i < requests.size(); i++) {
+            var request = requests.get(i);
+            if (!isValid(request)) {
+                results[i] = new MessageBatchResponse.Result(request == null ? null : request.id,
+                    Status.BAD_REQUEST.getStatusCode());
+                continue;
+            }
+            var message = repository.getById(request.id);
+            var status = ownerStatus(userName, message);
+            if (status == Status.OK) {
+                positions.add(i);
+                messages.add(message.get().edited(request.header, request.body));
+            }
+            results[i] = new MessageBatchResponse.Result(request.id, status.getStatusCode());
+        }
+        var stored = repository.updateAll(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            var message = messages.get(i);
+            if (!stored.get(i)) {
+                // edited or deleted since it was read, same as a single update would report
+                var status = repository.getById(message.getId()).isPresent() ? Status.CONFLICT : Status.NOT_FOUND;
+                results[positions.get(i)] = new MessageBatchResponse.Result(message.getId(), status.getStatusCode());
+                continue;
+            }
+            publishUpdated(message);
+        }
+        return new MessageBatchResponse(Arrays.asList(results));
+    }
+
+    /**
+     * Deletes the messages the user is allowed to delete with a single repository write, the rest are skipped.
+     */
+    @Timed(TIMER)
+    public MessageBatchResponse deleteAll(String userName, List<Long> messageIds) {
+        if (follower.isActive()) {
+            return follower.deleteAll(userName, messageIds);
+        }
+        var ids = messageIds.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        return withLocks(ids, () -> deleteAllLocked(userName, messageIds));
+    }
+
+    private MessageBatchResponse deleteAllLocked(String userName, List<Long> messageIds) {
+        var results = new ArrayList<MessageBatchResponse.Result>(messageIds.size());
+        var deleted = new ArrayList<Long>();
+        for (var messageId : messageIds) {
+            var status = messageId == null
+                ? Status.BAD_REQUEST
+                : ownerStatus(userName, repository.getById(messageId));
+            if (status == Status.OK) {
+                deleted.add(messageId);
+            }
+            results.add(new MessageBatchResponse.Result(messageId, status.getStatusCode()));
+        }
+        repository.deleteAll(deleted);
+        deleted.forEach(this::publishDeleted);
+        return new MessageBatchResponse(results);
+    }
+
+    /**
+     * Stores a message as streamed from the replication leader. Changes of one message may arrive out of order, so
+     * one not newer than the stored version is ignored. A message of a snapshot of the leader's messages replaces
+     * whatever differs from it under its id.
+     */
+    public void replicated(MessageResponse message, boolean snapshot) {
+        withLock(message.id, () -> {
+            replicatedLocked(message, snapshot);
+            return null;
+        });
+    }
+
+    private void replicatedLocked(MessageResponse message, boolean snapshot) {
+        var stored = repository.getById(message.id);
+        if (stored.isPresent()) {
+            var current = stored.get();
+            if (snapshot ? isSame(current, message) : current.getVersion() >= message.version) {
+                return;
+            }
+            if (!current.getOwnerName().equals(message.author)) {
+                // only in a snapshot of a leader that lost messages and handed out their ids again
+                replicatedDelete(message.id);
+                stored = Optional.empty();
+            }
+        }
+        var entity = new MessageEntity(message.id, message.author, message.header, message.body, message.createdAt,
+            message.editedAt, message.version);
+        repository.putAll(List.of(entity));
+        if (stored.isPresent()) {
+            publishUpdated(entity);
+        } else {
+            searchIndex.index(message.id, message.header, message.body);
+            responseCache.created(message.id);
+            changeLog.created(message);
+        }
+    }
+
+    /**
+     * Deletes a message as streamed from the replication leader, if it is still stored.
+     */
+    public void replicatedDelete(long messageId) {
+        withLock(messageId, () -> {
+            if (repository.getById(messageId).isPresent()) {
+                repository.delete(messageId);
+                publishDeleted(messageId);
+            }
+            return null;
+        });
+    }
+
+    private void publishCreated(MessageEntity message, long publishedBefore) {
+        withLock(message.getId(), () -> {
+            var current = Optional.of(message);
+            if (published.get() != publishedBefore) {
+                // an edit or delete may have found the message already, and was published with what it stored
+                current = repository.getById(message.getId());
+            }
+            current.ifPresent(stored -> {
+                searchIndex.index(stored.getId(), stored.getHeader(), stored.getBody());
+                responseCache.created(stored.getId());
+                changeLog.created(entityToResponse(stored));
+            });
+            return null;
+        });
+    }
+
+    // called under the stripe of the message, like publishDeleted
+
+    private void publishUpdated(MessageEntity message) {
+        searchIndex.index(message.getId(), message.getHeader(), message.getBody());
+        responseCache.updated(message.getId());
+        changeLog.updated(entityToResponse(message));
+        published.incrementAndGet();
+    }
+
+    private void publishDeleted(long messageId) {
+        searchIndex.remove(messageId);
+        responseCache.deleted(messageId);
+        changeLog.deleted(messageId);
+        published.incrementAndGet();
+    }
+
+    private ReentrantLock lockOf(long messageId) {
+        return locks[Long.hashCode(messageId) & (LOCK_STRIPES - 1)];
+    }
+
+    private <T> T withLock(long messageId, Supplier<T> write) {
+        var lock = lockOf(messageId);
+        lock.lock();
+        try {
+            return write.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the write under the stripes of all the messages, taken in stripe order so batches never wait for each
+     * other in a cycle.
+     */
+    private <T> T withLocks(Collection<Long> messageIds, Supplier<T> write) {
+        var stripes = messageIds.stream()
+            .mapToInt(messageId -> Long.hashCode(messageId) & (LOCK_STRIPES - 1))
+            .distinct()
+            .sorted()
+            .toArray();
+        var locked = 0;
+        try {
+            for (var stripe : stripes) {
+                locks[stripe].lock();
+                locked++;
+            }
+            return write.get();
+        } finally {
+            for (var i = locked - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    private static Status ownerStatus(String userName, Optional<MessageEntity> message) {
+        if (message.isEmpty()) {
+            return Status.NOT_FOUND;
+        }
+        return message.get().getOwnerName().equals(userName) ? Status.OK : Status.FORBIDDEN;
+    }
+
+    private static boolean isSame(MessageEntity entity, MessageResponse message) {
+        return entity.getVersion() == message.version
+            && entity.getOwnerName().equals(message.author)
+            && entity.getHeader().equals(message.header)
+            && entity.getBody().equals(message.body);
+    }
+
+    private static boolean isValid(MessageRequest request) {
+        return request != null
+            && request.header != null && !request.header.isEmpty()
+            && request.body != null && !request.body.isEmpty();
+    }
+
+    private MessageEntity getMessageForUpdate(String userName, long messageId, Predicate<MessageResponse> precondition) {
+        var current = getMessageForOwner(userName, messageId);
+        if (precondition != null && !precondition.test(entityToResponse(current))) {
+            throw new WebApplicationException(Status.PRECONDITION_FAILED);
+        }
+        return current;
     }
 
     private MessageEntity getMessageForOwner(String userName, long messageId) {
@@ -52,6 +443,15 @@ public class MessageService {
         return message.orElseThrow(NotFoundException::new);
     }
 
+    private static MessageListResponse toListResponse(List<MessageEntity> messages, int limit) {
+        var nextCursor = !messages.isEmpty() && messages.size() >= limit
+            ? messages.get(messages.size() - 1).getId()
+            : null;
+        return messages.stream()
+            .map(MessageService::entityToResponse)
+            .collect(collectingAndThen(Collectors.toList(), responses -> new MessageListResponse(responses, nextCursor)));
+    }
+
     private static MessageResponse entityToResponse(MessageEntity entity) {
         return new MessageResponse(
             entity.getId(),
@@ -59,7 +459,8 @@ public class MessageService {
             entity.getHeader(),
             entity.getBody(),
             entity.getCreatedAt(),
-            entity.getEditedAt()
+            entity.getEditedAt(),
+            entity.getVersion()
         );
     }
 }
@@ -0,0 +1,157 @@
+package com.example.message.service.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Messages sorted by id, in a primitive id array next to an array of values. Not thread-safe.
+ *
+ * @param <T> stored form of a message
+ * <p>
+ * Ids are handed out in increasing order, so a new message is appended at the end. A deleted message leaves an
+ * empty slot behind, the slots are compacted once half of them are empty.
+ */
+final class MessageTable<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private Object[] messages = new Object[INITIAL_CAPACITY];
+    // used slots, including the empty ones
+    private int slots;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    T get(long id) {
+        var slot = Arrays.binarySearch(ids, 0, slots, id);
+        return slot >= 0 ? message(slot) : null;
+    }
+
+    void put(long id, T message) {
+        if (slots > 0 && id <= ids[slots - 1]) {
+            var slot = Arrays.binarySearch(ids, 0, slots, id);
+            if (slot >= 0) {
+                if (messages[slot] == null) {
+                    size++;
+                }
+                messages[slot] = message;
+                return;
+            }
+            insert(-slot - 1, id, message);
+            return;
+        }
+        insert(slots, id, message);
+    }
+
+    /**
+     * Replaces the message with the same id, if there is one.
+     */
+    boolean replace(long id, T message) {
+        var slot = Arrays.binarySearch(ids, 0, slots, id);
+        if (slot < 0 || messages[slot] == null) {
+            return false;
+        }
+        messages[slot] = message;
+        return true;
+    }
+
+    T remove(long id) {
+        var slot = Arrays.binarySearch(ids, 0, slots, id);
+        if (slot < 0 || messages[slot] == null) {
+            return null;
+        }
+        var message = message(slot);
+        messages[slot] = null;
+        size--;
+        if (size < slots / 2) {
+            compact();
+        }
+        return message;
+    }
+
+    /**
+     * @return up to {@code limit} messages, skipping the first {@code offset} ones
+     */
+    List<T> page(int offset, int limit) {
+        var result = new ArrayList<T>(Math.min(limit, size));
+        var skip = offset;
+        for (int slot = 0; slot < slots && result.size() < limit; slot++) {
+            if (messages[slot] != null && skip-- <= 0) {
+                result.add(message(slot));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to {@code limit} messages following the id, oldest first
+     */
+    List<T> after(long id, int limit) {
+        var result = new ArrayList<T>(Math.min(limit, size));
+        for (int slot = firstSlotAfter(id); slot < slots && result.size() < limit; slot++) {
+            if (messages[slot] != null) {
+                result.add(message(slot));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to {@code limit} messages preceding the id, newest first
+     */
+    List<T> before(long id, int limit) {
+        var result = new ArrayList<T>(Math.min(limit, size));
+        var slot = Arrays.binarySearch(ids, 0, slots, id);
+        for (slot = (slot >= 0 ? slot : -slot - 1) - 1; slot >= 0 && result.size() < limit; slot--) {
+            if (messages[slot] != null) {
+                result.add(message(slot));
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T message(int slot) {
+        return (T) messages[slot];
+    }
+
+    private int firstSlotAfter(long id) {
+        var slot = Arrays.binarySearch(ids, 0, slots, id);
+        return slot >= 0 ? slot + 1 : -slot - 1;
+    }
+
+    private void insert(int slot, long id, T message) {
+        if (slots == ids.length) {
+            var capacity = ids.length + (ids.length >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+        }
+        System.arraycopy(ids, slot, ids, slot + 1, slots - slot);
+        System.arraycopy(messages, slot, messages, slot + 1, slots - slot);
+        ids[slot] = id;
+        messages[slot] = message;
+        slots++;
+        size++;
+    }
+
+    private void compact() {
+        var used = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (messages[slot] != null) {
+                ids[used] = ids[slot];
+                messages[used] = messages[slot];
+                used++;
+            }
+        }
+        Arrays.fill(messages, used, slots, null);
+        slots = used;
+        var capacity = Math.max(INITIAL_CAPACITY, used + (used >> 1));
+        if (capacity < ids.length) {
+            ids = Arrays.copyOf(ids, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.message.service.message;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+@Schema(title = "Request for updating message in a batch")
+public class MessageUpdateRequest extends MessageRequest {
+    @Schema(required = true)
+    public long id;
+
+    public MessageUpdateRequest(long id, String header, String body) {
+        super(header, body);
+        this.id = id;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.message.service.message;
+
+import io.quarkus.arc.properties.IfBuildProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts ids up from 0, so they follow the creation order exactly. The count is not kept anywhere, stores that
+ * do not restore it start over after a restart, and instances hand out the same ids.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "message.id.generator", stringValue = "sequential", enableIfMissing = true)
+public class SequentialIdGenerator implements MessageIdGenerator {
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Override
+    public long next() {
+        return nextId.getAndIncrement();
+    }
+
+    @Override
+    public long peek() {
+        return nextId.get();
+    }
+
+    @Override
+    public void advancePast(long id) {
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.message.service.message;
+
+import io.quarkus.arc.properties.IfBuildProperty;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Ids made of the milliseconds since {@link #EPOCH}, the {@code message.id.node-id} and a sequence number, in the
+ * manner of Snowflake ids. Instances with different node ids never hand out the same id and nothing has to be kept
+ * across restarts, as long as the clock does not go back by more than the downtime. Ids grow with time, so id order
+ * stays creation order, give or take creates racing each other.
+ * <p>
+ * Threads take blocks of {@link #BLOCK_SIZE} sequence numbers from a shared counter and hand them out without any
+ * synchronization. A block is dropped once its millisecond has passed, so a thread that rarely creates messages
+ * does not hand out ids older than the ones handed out by others meanwhile. A millisecond out of sequence numbers
+ * borrows from the next one instead of waiting for it, and a clock going back is ignored the same way: ids run
+ * ahead of the clock for a while, but never repeat.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "message.id.generator", stringValue = "snowflake")
+public class SnowflakeIdGenerator implements MessageIdGenerator {
+    static final long EPOCH = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    // divides the sequence numbers of a millisecond, so a block never spans two of them
+    static final int BLOCK_SIZE = 64;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    @ConfigProperty(name = "message.id.node-id", defaultValue = "0")
+    int nodeId;
+    LongSupplier clock = System::currentTimeMillis;
+
+    // ticks are ids without the node id: milliseconds and sequence number
+    // first tick no thread has taken yet, always at a block boundary
+    private final AtomicLong nextTick = new AtomicLong();
+    // blocks below it were taken before advancePast
+    private final AtomicLong floor = new AtomicLong();
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    @PostConstruct
+    void init() {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("message.id.node-id must be between 0 and " + MAX_NODE_ID + ", not " + nodeId);
+        }
+    }
+
+    @Override
+    public long next() {
+        var block = blocks.get();
+        if (block.next == block.end || block.next < currentTick() || block.next < floor.get()) {
+            take(block);
+        }
+        return toId(block.next++);
+    }
+
+    @Override
+    public long peek() {
+        return toId(Math.max(nextTick.get(), Math.max(currentTick(), floor.get())));
+    }
+
+    @Override
+    public void advancePast(long id) {
+        if (id < 0) {
+            return;
+        }
+        // ids of other nodes with the same milliseconds may be higher than any sequence number of this one
+        var boundary = ((id >>> (NODE_BITS + SEQUENCE_BITS)) + 1) << SEQUENCE_BITS;
+        floor.accumulateAndGet(boundary, Math::max);
+        nextTick.accumulateAndGet(boundary, Math::max);
+    }
+
+    private void take(Block block) {
+        var earliest = Math.max(currentTick(), floor.get());
+        long taken;
+        long start;
+        do {
+            taken = nextTick.get();
+            start = Math.max(taken, earliest);
+        } while (!nextTick.compareAndSet(taken, start + BLOCK_SIZE));
+        block.next = start;
+        block.end = start + BLOCK_SIZE;
+    }
+
+    private long currentTick() {
+        return (clock.getAsLong() - EPOCH) << SEQUENCE_BITS;
+    }
+
+    private long toId(long tick) {
+        return (tick >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | (long) nodeId << SEQUENCE_BITS
+            | tick & SEQUENCE_MASK;
+    }
+
+    private static final class Block {
+        long next;
+        long end;
+    }
+}
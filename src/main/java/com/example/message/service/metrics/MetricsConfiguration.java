@@ -0,0 +1,37 @@
+package com.example.message.service.metrics;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
+
+public class MetricsConfiguration {
+    private static final List<String> LATENCY_HISTOGRAMS = List.of("http.server.requests", "message.service");
+
+    /**
+     * Publishes latency histograms for endpoints and service calls, so percentiles can be aggregated across
+     * instances. Buckets are limited to the range a request can realistically take.
+     */
+    @Produces
+    @Singleton
+    public MeterFilter latencyHistograms() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (!LATENCY_HISTOGRAMS.contains(id.getName())) {
+                    return config;
+                }
+                return DistributionStatisticConfig.builder()
+                    .percentilesHistogram(true)
+                    .minimumExpectedValue((double) Duration.ofMillis(1).toNanos())
+                    .maximumExpectedValue((double) Duration.ofSeconds(10).toNanos())
+                    .build()
+                    .merge(config);
+            }
+        };
+    }
+}
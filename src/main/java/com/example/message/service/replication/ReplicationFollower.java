@@ -0,0 +1,433 @@
+package com.example.message.service.replication;
+
+import com.example.message.service.message.MessageBatchResponse;
+import com.example.message.service.message.MessageRequest;
+import com.example.message.service.message.MessageService;
+import com.example.message.service.message.MessageUpdateRequest;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.example.message.service.replication.ReplicationProtocol.*;
+
+/**
+ * Follower side of the replication: keeps the local store a copy of the one of the leader at
+ * {@code message.replication.leader} and forwards writes to it.
+ * <p>
+ * Changes are applied through {@link MessageService}, so the search index, response cache and change log of the
+ * follower follow them as well. A forwarded write returns once the follower has applied the change log up to the
+ * write, so clients read their own writes from the follower they wrote to. While the leader is unreachable, reads
+ * are served from the last applied state and writes fail with 503.
+ */
+@ApplicationScoped
+public class ReplicationFollower implements MeterBinder {
+    static final String ROLE = "follower";
+    /** Expected version of a forwarded edit that is not conditional. */
+    public static final int ANY_VERSION = -1;
+    private static final Logger LOG = Logger.getLogger(ReplicationFollower.class);
+    // a leader silent for this many heartbeats is taken for gone
+    private static final int MISSED_HEARTBEATS = 3;
+
+    @ConfigProperty(name = "message.replication.role", defaultValue = "none")
+    String role;
+    @ConfigProperty(name = "message.replication.leader", defaultValue = "localhost:7600")
+    String leader;
+    @ConfigProperty(name = "message.replication.heartbeat-ms", defaultValue = "1000")
+    long heartbeatMs;
+    @ConfigProperty(name = "message.replication.timeout-ms", defaultValue = "5000")
+    long timeoutMs;
+    // no default, an empty value counts as missing
+    @ConfigProperty(name = "message.replication.secret")
+    Optional<String> secret;
+    @Inject
+    MessageService service;
+
+    private volatile boolean running;
+    private Thread receiver;
+    private volatile Connection connection;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<Reply>> pending = new ConcurrentHashMap<>();
+    // change log offset of the leader applied here, only advanced by the receiver
+    private final AppliedOffset applied = new AppliedOffset();
+    private volatile long leaderOffset = NO_OFFSET;
+    // when the follower fell behind the leader, 0 while caught up
+    private volatile long behindSinceNanos;
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder forwardedWrites = new LongAdder();
+    private final LongAdder forwardedNanos = new LongAdder();
+
+    /**
+     * Whether this node is a follower, which has its writes made by the leader.
+     */
+    public boolean isActive() {
+        return ROLE.equals(role);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (isActive()) {
+            start();
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        stop();
+    }
+
+    void start() {
+        if (secret.filter(value -> !value.isBlank()).isEmpty()) {
+            throw new IllegalStateException("message.replication.secret must be set to follow a leader");
+        }
+        running = true;
+        behindSinceNanos = System.nanoTime();
+        receiver = new Thread(this::receiveLoop, "message-replication-follower");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    void stop() {
+        if (receiver == null) {
+            return;
+        }
+        running = false;
+        var current = connection;
+        if (current != null) {
+            current.close();
+        }
+        receiver.interrupt();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long create(String userName, MessageRequest request) {
+        var result = forward(OP_CREATE, userName, out -> writeRequest(out, request)).results.get(0);
+        check(result.status);
+        return result.id;
+    }
+
+    /**
+     * @param expectedVersion version the edit was made from, the leader rejects it with 412 if the message is no
+     *                        longer at it, or {@link #ANY_VERSION}
+     */
+    public void update(String userName, long messageId, MessageRequest request, int expectedVersion) {
+        var result = forward(OP_UPDATE, userName, out -> {
+            out.writeLong(messageId);
+            writeRequest(out, request);
+            out.writeInt(expectedVersion);
+        }).results.get(0);
+        check(result.status);
+    }
+
+    public void delete(String userName, long messageId) {
+        check(forward(OP_DELETE, userName, out -> out.writeLong(messageId)).results.get(0).status);
+    }
+
+    public MessageBatchResponse createAll(String userName, List<MessageRequest> requests) {
+        return new MessageBatchResponse(forward(OP_CREATE_ALL, userName,
+            out -> writeList(out, requests, ReplicationProtocol::writeRequest)).results);
+    }
+
+    public MessageBatchResponse updateAll(String userName, List<MessageUpdateRequest> requests) {
+        return new MessageBatchResponse(forward(OP_UPDATE_ALL, userName,
+            out -> writeList(out, requests, ReplicationProtocol::writeUpdateRequest)).results);
+    }
+
+    public MessageBatchResponse deleteAll(String userName, List<Long> messageIds) {
+        return new MessageBatchResponse(forward(OP_DELETE_ALL, userName,
+            out -> writeList(out, messageIds, ReplicationProtocol::writeId)).results);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!isActive()) {
+            return;
+        }
+        TimeGauge.builder("message.replication.lag", this, TimeUnit.NANOSECONDS, follower -> follower.lagNanos())
+            .description("Time the follower has been missing changes of the leader, zero while caught up")
+            .register(registry);
+        Gauge.builder("message.replication.lag.events", this, follower -> follower.lagEvents())
+            .description("Change log events of the leader not applied yet, as of its latest heartbeat")
+            .register(registry);
+        Gauge.builder("message.replication.connected", this, follower -> follower.connection != null ? 1 : 0)
+            .description("Whether the follower is connected to the leader")
+            .register(registry);
+        FunctionCounter.builder("message.replication.snapshots.received", snapshots, LongAdder::sum)
+            .description("Snapshots of all messages received from the leader")
+            .register(registry);
+        FunctionTimer.builder("message.replication.forwarded", this,
+            follower -> follower.forwardedWrites.sum(),
+            follower -> follower.forwardedNanos.sum(),
+            TimeUnit.NANOSECONDS)
+            .description("Writes forwarded to the leader, until applied here")
+            .register(registry);
+    }
+
+    long lagNanos() {
+        var since = behindSinceNanos;
+        return since == 0 ? 0 : System.nanoTime() - since;
+    }
+
+    long lagEvents() {
+        var applied = this.applied.get();
+        return applied == NO_OFFSET || leaderOffset == NO_OFFSET ? 0 : Math.max(0, leaderOffset - applied);
+    }
+
+    private Reply forward(byte operation, String userName, Payload payload) {
+        var current = connection;
+        if (current == null) {
+            throw new ServiceUnavailableException("Replication leader " + leader + " is not connected");
+        }
+        var started = System.nanoTime();
+        var requestId = requestIds.incrementAndGet();
+        var reply = new CompletableFuture<Reply>();
+        pending.put(requestId, reply);
+        try {
+            synchronized (current.out) {
+                current.out.writeByte(FORWARD);
+                current.out.writeLong(requestId);
+                current.out.writeByte(operation);
+                writeString(current.out, userName);
+                payload.write(current.out);
+                current.out.flush();
+            }
+            var result = reply.get(timeoutMs, TimeUnit.MILLISECONDS);
+            // the write succeeded even if it is not applied here in time, so waiting is only best effort
+            applied.await(result.offset, started + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+            return result;
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            throw new ServiceUnavailableException("Write not confirmed by replication leader " + leader);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for replication leader " + leader);
+        } finally {
+            pending.remove(requestId);
+            forwardedNanos.add(System.nanoTime() - started);
+            forwardedWrites.increment();
+        }
+    }
+
+    private static void check(int status) {
+        switch (status) {
+            case 200:
+                return;
+            case 403:
+                throw new ForbiddenException();
+            case 404:
+                throw new NotFoundException();
+            default:
+                throw new WebApplicationException(Status.fromStatusCode(status));
+        }
+    }
+
+    private void receiveLoop() {
+        while (running) {
+            try (var socket = new Socket()) {
+                socket.connect(address(), (int) timeoutMs);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) (heartbeatMs * MISSED_HEARTBEATS));
+                var current = new Connection(socket);
+                synchronized (current.out) {
+                    current.out.writeByte(HELLO);
+                    current.out.writeInt(MAGIC);
+                    current.out.writeByte(VERSION);
+                    writeString(current.out, secret.orElseThrow());
+                    current.out.writeLong(applied.get());
+                    current.out.flush();
+                }
+                connection = current;
+                LOG.infof("Following replication leader %s", leader);
+                current.receive();
+            } catch (IOException e) {
+                if (running) {
+                    LOG.warnf("Replication from leader %s interrupted: %s", leader, e.getMessage());
+                }
+            } finally {
+                connection = null;
+                if (behindSinceNanos == 0) {
+                    // changes made on the leader meanwhile are missed
+                    behindSinceNanos = System.nanoTime();
+                }
+                pending.values().forEach(reply -> reply.completeExceptionally(new IOException("Leader disconnected")));
+            }
+            try {
+                Thread.sleep(heartbeatMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private InetSocketAddress address() {
+        var separator = leader.lastIndexOf(':');
+        return new InetSocketAddress(leader.substring(0, separator), Integer.parseInt(leader.substring(separator + 1)));
+    }
+
+    private void leaderAt(long offset) {
+        leaderOffset = Math.max(leaderOffset, offset);
+        if (applied.get() >= leaderOffset) {
+            behindSinceNanos = 0;
+        } else if (behindSinceNanos == 0) {
+            behindSinceNanos = System.nanoTime();
+        }
+    }
+
+    private final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        // guarded by itself, written by the receiver and by forwarded writes
+        final DataOutputStream out;
+        // ids of the messages of the snapshot being received, null while none is
+        Set<Long> snapshotIds;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void receive() throws IOException {
+            while (running) {
+                var type = in.readByte();
+                switch (type) {
+                    case PUT: {
+                        var offset = in.readLong();
+                        var message = readMessage(in);
+                        service.replicated(message, snapshotIds != null);
+                        if (snapshotIds != null) {
+                            snapshotIds.add(message.id);
+                        } else {
+                            applied(offset);
+                        }
+                        break;
+                    }
+                    case DELETE: {
+                        var offset = in.readLong();
+                        service.replicatedDelete(in.readLong());
+                        applied(offset);
+                        break;
+                    }
+                    case SNAPSHOT:
+                        leaderAt(in.readLong());
+                        snapshotIds = new HashSet<>();
+                        break;
+                    case SNAPSHOT_END: {
+                        var offset = in.readLong();
+                        // anything the snapshot did not contain was deleted on the leader
+                        var deleted = service.export()
+                            .map(message -> message.id)
+                            .filter(id -> !snapshotIds.contains(id))
+                            .collect(Collectors.toList());
+                        deleted.forEach(service::replicatedDelete);
+                        snapshotIds = null;
+                        snapshots.increment();
+                        applied(offset);
+                        break;
+                    }
+                    case HEARTBEAT:
+                        leaderAt(in.readLong());
+                        break;
+                    case RESULT: {
+                        var requestId = in.readLong();
+                        var reply = new Reply(in.readLong(), readList(in, ReplicationProtocol::readResult));
+                        var waiting = pending.remove(requestId);
+                        if (waiting != null) {
+                            waiting.complete(reply);
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown replication frame " + type);
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to clean up
+            }
+        }
+
+        private void applied(long offset) {
+            applied.set(offset);
+            leaderAt(offset);
+        }
+    }
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final class AppliedOffset {
+        private long offset = NO_OFFSET;
+
+        synchronized long get() {
+            return offset;
+        }
+
+        synchronized void set(long offset) {
+            this.offset = offset;
+            notifyAll();
+        }
+
+        synchronized void await(long offset, long deadlineNanos) throws InterruptedException {
+            while (this.offset < offset) {
+                var remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+    }
+
+    private static final class Reply {
+        final long offset;
+        final List<MessageBatchResponse.Result> results;
+
+        Reply(long offset, List<MessageBatchResponse.Result> results) {
+            this.offset = offset;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.message.service.replication;
+
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.live.MessageEvent;
+import com.example.message.service.message.MessageBatchResponse;
+import com.example.message.service.message.MessageService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.example.message.service.replication.ReplicationProtocol.*;
+
+/**
+ * Leader side of the replication: streams the change log to the followers connected on
+ * {@code message.replication.port} and executes the writes they forward.
+ * <p>
+ * The port only listens on {@code message.replication.bind-address}, loopback unless configured, and a follower has
+ * to present {@code message.replication.secret} before any of its frames is accepted.
+ * <p>
+ * A follower tells which change log offset it has applied and gets the events following it. When the log no longer
+ * holds them, it gets a snapshot of all messages first, followed by the events since the snapshot started, some of
+ * which the snapshot may already contain. The result of a forwarded write carries the change log offset at the time
+ * it was written, so the follower can wait until it has applied the write before answering.
+ */
+@ApplicationScoped
+public class ReplicationLeader implements MeterBinder {
+    static final String ROLE = "leader";
+    private static final Logger LOG = Logger.getLogger(ReplicationLeader.class);
+    private static final int BATCH_SIZE = 256;
+    private static final int HELLO_TIMEOUT_HEARTBEATS = 3;
+
+    @ConfigProperty(name = "message.replication.role", defaultValue = "none")
+    String role;
+    @ConfigProperty(name = "message.replication.port", defaultValue = "7600")
+    int port;
+    @ConfigProperty(name = "message.replication.bind-address", defaultValue = "127.0.0.1")
+    String bindAddress;
+    @ConfigProperty(name = "message.replication.heartbeat-ms", defaultValue = "1000")
+    long heartbeatMs;
+    // no default, an empty value counts as missing
+    @ConfigProperty(name = "message.replication.secret")
+    Optional<String> secret;
+    @Inject
+    MessageService service;
+    @Inject
+    ChangeLog changeLog;
+
+    private ServerSocket server;
+    private final List<Connection> followers = new CopyOnWriteArrayList<>();
+    // statistics are only summed up here and read when metrics are scraped
+    private final LongAdder sentRecords = new LongAdder();
+    private final LongAdder sentSnapshots = new LongAdder();
+    private final LongAdder forwardedWrites = new LongAdder();
+
+    void onStart(@Observes StartupEvent event) {
+        if (ROLE.equals(role)) {
+            start();
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        stop();
+    }
+
+    void start() {
+        if (secret.filter(value -> !value.isBlank()).isEmpty()) {
+            throw new IllegalStateException("message.replication.secret must be set to accept followers");
+        }
+        try {
+            server = new ServerSocket(port, 0, InetAddress.getByName(bindAddress));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to listen for replication followers on " + bindAddress + ":" + port, e);
+        }
+        var acceptor = new Thread(this::acceptLoop, "message-replication-leader");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.infof("Accepting replication followers on %s:%d", bindAddress, server.getLocalPort());
+    }
+
+    void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close replication port", e);
+        }
+        followers.forEach(Connection::close);
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    InetAddress boundAddress() {
+        return server.getInetAddress();
+    }
+
+    int followerCount() {
+        return followers.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!ROLE.equals(role)) {
+            return;
+        }
+        Gauge.builder("message.replication.followers", followers, List::size)
+            .description("Connected replication followers")
+            .register(registry);
+        FunctionCounter.builder("message.replication.sent", sentRecords, LongAdder::sum)
+            .description("Change records streamed to followers, including snapshot records")
+            .register(registry);
+        FunctionCounter.builder("message.replication.snapshots.sent", sentSnapshots, LongAdder::sum)
+            .description("Snapshots of all messages sent to followers that were too far behind")
+            .register(registry);
+        FunctionCounter.builder("message.replication.writes", forwardedWrites, LongAdder::sum)
+            .description("Writes forwarded by followers")
+            .register(registry);
+    }
+
+    // takes as long wherever the secrets differ, so the time taken does not give the right one away byte by byte
+    private boolean isSecret(String given) {
+        return given != null && MessageDigest.isEqual(
+            secret.orElseThrow().getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                var socket = server.accept();
+                socket.setTcpNoDelay(true);
+                var connection = new Connection(socket);
+                var thread = new Thread(connection::receive, "message-replication-receiver");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    LOG.error("Failed to accept replication follower", e);
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        // guarded by itself, written by the sender and by forwarded writes
+        final DataOutputStream out;
+        volatile boolean closed;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void receive() {
+            try {
+                // a peer that does not introduce itself in time is not left holding the connection
+                socket.setSoTimeout((int) (heartbeatMs * HELLO_TIMEOUT_HEARTBEATS));
+                if (in.readByte() != HELLO || in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Not a replication follower of this version");
+                }
+                if (!isSecret(readString(in))) {
+                    throw new IOException("Wrong replication secret");
+                }
+                var since = in.readLong();
+                socket.setSoTimeout(0);
+                followers.add(this);
+                LOG.infof("Replication follower %s connected", socket.getRemoteSocketAddress());
+                var sender = new Thread(() -> send(since), "message-replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+                while (!closed) {
+                    var type = in.readByte();
+                    if (type != FORWARD) {
+                        throw new IOException("Unexpected replication frame " + type);
+                    }
+                    forward();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.infof("Replication follower %s disconnected: %s", socket.getRemoteSocketAddress(), e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            followers.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to clean up
+            }
+        }
+
+        private void send(long since) {
+            try {
+                heartbeat();
+                while (!closed) {
+                    var page = changeLog.read(since, BATCH_SIZE);
+                    if (page.isEmpty()) {
+                        since = sendSnapshot();
+                    } else if (!page.get().changes.isEmpty()) {
+                        sendChanges(page.get().changes);
+                        since = page.get().nextSince;
+                    } else if (!changeLog.await(since, heartbeatMs)) {
+                        heartbeat();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+
+        private void sendChanges(List<MessageEvent> changes) throws IOException {
+            synchronized (out) {
+                for (var event : changes) {
+                    if (MessageEvent.DELETED.equals(event.type)) {
+                        out.writeByte(DELETE);
+                        out.writeLong(event.offset);
+                        out.writeLong(event.messageId);
+                    } else {
+                        out.writeByte(PUT);
+                        out.writeLong(event.offset);
+                        writeMessage(out, event.message);
+                    }
+                }
+                // tells the follower how far the log got meanwhile
+                out.writeByte(HEARTBEAT);
+                out.writeLong(changeLog.lastOffset());
+                out.flush();
+            }
+            sentRecords.add(changes.size());
+        }
+
+        private long sendSnapshot() throws IOException {
+            // changes after this offset are streamed after the snapshot, which may already contain some of them
+            var offset = changeLog.lastOffset();
+            synchronized (out) {
+                out.writeByte(SNAPSHOT);
+                out.writeLong(offset);
+            }
+            var messages = service.export().iterator();
+            while (messages.hasNext() && !closed) {
+                var message = messages.next();
+                synchronized (out) {
+                    out.writeByte(PUT);
+                    out.writeLong(offset);
+                    writeMessage(out, message);
+                }
+                sentRecords.increment();
+            }
+            synchronized (out) {
+                out.writeByte(SNAPSHOT_END);
+                out.writeLong(offset);
+                out.flush();
+            }
+            sentSnapshots.increment();
+            return offset;
+        }
+
+        private void heartbeat() throws IOException {
+            synchronized (out) {
+                out.writeByte(HEARTBEAT);
+                out.writeLong(changeLog.lastOffset());
+                out.flush();
+            }
+        }
+
+        private void forward() throws IOException {
+            var requestId = in.readLong();
+            var operation = in.readByte();
+            var userName = readString(in);
+            final Supplier<List<MessageBatchResponse.Result>> write;
+            switch (operation) {
+                case OP_CREATE: {
+                    var request = readRequest(in);
+                    write = () -> List.of(execute(() -> service.create(userName, request)));
+                    break;
+                }
+                case OP_UPDATE: {
+                    var messageId = in.readLong();
+                    var request = readRequest(in);
+                    var expectedVersion = in.readInt();
+                    write = () -> List.of(execute(() -> {
+                        if (expectedVersion == ReplicationFollower.ANY_VERSION) {
+                            service.update(userName, messageId, request);
+                        } else {
+                            service.update(userName, messageId, request, message -> message.version == expectedVersion);
+                        }
+                        return null;
+                    }));
+                    break;
+                }
+                case OP_DELETE: {
+                    var messageId = in.readLong();
+                    write = () -> List.of(execute(() -> {
+                        service.delete(userName, messageId);
+                        return null;
+                    }));
+                    break;
+                }
+                case OP_CREATE_ALL: {
+                    var requests = readList(in, ReplicationProtocol::readRequest);
+                    write = () -> service.createAll(userName, requests).results;
+                    break;
+                }
+                case OP_UPDATE_ALL: {
+                    var requests = readList(in, ReplicationProtocol::readUpdateRequest);
+                    write = () -> service.updateAll(userName, requests).results;
+                    break;
+                }
+                case OP_DELETE_ALL: {
+                    var ids = readList(in, ReplicationProtocol::readId);
+                    write = () -> service.deleteAll(userName, ids).results;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown forwarded write " + operation);
+            }
+            // writes may block on the store, the next frame is read meanwhile
+            Infrastructure.getDefaultWorkerPool().execute(() -> reply(requestId, write));
+        }
+
+        private void reply(long requestId, Supplier<List<MessageBatchResponse.Result>> write) {
+            List<MessageBatchResponse.Result> results;
+            try {
+                results = write.get();
+            } catch (RuntimeException e) {
+                LOG.error("Forwarded write failed", e);
+                results = List.of(new MessageBatchResponse.Result(null, Status.INTERNAL_SERVER_ERROR.getStatusCode()));
+            }
+            forwardedWrites.increment();
+            // the change of the write was appended before this offset was read
+            var offset = changeLog.lastOffset();
+            try {
+                synchronized (out) {
+                    out.writeByte(RESULT);
+                    out.writeLong(requestId);
+                    out.writeLong(offset);
+                    writeList(out, results, ReplicationProtocol::writeResult);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+    }
+
+    private static MessageBatchResponse.Result execute(Supplier<Long> write) {
+        try {
+            return new MessageBatchResponse.Result(write.get(), Status.OK.getStatusCode());
+        } catch (WebApplicationException e) {
+            return new MessageBatchResponse.Result(null, e.getResponse().getStatus());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.message.service.replication;
+
+import com.example.message.service.message.MessageBatchResponse;
+import com.example.message.service.message.MessageRequest;
+import com.example.message.service.message.MessageResponse;
+import com.example.message.service.message.MessageUpdateRequest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames exchanged by a replication leader and a follower over one TCP connection.
+ * <p>
+ * A frame is a type byte followed by its fields, big-endian. The follower opens with {@link #HELLO}, which carries
+ * the shared secret of the nodes, and then only sends {@link #FORWARD} frames, the leader sends change records, heartbeats and the results of forwarded writes.
+ * Strings are UTF-8 after an int length, -1 for null, and timestamps are UTC epoch seconds and nanos as in the
+ * message log.
+ */
+final class ReplicationProtocol {
+    static final int MAGIC = 0x4D535231;
+    static final byte VERSION = 2;
+
+    // follower to leader
+    static final byte HELLO = 1;
+    static final byte FORWARD = 2;
+    // leader to follower
+    static final byte PUT = 3;
+    static final byte DELETE = 4;
+    static final byte SNAPSHOT = 5;
+    static final byte SNAPSHOT_END = 6;
+    static final byte HEARTBEAT = 7;
+    static final byte RESULT = 8;
+
+    // forwarded writes
+    static final byte OP_CREATE = 1;
+    static final byte OP_UPDATE = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_CREATE_ALL = 4;
+    static final byte OP_UPDATE_ALL = 5;
+    static final byte OP_DELETE_ALL = 6;
+
+    /** Offset of a follower that has not applied anything yet. */
+    static final long NO_OFFSET = Long.MIN_VALUE;
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int MAX_STRING_SIZE = 64 * 1024 * 1024;
+
+    interface FieldWriter<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+    }
+
+    interface FieldReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private ReplicationProtocol() {
+    }
+
+    static <T> void writeList(DataOutputStream out, List<T> values, FieldWriter<? super T> writer) throws IOException {
+        out.writeInt(values.size());
+        for (var value : values) {
+            writer.write(out, value);
+        }
+    }
+
+    static <T> List<T> readList(DataInputStream in, FieldReader<T> reader) throws IOException {
+        var count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid list size " + count);
+        }
+        var values = new ArrayList<T>(Math.min(count, 1024));
+        for (var i = 0; i < count; i++) {
+            values.add(reader.read(in));
+        }
+        return values;
+    }
+
+    static void writeMessage(DataOutputStream out, MessageResponse message) throws IOException {
+        out.writeLong(message.id);
+        writeString(out, message.author);
+        writeString(out, message.header);
+        writeString(out, message.body);
+        writeTimestamp(out, message.createdAt);
+        writeTimestamp(out, message.editedAt);
+        out.writeInt(message.version);
+    }
+
+    static MessageResponse readMessage(DataInputStream in) throws IOException {
+        var id = in.readLong();
+        var author = readString(in);
+        var header = readString(in);
+        var body = readString(in);
+        var createdAt = readTimestamp(in);
+        var editedAt = readTimestamp(in);
+        return new MessageResponse(id, author, header, body, createdAt, editedAt, in.readInt());
+    }
+
+    static void writeRequest(DataOutputStream out, MessageRequest request) throws IOException {
+        out.writeBoolean(request != null);
+        if (request != null) {
+            writeString(out, request.header);
+            writeString(out, request.body);
+        }
+    }
+
+    static MessageRequest readRequest(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new MessageRequest(readString(in), readString(in)) : null;
+    }
+
+    static void writeUpdateRequest(DataOutputStream out, MessageUpdateRequest request) throws IOException {
+        out.writeBoolean(request != null);
+        if (request != null) {
+            out.writeLong(request.id);
+            writeString(out, request.header);
+            writeString(out, request.body);
+        }
+    }
+
+    static MessageUpdateRequest readUpdateRequest(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new MessageUpdateRequest(in.readLong(), readString(in), readString(in)) : null;
+    }
+
+    static void writeResult(DataOutputStream out, MessageBatchResponse.Result result) throws IOException {
+        writeId(out, result.id);
+        out.writeShort(result.status);
+    }
+
+    static MessageBatchResponse.Result readResult(DataInputStream in) throws IOException {
+        return new MessageBatchResponse.Result(readId(in), in.readShort());
+    }
+
+    static void writeId(DataOutputStream out, Long id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.writeLong(id);
+        }
+    }
+
+    static Long readId(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_SIZE) {
+            throw new IOException("Invalid string length " + length);
+        }
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeTimestamp(DataOutputStream out, LocalDateTime timestamp) throws IOException {
+        if (timestamp == null) {
+            out.writeLong(NO_TIMESTAMP);
+            out.writeInt(0);
+        } else {
+            out.writeLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(timestamp.getNano());
+        }
+    }
+
+    private static LocalDateTime readTimestamp(DataInputStream in) throws IOException {
+        var seconds = in.readLong();
+        var nanos = in.readInt();
+        return seconds == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.message.service.search;
+
+import java.util.Arrays;
+
+/**
+ * Ids of the messages containing one term, sorted ascending, with the term frequency of each.
+ * Kept in primitive arrays: new messages get increasing ids, so adding is almost always an append.
+ */
+class PostingList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+    private int size;
+
+    void add(long id, int frequency) {
+        var position = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0 && position < size) {
+            frequencies[position] = frequency;
+            return;
+        }
+        if (position < 0) {
+            position = -position - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(frequencies, position, frequencies, position + 1, size - position);
+        ids[position] = id;
+        frequencies[position] = frequency;
+        size++;
+    }
+
+    void remove(long id) {
+        var position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        System.arraycopy(frequencies, position + 1, frequencies, position, size - position - 1);
+        size--;
+        if (size > INITIAL_CAPACITY && size < ids.length / 4) {
+            ids = Arrays.copyOf(ids, ids.length / 2);
+            frequencies = Arrays.copyOf(frequencies, frequencies.length / 2);
+        }
+    }
+
+    /**
+     * Position of the first id not less than {@code id}, searching from {@code from}.
+     * Gallops forward first, as intersections mostly advance by small steps.
+     */
+    int seek(long id, int from) {
+        var bound = 1;
+        while (from + bound < size && ids[from + bound] < id) {
+            bound *= 2;
+        }
+        var position = Arrays.binarySearch(ids, from + bound / 2, Math.min(from + bound + 1, size), id);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    long id(int position) {
+        return ids[position];
+    }
+
+    int frequency(int position) {
+        return frequencies[position];
+    }
+
+    int size() {
+        return size;
+    }
+}
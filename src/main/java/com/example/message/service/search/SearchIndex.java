@@ -0,0 +1,187 @@
+package com.example.message.service.search;
+
+import com.example.message.service.message.MessageRepository;
+import io.quarkus.runtime.StartupEvent;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over message headers and bodies, updated incrementally on every change.
+ * <p>
+ * A query matches messages containing all of its terms. Matches are found by intersecting the posting lists
+ * starting from the rarest term and ranked with BM25, header terms counting twice.
+ */
+@ApplicationScoped
+public class SearchIndex {
+    private static final Logger LOG = Logger.getLogger(SearchIndex.class);
+    private static final int HEADER_WEIGHT = 2;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int STARTUP_PAGE_SIZE = 1000;
+
+    @Inject
+    MessageRepository repository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    // terms of each indexed message, needed to take it out of the posting lists again
+    private final Map<Long, Document> documents = new HashMap<>();
+    private long totalLength;
+
+    void onStart(@Observes StartupEvent event) {
+        var indexed = 0;
+        var page = repository.getAfter(-1, STARTUP_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            for (var message : page) {
+                index(message.getId(), message.getHeader(), message.getBody());
+            }
+            indexed += page.size();
+            page = repository.getAfter(page.get(page.size() - 1).getId(), STARTUP_PAGE_SIZE);
+        }
+        LOG.debugf("Indexed %d messages for search", indexed);
+    }
+
+    public void index(long id, String header, String body) {
+        var frequencies = new HashMap<String, Integer>();
+        for (var term : Tokenizer.tokenize(header)) {
+            frequencies.merge(term, HEADER_WEIGHT, Integer::sum);
+        }
+        for (var term : Tokenizer.tokenize(body)) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        var length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        var document = new Document(frequencies.keySet().toArray(new String[0]), length);
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+            frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, key -> new PostingList()).add(id, frequency));
+            documents.put(id, document);
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of matching messages, best match first
+     */
+    public List<Long> search(String query, int limit, int offset) {
+        var terms = Tokenizer.tokenize(query).stream().distinct().toArray(String[]::new);
+        if (terms.length == 0 || limit <= 0) {
+            return List.of();
+        }
+        // both come from the client, their sum may not fit an int
+        var wanted = (long) offset + limit;
+        var top = new PriorityQueue<Hit>(Comparator.comparingDouble((Hit hit) -> hit.score).thenComparingLong(hit -> hit.id));
+
+        lock.readLock().lock();
+        try {
+            var lists = new PostingList[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                lists[i] = postings.get(terms[i]);
+                if (lists[i] == null) {
+                    return List.of();
+                }
+            }
+            Arrays.sort(lists, Comparator.comparingInt(PostingList::size));
+            var idf = new double[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (documents.size() - lists[i].size() + 0.5) / (lists[i].size() + 0.5));
+            }
+            var averageLength = documents.isEmpty() ? 1 : (double) totalLength / documents.size();
+
+            var positions = new int[lists.length];
+            var rarest = lists[0];
+            candidates:
+            for (int candidate = 0; candidate < rarest.size(); candidate++) {
+                var id = rarest.id(candidate);
+                positions[0] = candidate;
+                for (int i = 1; i < lists.length; i++) {
+                    positions[i] = lists[i].seek(id, positions[i]);
+                    if (positions[i] >= lists[i].size()) {
+                        break candidates;
+                    }
+                    if (lists[i].id(positions[i]) != id) {
+                        continue candidates;
+                    }
+                }
+                var lengthNorm = K1 * (1 - B + B * documents.get(id).length / averageLength);
+                var score = 0.0;
+                for (int i = 0; i < lists.length; i++) {
+                    var frequency = lists[i].frequency(positions[i]);
+                    score += idf[i] * frequency * (K1 + 1) / (frequency + lengthNorm);
+                }
+                top.add(new Hit(id, score));
+                if (top.size() > wanted) {
+                    top.poll();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var ranked = new ArrayList<Long>(top.size());
+        while (!top.isEmpty()) {
+            ranked.add(top.poll().id);
+        }
+        Collections.reverse(ranked);
+        return offset >= ranked.size() ? List.of() : ranked.subList(offset, ranked.size());
+    }
+
+    private void removeDocument(long id) {
+        var document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        for (var term : document.terms) {
+            var list = postings.get(term);
+            list.remove(id);
+            if (list.size() == 0) {
+                postings.remove(term);
+            }
+        }
+        totalLength -= document.length;
+    }
+
+    private static class Document {
+        final String[] terms;
+        final int length;
+
+        Document(String[] terms, int length) {
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+
+    private static class Hit {
+        final long id;
+        final double score;
+
+        Hit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.message.service.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+final class Tokenizer {
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Splits text into lower-cased runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        var terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+        var start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            var termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
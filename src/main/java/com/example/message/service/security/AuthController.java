@@ -0,0 +1,54 @@
+package com.example.message.service.security;
+
+import io.quarkus.security.identity.SecurityIdentity;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@Path("/auth")
+public class AuthController {
+    @Inject
+    TokenService tokenService;
+    @Inject
+    SecurityIdentity identity;
+
+    @Operation(summary = "Exchange user name and password for a bearer token")
+    @APIResponses(value = {
+        @APIResponse(
+            responseCode = "200",
+            description = "Token accepted by all endpoints that require authentication",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = TokenResponse.class))
+        ),
+        @APIResponse(
+            responseCode = "401",
+            description = "User is not authenticated"
+        ),
+        @APIResponse(
+            responseCode = "403",
+            description = "Request was authenticated with a token instead of a password"
+        )
+    })
+    @SecurityRequirement(name = "basic")
+    @POST
+    @RolesAllowed("user")
+    @Path("/token")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response token() {
+        // a token must not be renewable with itself, or a leaked one would never expire
+        if (identity.getAttribute(TokenService.TOKEN_ATTRIBUTE) != null) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(tokenService.issue(identity)).build();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.message.service.security;
+
+import io.quarkus.security.identity.SecurityIdentity;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of successfully verified credentials with a fixed time to live.
+ * <p>
+ * Entries are keyed by a salted SHA-256 digest of user name and password, so no password is kept in memory.
+ * The salt is random per cache, which keeps the digests useless outside this process.
+ */
+class AuthenticationCache {
+    private static final int SALT_SIZE = 16;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final byte[] salt = new byte[SALT_SIZE];
+    // access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    AuthenticationCache(int maxSize, long ttlNanos, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.clock = clock;
+        new SecureRandom().nextBytes(salt);
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > AuthenticationCache.this.maxSize;
+            }
+        };
+    }
+
+    Optional<SecurityIdentity> get(String userName, char[] password) {
+        var key = digest(userName, password);
+        var now = clock.getAsLong();
+        synchronized (entries) {
+            var entry = entries.get(key);
+            if (entry != null && now - entry.createdAt < ttlNanos) {
+                hits.increment();
+                return Optional.of(entry.identity);
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    void put(String userName, char[] password, SecurityIdentity identity) {
+        var key = digest(userName, password);
+        var entry = new Entry(identity, clock.getAsLong());
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private ByteBuffer digest(String userName, char[] password) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(salt);
+        digest.update(userName.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        var passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        digest.update(passwordBytes.duplicate());
+        Arrays.fill(passwordBytes.array(), (byte) 0);
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static class Entry {
+        final SecurityIdentity identity;
+        final long createdAt;
+
+        Entry(SecurityIdentity identity, long createdAt) {
+            this.identity = identity;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.message.service.security;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.quarkus.elytron.security.runtime.ElytronPasswordIdentityProvider;
+import io.quarkus.security.identity.AuthenticationRequestContext;
+import io.quarkus.security.identity.SecurityIdentity;
+import io.quarkus.security.identity.request.UsernamePasswordAuthenticationRequest;
+import io.quarkus.security.runtime.QuarkusSecurityIdentity;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password identity provider that remembers verified credentials, so repeated requests of the same client skip
+ * the password check. It replaces the Elytron provider it extends, which is excluded from the bean archive.
+ * <p>
+ * The Elytron realm reads the users and roles files once at startup, so changed credentials take effect after a
+ * restart, which starts with an empty cache as well. Until then a removed user or changed password is accepted as
+ * before, with or without the cache.
+ */
+@ApplicationScoped
+public class CachingPasswordIdentityProvider extends ElytronPasswordIdentityProvider implements MeterBinder {
+    @ConfigProperty(name = "message.auth.cache.max-size", defaultValue = "10000")
+    int maxSize;
+    @ConfigProperty(name = "message.auth.cache.ttl-ms", defaultValue = "300000")
+    long ttlMs;
+
+    private AuthenticationCache cache;
+
+    @PostConstruct
+    void init() {
+        cache = new AuthenticationCache(maxSize, TimeUnit.MILLISECONDS.toNanos(ttlMs), System::nanoTime);
+    }
+
+    @Override
+    public Uni<SecurityIdentity> authenticate(UsernamePasswordAuthenticationRequest request,
+                                              AuthenticationRequestContext context) {
+        var userName = request.getUsername();
+        var password = request.getPassword().getPassword();
+        var cached = cache.get(userName, password);
+        if (cached.isPresent()) {
+            return Uni.createFrom().item(cached.get());
+        }
+        return super.authenticate(request, context)
+            .map(CachingPasswordIdentityProvider::withoutCredentials)
+            .invoke(identity -> cache.put(userName, password, identity));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("message.auth.cache.requests", cache, AuthenticationCache::hits)
+            .tag("result", "hit")
+            .description("Authentications answered from the cache")
+            .register(registry);
+        FunctionCounter.builder("message.auth.cache.requests", cache, AuthenticationCache::misses)
+            .tag("result", "miss")
+            .description("Authentications that verified the password")
+            .register(registry);
+        Gauge.builder("message.auth.cache.size", cache, AuthenticationCache::size)
+            .description("Cached credentials")
+            .register(registry);
+    }
+
+    // the Elytron identity carries the verified password, which must not outlive the request in the cache
+    private static SecurityIdentity withoutCredentials(SecurityIdentity identity) {
+        return QuarkusSecurityIdentity.builder()
+            .setPrincipal(identity.getPrincipal())
+            .addRoles(identity.getRoles())
+            .addAttributes(identity.getAttributes())
+            .build();
+    }
+}
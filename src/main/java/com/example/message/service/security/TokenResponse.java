@@ -0,0 +1,19 @@
+package com.example.message.service.security;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+@Schema(title = "Bearer token response")
+public class TokenResponse {
+    @Schema(description = "Token to send as \"Authorization: Bearer <token>\"")
+    public String token;
+    @Schema(description = "Expiry time of the token in epoch milliseconds")
+    public long expiresAt;
+
+    public TokenResponse() {
+    }
+
+    public TokenResponse(String token, long expiresAt) {
+        this.token = token;
+        this.expiresAt = expiresAt;
+    }
+}
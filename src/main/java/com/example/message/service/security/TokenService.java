@@ -0,0 +1,126 @@
+package com.example.message.service.security;
+
+import io.quarkus.security.identity.SecurityIdentity;
+import io.quarkus.security.runtime.QuarkusSecurityIdentity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.enterprise.context.ApplicationScoped;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Issues and verifies self-contained bearer tokens, signed with HMAC-SHA256.
+ * <p>
+ * A token is {@code payload.signature}, both base64url encoded. The payload holds the user name, the expiry time
+ * in epoch milliseconds and the roles, one per line. Verification needs only the key, so it is a single hash
+ * over a few bytes instead of a password check.
+ */
+@ApplicationScoped
+public class TokenService {
+    private static final Logger LOG = Logger.getLogger(TokenService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int GENERATED_KEY_SIZE = 32;
+    /** Identity attribute set on identities restored from a token. */
+    public static final String TOKEN_ATTRIBUTE = "message.auth.token";
+
+    @ConfigProperty(name = "message.auth.token.key")
+    Optional<String> configuredKey;
+    @ConfigProperty(name = "message.auth.token.ttl-ms", defaultValue = "3600000")
+    long ttlMs;
+
+    private SecretKeySpec key;
+    // Mac instances are stateful, one per thread avoids both locking and a provider lookup per request
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    @PostConstruct
+    void init() {
+        if (configuredKey.isPresent()) {
+            key = new SecretKeySpec(Base64.getDecoder().decode(configuredKey.get()), ALGORITHM);
+        } else {
+            var bytes = new byte[GENERATED_KEY_SIZE];
+            new SecureRandom().nextBytes(bytes);
+            key = new SecretKeySpec(bytes, ALGORITHM);
+            // tokens of this key are rejected by every other instance and after a restart
+            LOG.warn("No message.auth.token.key configured, issued tokens are only valid on this instance until it"
+                + " restarts. Set the same key on all instances");
+        }
+    }
+
+    public TokenResponse issue(SecurityIdentity identity) {
+        var expiresAt = System.currentTimeMillis() + ttlMs;
+        var payload = new StringBuilder(identity.getPrincipal().getName()).append('\n').append(expiresAt);
+        for (var role : new TreeSet<>(identity.getRoles())) {
+            payload.append('\n').append(role);
+        }
+        var payloadBytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        var value = encoder.encodeToString(payloadBytes) + '.' + encoder.encodeToString(sign(payloadBytes));
+        return new TokenResponse(value, expiresAt);
+    }
+
+    /**
+     * Returns the identity of a token with a valid signature that has not expired yet.
+     */
+    public Optional<SecurityIdentity> verify(String token) {
+        var separator = token.indexOf('.');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        final byte[] payloadBytes;
+        final byte[] signature;
+        try {
+            payloadBytes = Base64.getUrlDecoder().decode(token.substring(0, separator));
+            signature = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (!MessageDigest.isEqual(sign(payloadBytes), signature)) {
+            return Optional.empty();
+        }
+        var lines = new String(payloadBytes, StandardCharsets.UTF_8).split("\n", -1);
+        if (lines.length < 2) {
+            return Optional.empty();
+        }
+        final long expiresAt;
+        try {
+            expiresAt = Long.parseLong(lines[1]);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+        if (System.currentTimeMillis() >= expiresAt) {
+            return Optional.empty();
+        }
+        var userName = lines[0];
+        var roles = Set.copyOf(Arrays.asList(lines).subList(2, lines.length));
+        return Optional.of(QuarkusSecurityIdentity.builder()
+            .setPrincipal(() -> userName)
+            .addRoles(roles)
+            .addAttribute(TOKEN_ATTRIBUTE, true)
+            .build());
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.message.service.storage;
+
+import com.example.message.service.message.MessageEntity;
+import org.jboss.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only message log split into numbered segment files.
+ * <p>
+ * Every create and update is stored as a full PUT record and every delete as a DELETE record, so replaying
+ * the segments in order rebuilds the latest state. Appends only reach the page cache; {@link #sync()} forces
+ * everything appended since the previous call with a single fsync, which lets callers batch durability.
+ * <p>
+ * Old history is compacted away by {@link MessageSnapshot}: once a snapshot covers a segment, the segment can be
+ * dropped with {@link #deleteSegmentsUpTo}.
+ */
+public class MessageLog implements Closeable {
+    private static final Logger LOG = Logger.getLogger(MessageLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAGIC = 0x4D534731;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final List<Long> sealedSegments = new ArrayList<>();
+    private long activeSegment;
+    private FileChannel active;
+    private boolean dirty;
+
+    public interface Visitor {
+        void put(MessageEntity message);
+
+        void delete(long id);
+    }
+
+    public MessageLog(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Replays the segments following {@code afterSegment} into the visitor and opens a fresh segment for appending.
+     *
+     * @return number of replayed records
+     */
+    public synchronized long replay(long afterSegment, Visitor visitor) throws IOException {
+        var segments = listSegments();
+        var records = 0L;
+        var replayedSegments = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            var segment = segments.get(i);
+            if (segment > afterSegment) {
+                records += replaySegment(segment, i == segments.size() - 1, visitor);
+                replayedSegments++;
+            }
+            sealedSegments.add(segment);
+        }
+        LOG.debugf("Replayed %d log records from %d segments in %s", records, replayedSegments, directory);
+
+        var last = segments.isEmpty() ? afterSegment : Math.max(afterSegment, segments.get(segments.size() - 1));
+        openSegment(last + 1);
+        return records;
+    }
+
+    public synchronized void appendPut(MessageEntity message) throws IOException {
+        append(encodePut(message));
+    }
+
+    public synchronized void appendDelete(long id) throws IOException {
+        append(encodeDelete(id));
+    }
+
+    /**
+     * Appends the records of a batch with a single write, in order.
+     */
+    public synchronized void appendPuts(List<MessageEntity> messages) throws IOException {
+        append(messages.stream().map(MessageLog::encodePut).toArray(ByteBuffer[]::new));
+    }
+
+    public synchronized void appendDeletes(List<Long> ids) throws IOException {
+        append(ids.stream().map(MessageLog::encodeDelete).toArray(ByteBuffer[]::new));
+    }
+
+    /**
+     * Forces everything appended so far to disk, covering all appends since the previous call.
+     */
+    public void sync() throws IOException {
+        final FileChannel channel;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            channel = active;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the segment was rolled meanwhile, which forces it before closing
+        } catch (IOException e) {
+            // the appends are not on disk yet, the next call has to force them again
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    public synchronized long sealedSegmentCountAfter(long segment) {
+        return sealedSegments.stream().filter(sealed -> sealed > segment).count();
+    }
+
+    /**
+     * Seals the active segment so that every record appended up to now is in a sealed segment.
+     *
+     * @return number of the last sealed segment
+     */
+    public synchronized long seal() throws IOException {
+        var sealed = activeSegment;
+        rollSegment();
+        return sealed;
+    }
+
+    public void deleteSegmentsUpTo(long segment) throws IOException {
+        List<Long> deleted;
+        synchronized (this) {
+            deleted = sealedSegments.stream().filter(sealed -> sealed <= segment).collect(Collectors.toList());
+            sealedSegments.removeAll(deleted);
+        }
+        for (var sealed : deleted) {
+            Files.deleteIfExists(segmentPath(sealed));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            active = null;
+        }
+    }
+
+    private void append(ByteBuffer... records) throws IOException {
+        if (active == null) {
+            throw new IOException("Message log is not open");
+        }
+        var size = 0L;
+        for (var record : records) {
+            size += finishRecord(record).remaining();
+        }
+        if (active.position() + size > segmentSize && active.position() > SEGMENT_HEADER_SIZE) {
+            rollSegment();
+        }
+        writeFully(active, records, size);
+        dirty = true;
+    }
+
+    private void rollSegment() throws IOException {
+        active.force(false);
+        active.close();
+        sealedSegments.add(activeSegment);
+        openSegment(activeSegment + 1);
+    }
+
+    private void openSegment(long segment) throws IOException {
+        active = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeFully(active, segmentHeader());
+        activeSegment = segment;
+        dirty = true;
+    }
+
+    private long replaySegment(long segment, boolean last, Visitor visitor) throws IOException {
+        var records = 0L;
+        var path = segmentPath(segment);
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            readHeader(channel, path);
+
+            var recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            var position = (long) SEGMENT_HEADER_SIZE;
+            var crc = new CRC32();
+            while (position < channel.size()) {
+                recordHeader.clear();
+                var payload = readRecord(channel, position, recordHeader, crc);
+                if (payload == null) {
+                    if (!last) {
+                        throw new IOException("Corrupted record at " + position + " in " + path);
+                    }
+                    LOG.warnf("Truncating torn write at %d in %s", position, path);
+                    channel.truncate(position);
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + payload.limit();
+                applyRecord(payload, visitor);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static ByteBuffer readRecord(FileChannel channel, long position, ByteBuffer recordHeader, CRC32 crc)
+        throws IOException {
+        if (!readFully(channel, recordHeader, position)) {
+            return null;
+        }
+        var length = recordHeader.getInt(0);
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            return null;
+        }
+        var payload = ByteBuffer.allocate(length);
+        if (!readFully(channel, payload, position + RECORD_HEADER_SIZE)) {
+            return null;
+        }
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != recordHeader.getInt(4)) {
+            return null;
+        }
+        return payload;
+    }
+
+    private static void applyRecord(ByteBuffer payload, Visitor visitor) throws IOException {
+        var type = payload.get(0);
+        payload.position(1);
+        switch (type) {
+            case RECORD_PUT:
+                visitor.put(decodePut(payload));
+                break;
+            case RECORD_DELETE:
+                visitor.delete(payload.getLong());
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static ByteBuffer encodePut(MessageEntity message) {
+        var owner = message.getOwnerName().getBytes(StandardCharsets.UTF_8);
+        var header = message.getHeader().getBytes(StandardCharsets.UTF_8);
+        var body = message.getBody().getBytes(StandardCharsets.UTF_8);
+        var record = allocateRecord(RECORD_PUT,
+            Long.BYTES + 2 * (Long.BYTES + Integer.BYTES) + 3 * Integer.BYTES + owner.length + header.length + body.length);
+        record.putLong(message.getId());
+        putTimestamp(record, message.getCreatedAt());
+        putTimestamp(record, message.getEditedAt());
+        putBytes(record, owner);
+        putBytes(record, header);
+        putBytes(record, body);
+        return record;
+    }
+
+    private static ByteBuffer encodeDelete(long id) {
+        var record = allocateRecord(RECORD_DELETE, Long.BYTES);
+        record.putLong(id);
+        return record;
+    }
+
+    private static MessageEntity decodePut(ByteBuffer payload) {
+        var id = payload.getLong();
+        var createdAt = getTimestamp(payload);
+        var editedAt = getTimestamp(payload);
+        var owner = getString(payload);
+        var header = getString(payload);
+        var body = getString(payload);
+        return new MessageEntity(id, owner, header, body, createdAt, editedAt);
+    }
+
+    /**
+     * Record layout: payload length, CRC32 of the payload, then the payload starting with the record type.
+     * The returned buffer is positioned after the type, ready for the rest of the payload.
+     */
+    private static ByteBuffer allocateRecord(byte type, int bodySize) {
+        var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + bodySize);
+        record.position(RECORD_HEADER_SIZE);
+        record.put(type);
+        return record;
+    }
+
+    private static ByteBuffer finishRecord(ByteBuffer record) {
+        var length = record.position() - RECORD_HEADER_SIZE;
+        var crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.flip();
+    }
+
+    private static void putTimestamp(ByteBuffer buffer, LocalDateTime timestamp) {
+        if (timestamp == null) {
+            buffer.putLong(NO_TIMESTAMP).putInt(0);
+        } else {
+            buffer.putLong(timestamp.toEpochSecond(ZoneOffset.UTC)).putInt(timestamp.getNano());
+        }
+    }
+
+    private static LocalDateTime getTimestamp(ByteBuffer buffer) {
+        var seconds = buffer.getLong();
+        var nanos = buffer.getInt();
+        return seconds == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        var value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static ByteBuffer segmentHeader() {
+        return ByteBuffer.allocate(SEGMENT_HEADER_SIZE)
+            .putInt(MAGIC)
+            .put(FORMAT_VERSION)
+            .rewind();
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, Path path) throws IOException {
+        var header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC || header.get(4) != FORMAT_VERSION) {
+            throw new IOException("Not a message log segment: " + path);
+        }
+        return header;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, long size) throws IOException {
+        var written = 0L;
+        while (written < size) {
+            written += channel.write(buffers);
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.message.service.storage;
+
+import com.example.message.service.message.MessageEntity;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary image of the message store, written next to the {@link MessageLog} segments it replaces.
+ * <p>
+ * A snapshot records the last log segment it covers, so startup loads the newest snapshot and replays only the
+ * segments after it. Owner names are dictionary-encoded: each distinct owner is written once and referenced by
+ * index afterwards, and loading shares one {@code String} per owner. The whole file is covered by a CRC32; a
+ * snapshot that fails the check is skipped in favour of the previous one.
+ */
+public class MessageSnapshot {
+    private static final Logger LOG = Logger.getLogger(MessageSnapshot.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4D534E31;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int NEW_OWNER = -1;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_STRING_SIZE = 64 * 1024 * 1024;
+
+    private final long lastSegment;
+    private final long nextId;
+    private final List<MessageEntity> messages;
+
+    private MessageSnapshot(long lastSegment, long nextId, List<MessageEntity> messages) {
+        this.lastSegment = lastSegment;
+        this.nextId = nextId;
+        this.messages = messages;
+    }
+
+    public long getLastSegment() {
+        return lastSegment;
+    }
+
+    public long getNextId() {
+        return nextId;
+    }
+
+    public List<MessageEntity> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Writes a snapshot of the given messages covering log segments up to and including {@code lastSegment}.
+     * The messages may already include changes from later segments: replaying those again gives the same result.
+     */
+    public static void write(Path directory, long lastSegment, long nextId, Iterable<MessageEntity> messages)
+        throws IOException {
+        var target = snapshotPath(directory, lastSegment);
+        var temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        var crc = new CRC32();
+        var fileOutput = new FileOutputStream(temp.toFile());
+        try (var output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOutput, BUFFER_SIZE), crc))) {
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(lastSegment);
+            output.writeLong(nextId);
+
+            var owners = new HashMap<String, Integer>();
+            for (var message : messages) {
+                output.writeBoolean(true);
+                output.writeLong(message.getId());
+                var owner = owners.get(message.getOwnerName());
+                if (owner == null) {
+                    owners.put(message.getOwnerName(), owners.size());
+                    output.writeInt(NEW_OWNER);
+                    output.writeUTF(message.getOwnerName());
+                } else {
+                    output.writeInt(owner);
+                }
+                writeTimestamp(output, message.getCreatedAt());
+                writeTimestamp(output, message.getEditedAt());
+                writeString(output, message.getHeader());
+                writeString(output, message.getBody());
+            }
+            output.writeBoolean(false);
+            output.writeLong(crc.getValue());
+            output.flush();
+            fileOutput.getChannel().force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the newest snapshot that passes its checksum, removing leftovers of interrupted writes.
+     */
+    public static Optional<MessageSnapshot> loadLatest(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        deleteTempFiles(directory);
+        var snapshots = listSnapshots(directory);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            var path = snapshotPath(directory, snapshots.get(i));
+            try {
+                return Optional.of(read(path));
+            } catch (IOException e) {
+                LOG.warnf(e, "Skipping unreadable snapshot %s", path);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Deletes all but the newest {@code retain} snapshots.
+     *
+     * @return last segment covered by the oldest retained snapshot, log segments up to it are no longer needed
+     */
+    public static Optional<Long> retainLatest(Path directory, int retain) throws IOException {
+        var snapshots = listSnapshots(directory);
+        var delete = Math.max(0, snapshots.size() - retain);
+        for (int i = 0; i < delete; i++) {
+            Files.deleteIfExists(snapshotPath(directory, snapshots.get(i)));
+        }
+        return delete < snapshots.size() ? Optional.of(snapshots.get(delete)) : Optional.empty();
+    }
+
+    private static MessageSnapshot read(Path path) throws IOException {
+        var crc = new CRC32();
+        try (var input = new DataInputStream(new CheckedInputStream(
+            new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), crc))) {
+            if (input.readInt() != MAGIC || input.readByte() != FORMAT_VERSION) {
+                throw new IOException("Not a message snapshot");
+            }
+            var lastSegment = input.readLong();
+            var nextId = input.readLong();
+
+            var owners = new ArrayList<String>();
+            var messages = new ArrayList<MessageEntity>();
+            while (input.readBoolean()) {
+                var id = input.readLong();
+                var ownerIndex = input.readInt();
+                final String owner;
+                if (ownerIndex == NEW_OWNER) {
+                    owner = input.readUTF();
+                    owners.add(owner);
+                } else if (ownerIndex >= 0 && ownerIndex < owners.size()) {
+                    owner = owners.get(ownerIndex);
+                } else {
+                    throw new IOException("Invalid owner reference " + ownerIndex);
+                }
+                var createdAt = readTimestamp(input);
+                var editedAt = readTimestamp(input);
+                var header = readString(input);
+                var body = readString(input);
+                messages.add(new MessageEntity(id, owner, header, body, createdAt, editedAt));
+            }
+            var expectedCrc = crc.getValue();
+            if (input.readLong() != expectedCrc) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return new MessageSnapshot(lastSegment, nextId, messages);
+        }
+    }
+
+    private static void writeTimestamp(DataOutputStream output, LocalDateTime timestamp) throws IOException {
+        if (timestamp == null) {
+            output.writeLong(NO_TIMESTAMP);
+            output.writeInt(0);
+        } else {
+            output.writeLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            output.writeInt(timestamp.getNano());
+        }
+    }
+
+    private static LocalDateTime readTimestamp(DataInputStream input) throws IOException {
+        var seconds = input.readLong();
+        var nanos = input.readInt();
+        return seconds == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    // writeUTF is limited to 64KB, message texts are not
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        var length = input.readInt();
+        if (length < 0 || length > MAX_STRING_SIZE) {
+            throw new IOException("Invalid string length " + length);
+        }
+        var bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<Long> listSnapshots(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                .map(name -> Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())))
+                .sorted(Comparator.naturalOrder())
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static void deleteTempFiles(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var path : files.filter(path -> path.toString().endsWith(TEMP_SUFFIX)).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static Path snapshotPath(Path directory, long lastSegment) {
+        return directory.resolve(SNAPSHOT_PREFIX + String.format("%020d", lastSegment) + SNAPSHOT_SUFFIX);
+    }
+}
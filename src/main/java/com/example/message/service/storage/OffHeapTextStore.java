@@ -0,0 +1,137 @@
+package com.example.message.service.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Byte strings kept in direct buffers outside the Java heap, addressed by a {@code long} handle. Not thread-safe.
+ * <p>
+ * Memory is reserved in segments of a fixed size and handed out in slots whose size is a power of two, holding the
+ * length followed by the bytes. A freed slot goes to the free list of its size and is reused by the next string of
+ * that size, so deletes and updates do not grow the store. Segments are never returned, the store only shrinks when
+ * it is dropped.
+ */
+public class OffHeapTextStore {
+    private static final int MIN_SLOT_SHIFT = 4;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    // free slot handles by slot size shift
+    private final long[][] freeSlots = new long[Integer.SIZE][];
+    private final int[] freeCounts = new int[Integer.SIZE];
+    private int segmentPosition;
+    private long usedBytes;
+
+    /**
+     * @param segmentSize bytes reserved at once, which also bounds the size of a single string
+     */
+    public OffHeapTextStore(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Copies the bytes into the store.
+     *
+     * @return handle to read and free the bytes with
+     */
+    public long add(byte[] bytes) {
+        var shift = slotShift(bytes.length);
+        var handle = freeCounts[shift] > 0 ? freeSlots[shift][--freeCounts[shift]] : allocate(shift);
+        write(handle, bytes);
+        usedBytes += 1L << shift;
+        return handle;
+    }
+
+    /**
+     * Replaces the bytes behind the handle, in place when they still fit its slot.
+     *
+     * @return handle of the new bytes, which may differ from the given one
+     */
+    public long replace(long handle, byte[] bytes) {
+        if (slotShift(bytes.length) == slotShift(length(handle))) {
+            write(handle, bytes);
+            return handle;
+        }
+        free(handle);
+        return add(bytes);
+    }
+
+    public byte[] get(long handle) {
+        var bytes = new byte[length(handle)];
+        var buffer = segments.get(segment(handle)).duplicate();
+        buffer.position(offset(handle) + LENGTH_SIZE);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public void free(long handle) {
+        var shift = slotShift(length(handle));
+        var free = freeSlots[shift];
+        if (free == null) {
+            free = freeSlots[shift] = new long[16];
+        } else if (freeCounts[shift] == free.length) {
+            free = freeSlots[shift] = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCounts[shift]++] = handle;
+        usedBytes -= 1L << shift;
+    }
+
+    /**
+     * Bytes of the slots in use, including the unused rest of each slot.
+     */
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Bytes reserved outside the heap.
+     */
+    public long reservedBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    private long allocate(int shift) {
+        var slotSize = 1L << shift;
+        if (slotSize > segmentSize) {
+            throw new IllegalArgumentException("Text slot of " + slotSize + " bytes exceeds the segment size " + segmentSize);
+        }
+        if (segments.isEmpty() || segmentPosition + slotSize > segmentSize) {
+            // the rest of the previous segment stays unused
+            segments.add(ByteBuffer.allocateDirect(segmentSize));
+            segmentPosition = 0;
+        }
+        var handle = handle(segments.size() - 1, segmentPosition);
+        segmentPosition += (int) slotSize;
+        return handle;
+    }
+
+    private void write(long handle, byte[] bytes) {
+        var buffer = segments.get(segment(handle)).duplicate();
+        buffer.position(offset(handle));
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private int length(long handle) {
+        return segments.get(segment(handle)).getInt(offset(handle));
+    }
+
+    private static int slotShift(int length) {
+        var size = length + LENGTH_SIZE;
+        return Math.max(MIN_SLOT_SHIFT, Integer.SIZE - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    private static long handle(int segment, int offset) {
+        return (long) segment << Integer.SIZE | offset;
+    }
+
+    private static int segment(long handle) {
+        return (int) (handle >>> Integer.SIZE);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.message.service.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setupCache() {
+        cache = responseCache(100, 1000, 10);
+    }
+
+    @Test
+    void messageIsCachedUntilUpdatedOrDeleted() {
+        cache.putMessage(1, response(10), cache.generation(1));
+        cache.putMessage(2, response(10), cache.generation(2));
+
+        assertNotNull(cache.getMessage(1));
+        cache.updated(1);
+        assertNull(cache.getMessage(1));
+        assertNotNull(cache.getMessage(2));
+        cache.deleted(2);
+        assertNull(cache.getMessage(2));
+    }
+
+    @Test
+    void createDoesNotTouchMessages() {
+        cache.putMessage(1, response(10), cache.generation(1));
+
+        cache.created(2);
+
+        assertNotNull(cache.getMessage(1));
+    }
+
+    @Test
+    void putAfterConcurrentWriteIsIgnored() {
+        var generation = cache.generation(1);
+        cache.updated(1);
+
+        cache.putMessage(1, response(10), generation);
+
+        assertNull(cache.getMessage(1));
+    }
+
+    @Test
+    void messagePutIsKeptAfterWriteToAnotherStripe() {
+        var generation = cache.generation(1);
+        cache.updated(2);
+
+        cache.putMessage(1, response(10), generation);
+
+        assertNotNull(cache.getMessage(1));
+    }
+
+    @Test
+    void pagePutAfterAnyConcurrentWriteIsIgnored() {
+        var key = PageKey.after(0, 3);
+        var generation = cache.generation();
+        cache.updated(7);
+
+        cache.putPage(key, List.of(1L, 2L, 3L), response(10), generation);
+
+        assertNull(cache.getPage(key));
+    }
+
+    @Test
+    void fullPageIsKeptWhenMessagesAreCreatedBeyondIt() {
+        var key = PageKey.after(0, 3);
+        cache.putPage(key, List.of(1L, 2L, 3L), response(10), cache.generation());
+
+        cache.created(4);
+        cache.updated(7);
+        cache.deleted(8);
+
+        assertNotNull(cache.getPage(key));
+    }
+
+    @Test
+    void lastPageIsDroppedOnCreate() {
+        var key = PageKey.after(0, 10);
+        cache.putPage(key, List.of(1L, 2L, 3L), response(10), cache.generation());
+
+        cache.created(4);
+
+        assertNull(cache.getPage(key));
+    }
+
+    @Test
+    void pageIsDroppedWhenItsMessageIsUpdatedOrDeleted() {
+        var updatedPage = PageKey.after(0, 3);
+        var deletedPage = PageKey.before(10, 3);
+        cache.putPage(updatedPage, List.of(1L, 2L, 3L), response(10), cache.generation());
+        cache.putPage(deletedPage, List.of(9L, 8L, 7L), response(10), cache.generation());
+
+        cache.updated(2);
+        cache.deleted(8);
+
+        assertNull(cache.getPage(updatedPage));
+        assertNull(cache.getPage(deletedPage));
+    }
+
+    @Test
+    void pageIsKeptWhenMessageWithinItsRangeButNotOnItIsUpdated() {
+        var key = PageKey.after(0, 2);
+        cache.putPage(key, List.of(1L, 3L), response(10), cache.generation());
+
+        cache.updated(2);
+
+        assertNotNull(cache.getPage(key));
+    }
+
+    @Test
+    void replacedPageIsStillDroppedByWrites() {
+        var key = PageKey.after(0, 10);
+        cache.putPage(key, List.of(1L, 2L), response(10), cache.generation());
+        cache.putPage(key, List.of(1L, 2L, 3L), response(10), cache.generation());
+
+        cache.updated(2);
+
+        assertNull(cache.getPage(key));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    void offsetPageIsDroppedWhenEarlierMessageIsDeleted() {
+        var key = PageKey.offset(2, 2);
+        cache.putPage(key, List.of(3L, 4L), response(10), cache.generation());
+
+        cache.updated(1);
+        assertNotNull(cache.getPage(key));
+        cache.deleted(1);
+        assertNull(cache.getPage(key));
+    }
+
+    @Test
+    void newestFirstPageIsDroppedOnCreate() {
+        var key = PageKey.before(Long.MAX_VALUE, 2);
+        cache.putPage(key, List.of(3L, 2L), response(10), cache.generation());
+
+        cache.created(4);
+
+        assertNull(cache.getPage(key));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedBeyondMaxSize() {
+        cache = responseCache(2, 1000, 10);
+        cache.putMessage(1, response(10), cache.generation(1));
+        cache.putMessage(2, response(10), cache.generation(2));
+        cache.getMessage(1);
+
+        cache.putMessage(3, response(10), cache.generation(3));
+
+        assertNotNull(cache.getMessage(1));
+        assertNull(cache.getMessage(2));
+        assertNotNull(cache.getMessage(3));
+    }
+
+    @Test
+    void entriesAreEvictedBeyondMaxBytes() {
+        cache = responseCache(100, 25, 10);
+        cache.putMessage(1, response(10), cache.generation(1));
+        cache.putMessage(2, response(10), cache.generation(2));
+        cache.putMessage(3, response(10), cache.generation(3));
+        cache.putMessage(4, response(30), cache.generation(4));
+
+        assertNull(cache.getMessage(1));
+        assertNotNull(cache.getMessage(2));
+        assertNotNull(cache.getMessage(3));
+        assertNull(cache.getMessage(4));
+        assertEquals(20, cache.bytes());
+    }
+
+    @Test
+    void pagesAreBoundedOnTheirOwn() {
+        cache = responseCache(100, 1000, 1);
+        cache.putMessage(1, response(10), cache.generation(1));
+        cache.putPage(PageKey.offset(0, 10), List.of(1L), response(10), cache.generation());
+        cache.putPage(PageKey.offset(10, 10), List.of(), response(10), cache.generation());
+
+        assertNull(cache.getPage(PageKey.offset(0, 10)));
+        assertNotNull(cache.getPage(PageKey.offset(10, 10)));
+        assertNotNull(cache.getMessage(1));
+        assertEquals(2, cache.size());
+    }
+
+    private static ResponseCache responseCache(int maxSize, long maxBytes, int maxPages) {
+        var cache = new ResponseCache();
+        cache.maxSize = maxSize;
+        cache.maxBytes = maxBytes;
+        cache.maxPages = maxPages;
+        return cache;
+    }
+
+    private static CachedResponse response(int size) {
+        return new CachedResponse(new byte[size], new EntityTag("tag"), null);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.message.service.live;
+
+import com.example.message.service.message.MessageResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeLogTest {
+    private ChangeLog changeLog;
+
+    @BeforeEach
+    void setupChangeLog() {
+        changeLog = new ChangeLog();
+        changeLog.retention = 3;
+        changeLog.broadcaster = new MessageBroadcaster();
+    }
+
+    @Test
+    void readsEventsInOrderWithConsecutiveOffsets() {
+        var start = changeLog.lastOffset();
+        changeLog.created(message(1));
+        changeLog.updated(message(1));
+        changeLog.deleted(1);
+
+        var page = changeLog.read(start, 10).orElseThrow();
+
+        assertEquals(List.of("created", "updated", "deleted"), types(page));
+        assertEquals(List.of(start + 1, start + 2, start + 3), offsets(page));
+        assertEquals(start + 3, page.nextSince);
+        assertEquals(start + 3, changeLog.lastOffset());
+    }
+
+    @Test
+    void readsFollowingPagesByNextSince() {
+        var start = changeLog.lastOffset();
+        for (long id = 1; id <= 3; id++) {
+            changeLog.created(message(id));
+        }
+
+        var first = changeLog.read(start, 2).orElseThrow();
+        var second = changeLog.read(first.nextSince, 2).orElseThrow();
+        var third = changeLog.read(second.nextSince, 2).orElseThrow();
+
+        assertEquals(List.of(1L, 2L), messageIds(first));
+        assertEquals(List.of(3L), messageIds(second));
+        assertTrue(third.changes.isEmpty());
+        assertEquals(second.nextSince, third.nextSince);
+    }
+
+    @Test
+    void readWithoutOffsetStartsAtOldestKeptEvent() {
+        for (long id = 1; id <= 5; id++) {
+            changeLog.created(message(id));
+        }
+
+        var page = changeLog.read(null, 10).orElseThrow();
+
+        assertEquals(List.of(3L, 4L, 5L), messageIds(page));
+        assertEquals(3, changeLog.retained());
+    }
+
+    @Test
+    void readWithoutOffsetOfEmptyLogContinuesAtNextEvent() {
+        var page = changeLog.read(null, 10).orElseThrow();
+        changeLog.created(message(1));
+
+        assertTrue(page.changes.isEmpty());
+        assertEquals(List.of(1L), messageIds(changeLog.read(page.nextSince, 10).orElseThrow()));
+    }
+
+    @Test
+    void offsetBeyondRetentionIsRejected() {
+        var start = changeLog.lastOffset();
+        for (long id = 1; id <= 5; id++) {
+            changeLog.created(message(id));
+        }
+
+        // events after the first two are kept
+        assertTrue(changeLog.read(start + 1, 10).isEmpty());
+        assertTrue(changeLog.read(start + 2, 10).isPresent());
+    }
+
+    @Test
+    void readsAcrossTheWrapOfKeptEvents() {
+        var start = changeLog.lastOffset();
+        for (long id = 1; id <= 7; id++) {
+            changeLog.created(message(id));
+        }
+
+        var page = changeLog.read(start + 5, 10).orElseThrow();
+
+        assertEquals(List.of(6L, 7L), messageIds(page));
+        assertEquals(List.of(5L, 6L), messageIds(changeLog.read(start + 4, 2).orElseThrow()));
+    }
+
+    @Test
+    void offsetNeverHandedOutIsRejected() {
+        changeLog.created(message(1));
+
+        assertTrue(changeLog.read(changeLog.lastOffset() + 1, 10).isEmpty());
+        assertTrue(changeLog.read(0L, 10).isEmpty());
+    }
+
+    @Test
+    void offsetsGrowAcrossInstances() throws InterruptedException {
+        changeLog.created(message(1));
+        // a restart takes far longer than the millisecond offsets are based on
+        Thread.sleep(2);
+        var restarted = new ChangeLog();
+
+        assertTrue(restarted.lastOffset() > changeLog.lastOffset());
+    }
+
+    @Test
+    void awaitReturnsOnceEventFollowsOffset() throws Exception {
+        var start = changeLog.lastOffset();
+
+        assertFalse(changeLog.await(start, 10));
+
+        var appender = new Thread(() -> changeLog.created(message(1)));
+        appender.start();
+        assertTrue(changeLog.await(start, 5000));
+        appender.join();
+        assertTrue(changeLog.await(start, 0));
+        assertFalse(changeLog.await(start + 1, 10));
+    }
+
+    private static MessageResponse message(long id) {
+        return new MessageResponse(id, "owner", "header", "body", LocalDateTime.now(), null);
+    }
+
+    private static List<String> types(ChangeListResponse page) {
+        return page.changes.stream().map(event -> event.type).collect(Collectors.toList());
+    }
+
+    private static List<Long> offsets(ChangeListResponse page) {
+        return page.changes.stream().map(event -> event.offset).collect(Collectors.toList());
+    }
+
+    private static List<Long> messageIds(ChangeListResponse page) {
+        return page.changes.stream().map(event -> event.messageId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.message.service.live;
+
+import com.example.message.service.message.MessageResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageBroadcasterTest {
+    private ChangeLog changeLog;
+    private MessageBroadcaster broadcaster;
+
+    @BeforeEach
+    void setupBroadcaster() {
+        changeLog = new ChangeLog();
+        changeLog.retention = 3;
+        broadcaster = new MessageBroadcaster();
+        broadcaster.bufferSize = 4;
+        broadcaster.changeLog = changeLog;
+        broadcaster.sender = Runnable::run;
+        changeLog.broadcaster = broadcaster;
+    }
+
+    @Test
+    void deliversEventsInOrder() {
+        var sink = new RecordingSink();
+        broadcaster.subscribe(null, sink);
+
+        changeLog.created(message(1));
+        changeLog.updated(message(1));
+        changeLog.deleted(1);
+
+        assertEquals(List.of("created", "updated", "deleted"), sink.types());
+        assertEquals(1L, sink.events.get(2).messageId);
+        assertNull(sink.events.get(2).message);
+        assertEquals(1L, sink.events.get(0).message.id);
+    }
+
+    @Test
+    void newSubscriberGetsOnlyNewEvents() {
+        changeLog.created(message(1));
+        var sink = new RecordingSink();
+
+        broadcaster.subscribe(null, sink);
+        changeLog.created(message(2));
+
+        assertEquals(List.of(2L), sink.messageIds());
+    }
+
+    @Test
+    void resumeReplaysEventsAfterLastSeen() {
+        var first = new RecordingSink();
+        broadcaster.subscribe(null, first);
+        changeLog.created(message(1));
+        changeLog.created(message(2));
+        changeLog.created(message(3));
+
+        var resumed = new RecordingSink();
+        broadcaster.subscribe(String.valueOf(first.events.get(0).offset), resumed);
+        changeLog.created(message(4));
+
+        assertEquals(List.of(2L, 3L, 4L), resumed.messageIds());
+    }
+
+    @Test
+    void resumeAfterLatestEventReplaysNothing() {
+        var first = new RecordingSink();
+        broadcaster.subscribe(null, first);
+        changeLog.created(message(1));
+
+        var resumed = new RecordingSink();
+        broadcaster.subscribe(String.valueOf(first.events.get(0).offset), resumed);
+
+        assertTrue(resumed.events.isEmpty());
+    }
+
+    @Test
+    void resumeBeyondKeptEventsSendsReset() {
+        var first = new RecordingSink();
+        broadcaster.subscribe(null, first);
+        for (long id = 1; id <= 5; id++) {
+            changeLog.created(message(id));
+        }
+
+        var resumed = new RecordingSink();
+        broadcaster.subscribe(String.valueOf(first.events.get(0).offset), resumed);
+
+        assertEquals(List.of(MessageEvent.RESET), resumed.types());
+        assertEquals(first.events.get(4).offset, resumed.events.get(0).offset);
+    }
+
+    @Test
+    void resumeWithForeignIdSendsReset() {
+        changeLog.created(message(1));
+        var resumed = new RecordingSink();
+
+        broadcaster.subscribe("0123-0", resumed);
+
+        assertEquals(List.of(MessageEvent.RESET), resumed.types());
+    }
+
+    @Test
+    void slowSubscriberIsDroppedWithoutStallingOthers() {
+        var slow = new RecordingSink();
+        slow.pending = new CompletableFuture<>();
+        var fast = new RecordingSink();
+        broadcaster.subscribe(null, slow);
+        broadcaster.subscribe(null, fast);
+
+        for (long id = 1; id <= 6; id++) {
+            changeLog.created(message(id));
+        }
+
+        assertTrue(slow.closed);
+        assertFalse(fast.closed);
+        assertEquals(6, fast.events.size());
+        assertEquals(1, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void blockingSendDoesNotStallPublishing() throws Exception {
+        var sender = Executors.newCachedThreadPool();
+        broadcaster.sender = sender;
+        var sending = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var blocking = new RecordingSink() {
+            @Override
+            public CompletionStage<?> send(MessageEvent event) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        try {
+            broadcaster.subscribe(null, blocking);
+            changeLog.created(message(1));
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                for (long id = 2; id <= 6; id++) {
+                    changeLog.created(message(id));
+                }
+            });
+
+            assertTrue(blocking.closed);
+            assertEquals(0, broadcaster.subscriberCount());
+        } finally {
+            release.countDown();
+            sender.shutdownNow();
+        }
+    }
+
+    @Test
+    void pendingSendIsFollowedByBufferedEvents() {
+        var sink = new RecordingSink();
+        var pending = new CompletableFuture<Void>();
+        sink.pending = pending;
+        broadcaster.subscribe(null, sink);
+        changeLog.created(message(1));
+        changeLog.created(message(2));
+        assertEquals(List.of(1L), sink.messageIds());
+
+        sink.pending = null;
+        pending.complete(null);
+
+        assertEquals(List.of(1L, 2L), sink.messageIds());
+    }
+
+    @Test
+    void failedSendUnsubscribes() {
+        var sink = new RecordingSink();
+        sink.pending = CompletableFuture.failedFuture(new IllegalStateException("closed"));
+        broadcaster.subscribe(null, sink);
+
+        changeLog.created(message(1));
+
+        assertEquals(0, broadcaster.subscriberCount());
+        assertTrue(sink.closed);
+    }
+
+    @Test
+    void closedSubscriptionGetsNoEvents() throws Exception {
+        var sink = new RecordingSink();
+        var subscription = broadcaster.subscribe(null, sink);
+
+        subscription.close();
+        changeLog.created(message(1));
+
+        assertTrue(sink.events.isEmpty());
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    private static MessageResponse message(long id) {
+        return new MessageResponse(id, "owner", "header", "body", LocalDateTime.now(), null);
+    }
+
+    private static class RecordingSink implements EventSink {
+        final List<MessageEvent> events = new ArrayList<>();
+        CompletableFuture<Void> pending;
+        volatile boolean closed;
+
+        @Override
+        public CompletionStage<?> send(MessageEvent event) {
+            events.add(event);
+            return pending != null ? pending : CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        List<String> types() {
+            return events.stream().map(event -> event.type).collect(Collectors.toList());
+        }
+
+        List<Long> messageIds() {
+            return events.stream().map(event -> event.messageId).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CreateWatermarkTest {
+    private final CreateWatermark watermark = new CreateWatermark();
+
+    @Test
+    void limitFollowsCompletedCreates() {
+        assertEquals(0, watermark.limit());
+
+        var bound = watermark.begin();
+        watermark.taken(0);
+        watermark.complete(bound);
+
+        assertEquals(1, watermark.limit());
+    }
+
+    @Test
+    void createInProgressHoldsBackHigherIds() {
+        var slow = watermark.begin();
+        watermark.taken(0);
+        var fast = watermark.begin();
+        watermark.taken(1);
+        watermark.complete(fast);
+
+        assertEquals(0, watermark.limit());
+        watermark.complete(slow);
+        assertEquals(2, watermark.limit());
+    }
+
+    @Test
+    void createsSharingABoundAreCountedSeparately() {
+        var first = watermark.begin();
+        var second = watermark.begin();
+        assertEquals(first, second);
+        watermark.taken(0);
+        watermark.taken(1);
+
+        watermark.complete(first);
+        assertEquals(0, watermark.limit());
+        watermark.complete(second);
+        assertEquals(2, watermark.limit());
+    }
+
+    @Test
+    void storedIdsMoveTheLimitPastThem() {
+        watermark.taken(41);
+
+        assertEquals(42, watermark.limit());
+    }
+}
@@ -1,9 +1,14 @@
 package com.example.message.service.message;
 
+import com.example.message.service.cache.ResponseCache;
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.live.MessageBroadcaster;
+import io.quarkus.test.common.http.TestHTTPResource;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectMock;
 import io.quarkus.test.security.TestSecurity;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,10 +16,25 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import javax.inject.Inject;
+import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.*;
@@ -33,9 +53,19 @@ public class MessageControllerTest {
 
     @InjectMock
     MessageService service;
+    @Inject
+    ResponseCache responseCache;
+    @Inject
+    MessageBroadcaster broadcaster;
+    @Inject
+    ChangeLog changeLog;
+    @TestHTTPResource("/message/live")
+    URI liveUri;
 
     @BeforeEach
     void setupGetMessageById() {
+        // the mocked service never invalidates, so responses of earlier tests must not be served
+        responseCache.invalidateAll();
         doReturn(createResponse(EXISTING_MESSAGE_ID)).when(service).getById(eq(EXISTING_MESSAGE_ID));
     }
 
@@ -83,6 +113,187 @@ public class MessageControllerTest {
         assertEquals(LIST_MESSAGE_ID_3, messageListResponse.messages.get(0).id);
     }
 
+    @Test
+    void getAfterWorksWithoutAuthentication() {
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_3)))
+            .when(service).getAllAfter(eq(LIST_MESSAGE_ID_2), eq(1));
+
+        var response = given()
+            .when().get("/message/all?limit=1&after=" + LIST_MESSAGE_ID_2);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        final var messageListResponse = response.as(MessageListResponse.class);
+        assertEquals(1, messageListResponse.messages.size());
+        assertEquals(LIST_MESSAGE_ID_3, messageListResponse.messages.get(0).id);
+    }
+
+    @Test
+    void getBeforeWorksWithoutAuthentication() {
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_2)))
+            .when(service).getAllBefore(eq(LIST_MESSAGE_ID_3), eq(1));
+
+        var response = given()
+            .when().get("/message/all?limit=1&before=" + LIST_MESSAGE_ID_3);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        final var messageListResponse = response.as(MessageListResponse.class);
+        assertEquals(1, messageListResponse.messages.size());
+        assertEquals(LIST_MESSAGE_ID_2, messageListResponse.messages.get(0).id);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"offset=1&after=1", "offset=1&before=1", "after=1&before=3"})
+    void getAllReturnsBadRequestForConflictingPagination(String query) {
+        var response = given()
+            .when().get("/message/all?" + query);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+    }
+
+    @Test
+    void liveStreamsPublishedChangesAndResumes() throws Exception {
+        // HTTP/1.1 only, an HTTP/2 upgrade attempt may end the streaming connection with GOAWAY
+        var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        var request = HttpRequest.newBuilder(liveUri).build();
+        var subscribers = broadcaster.subscriberCount();
+        var response = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        awaitSubscribers(subscribers + 1);
+
+        changeLog.created(createResponse(LIST_MESSAGE_ID_2));
+        changeLog.deleted(LIST_MESSAGE_ID_2);
+
+        String firstId = null;
+        String firstEvent = null;
+        try (var reader = new BufferedReader(new InputStreamReader(
+            response.get(10, TimeUnit.SECONDS).body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((firstId == null || firstEvent == null) && (line = reader.readLine()) != null) {
+                if (line.startsWith("id:")) {
+                    firstId = line.substring("id:".length()).trim();
+                } else if (line.startsWith("event:")) {
+                    firstEvent = line.substring("event:".length()).trim();
+                }
+            }
+        }
+        assertEquals("created", firstEvent);
+
+        var resumed = client.sendAsync(HttpRequest.newBuilder(liveUri).header("Last-Event-ID", firstId).build(),
+            HttpResponse.BodyHandlers.ofLines());
+        var resumedEvent = resumed.get(10, TimeUnit.SECONDS).body()
+            .filter(line -> line.startsWith("event:"))
+            .findFirst();
+        assertEquals("deleted", resumedEvent.orElseThrow().substring("event:".length()).trim());
+    }
+
+    @Test
+    void changesAreReadByOffset() {
+        var since = changeLog.lastOffset();
+        changeLog.created(createResponse(LIST_MESSAGE_ID_2));
+        changeLog.updated(createResponse(LIST_MESSAGE_ID_2));
+        changeLog.deleted(LIST_MESSAGE_ID_2);
+
+        var response = given()
+            .when().get("/message/changes?since=" + since + "&limit=2");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        var json = response.jsonPath();
+        assertEquals(List.of("created", "updated"), json.getList("changes.type"));
+        assertEquals(since + 1, json.getLong("changes[0].offset"));
+        assertEquals(since + 2, json.getLong("nextSince"));
+
+        var next = given()
+            .when().get("/message/changes?since=" + json.getLong("nextSince"))
+            .jsonPath();
+        assertEquals(List.of("deleted"), next.getList("changes.type"));
+        assertEquals(LIST_MESSAGE_ID_2, next.getLong("changes[0].messageId"));
+    }
+
+    @Test
+    void changesAfterUnknownOffsetAreGone() {
+        var response = given()
+            .when().get("/message/changes?since=0");
+
+        assertEquals(HttpStatus.SC_GONE, response.statusCode());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -1, 1001})
+    void changesRejectInvalidLimit(int limit) {
+        var response = given()
+            .when().get("/message/changes?limit=" + limit);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && broadcaster.subscriberCount() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(broadcaster.subscriberCount() >= count);
+    }
+
+    @Test
+    void searchWorksWithoutAuthentication() {
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_3)))
+            .when(service).search(eq("some words"), eq(100), eq(0));
+
+        var response = given()
+            .when().get("/message/search?q=some words");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        final var messageListResponse = response.as(MessageListResponse.class);
+        assertEquals(1, messageListResponse.messages.size());
+        assertEquals(LIST_MESSAGE_ID_3, messageListResponse.messages.get(0).id);
+    }
+
+    @Test
+    void searchReturnsBadRequestWithoutQuery() {
+        var response = given()
+            .when().get("/message/search");
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"limit=-1", "offset=-1"})
+    void searchReturnsBadRequestForNegativePaging(String paging) {
+        var response = given()
+            .when().get("/message/search?q=words&" + paging);
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+        verify(service, never()).search(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    void getByAuthorWorksWithoutAuthentication() {
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_2), createResponse(LIST_MESSAGE_ID_3)))
+            .when(service).getByAuthor(eq(EXISTING_USER), anyLong(), anyInt());
+
+        var response = given()
+            .when().get("/message/by-author/" + EXISTING_USER);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        final var messageListResponse = response.as(MessageListResponse.class);
+        verify(service).getByAuthor(eq(EXISTING_USER), eq(-1L), eq(100));
+        assertEquals(2, messageListResponse.messages.size());
+    }
+
+    @Test
+    void exportWritesOneMessagePerLine() {
+        doReturn(Stream.of(createResponse(LIST_MESSAGE_ID_2), createResponse(LIST_MESSAGE_ID_3)))
+            .when(service).export();
+
+        var response = given()
+            .when().get("/message/export");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        assertTrue(response.contentType().startsWith("application/x-ndjson"));
+        var lines = response.asString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(LIST_MESSAGE_ID_2, new JsonPath(lines[0]).getLong("id"));
+        assertEquals(LIST_MESSAGE_ID_3, new JsonPath(lines[1]).getLong("id"));
+    }
+
     @Test
     void getByIdWorksWithoutAuthentication() {
         var response = given()
@@ -104,6 +315,92 @@ public class MessageControllerTest {
         assertEquals(HttpStatus.SC_NOT_FOUND, response.statusCode());
     }
 
+    @Test
+    void getByIdIsServedFromCache() {
+        var first = given().when().get("/message/" + EXISTING_MESSAGE_ID);
+        var second = given().when().get("/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_OK, second.statusCode());
+        assertEquals(first.asString(), second.asString());
+        assertEquals(first.header("ETag"), second.header("ETag"));
+        verify(service, times(1)).getById(EXISTING_MESSAGE_ID);
+    }
+
+    @Test
+    void getAllIsServedFromCacheUntilPageChanges() {
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_2))).when(service).getAll(anyInt(), anyInt());
+        given().when().get("/message/all").then().statusCode(HttpStatus.SC_OK);
+        given().when().get("/message/all").then().statusCode(HttpStatus.SC_OK);
+        verify(service, times(1)).getAll(anyInt(), anyInt());
+
+        responseCache.updated(LIST_MESSAGE_ID_2);
+        given().when().get("/message/all").then().statusCode(HttpStatus.SC_OK);
+        verify(service, times(2)).getAll(anyInt(), anyInt());
+    }
+
+    @Test
+    void getByIdReturnsNotModifiedForMatchingTag() {
+        var etag = given().when().get("/message/" + EXISTING_MESSAGE_ID).header("ETag");
+        assertNotNull(etag);
+
+        var response = given().header("If-None-Match", etag)
+            .when().get("/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_NOT_MODIFIED, response.statusCode());
+        assertEquals(etag, response.header("ETag"));
+    }
+
+    @Test
+    void getByIdReturnsMessageForChangedTag() {
+        var response = given().header("If-None-Match", "\"1-0\"")
+            .when().get("/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        assertEquals(EXISTING_MESSAGE_ID, response.as(MessageResponse.class).id);
+    }
+
+    @Test
+    void getByIdHonorsIfModifiedSince() {
+        var lastModified = given().when().get("/message/" + EXISTING_MESSAGE_ID).header("Last-Modified");
+        assertNotNull(lastModified);
+
+        given().header("If-Modified-Since", lastModified)
+            .when().get("/message/" + EXISTING_MESSAGE_ID)
+            .then().statusCode(HttpStatus.SC_NOT_MODIFIED);
+        given().header("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT")
+            .when().get("/message/" + EXISTING_MESSAGE_ID)
+            .then().statusCode(HttpStatus.SC_OK);
+    }
+
+    @Test
+    void getAllReturnsNotModifiedWithoutReadingPage() {
+        doReturn(7L).when(service).version();
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_2))).when(service).getAll(anyInt(), anyInt());
+        var etag = given().when().get("/message/all").header("ETag");
+
+        var response = given().header("If-None-Match", etag)
+            .when().get("/message/all");
+
+        assertEquals(HttpStatus.SC_NOT_MODIFIED, response.statusCode());
+        verify(service, times(1)).getAll(anyInt(), anyInt());
+    }
+
+    @Test
+    void getAllReturnsPageAfterStoreChanged() {
+        doReturn(7L).when(service).version();
+        doReturn(createListResponse(createResponse(LIST_MESSAGE_ID_2))).when(service).getAll(anyInt(), anyInt());
+        var etag = given().when().get("/message/all").header("ETag");
+        doReturn(8L).when(service).version();
+        responseCache.created(LIST_MESSAGE_ID_3);
+
+        var response = given().header("If-None-Match", etag)
+            .when().get("/message/all");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        assertNotEquals(etag, response.header("ETag"));
+        assertEquals(1, response.as(MessageListResponse.class).messages.size());
+    }
+
     @Test
     void createDoesntWorkWithoutAuthentication() {
         var response = given()
@@ -239,6 +536,49 @@ public class MessageControllerTest {
         assertEquals(HttpStatus.SC_OK, response.statusCode());
     }
 
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void updateReturnsConflictIfMessageChangedMeanwhile() {
+        doThrow(new ClientErrorException(Response.Status.CONFLICT))
+            .when(service).update(anyString(), anyLong(), any());
+
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("head", "body"))
+            .put("/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_CONFLICT, response.statusCode());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void updateChecksIfMatchAgainstCurrentMessage() {
+        var current = createResponse(EXISTING_MESSAGE_ID);
+        doReturn(current).when(service).getById(eq(EXISTING_MESSAGE_ID));
+        doAnswer(invocation -> {
+            Predicate<MessageResponse> precondition = invocation.getArgument(3);
+            if (!precondition.test(current)) {
+                throw new WebApplicationException(Response.Status.PRECONDITION_FAILED);
+            }
+            return null;
+        }).when(service).update(anyString(), anyLong(), any(), any());
+        var etag = given().when().get("/message/" + EXISTING_MESSAGE_ID).header("ETag");
+
+        var matching = given().header("If-Match", etag)
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("head", "body"))
+            .put("/message/" + EXISTING_MESSAGE_ID);
+        var stale = given().header("If-Match", "\"1-0-0\"")
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("head", "body"))
+            .put("/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_OK, matching.statusCode());
+        assertEquals(HttpStatus.SC_PRECONDITION_FAILED, stale.statusCode());
+        verify(service, never()).update(anyString(), anyLong(), any());
+    }
+
     @Test
     void deleteDoesntWorkWithoutAuthentication() {
         var response = given()
@@ -280,6 +620,19 @@ public class MessageControllerTest {
         assertEquals(HttpStatus.SC_NOT_FOUND, response.statusCode());
     }
 
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void deleteAcceptsIdsBeyondInt() {
+        var id = Integer.MAX_VALUE + 1L;
+
+        var response = given()
+            .when()
+            .delete("/message/" + id);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        verify(service).delete(EXISTING_USER, id);
+    }
+
     @Test
     @TestSecurity(user = EXISTING_USER, roles = {"user"})
     void deleteWorksWithRightUser() {
@@ -292,6 +645,83 @@ public class MessageControllerTest {
         assertEquals(HttpStatus.SC_OK, response.statusCode());
     }
 
+    @Test
+    void createBatchDoesntWorkWithoutAuthentication() {
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(List.of(new MessageRequest("head", "body")))
+            .post("/message/batch");
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, response.statusCode());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void createBatchReturnsResultPerMessage() {
+        doReturn(new MessageBatchResponse(List.of(
+            new MessageBatchResponse.Result(LIST_MESSAGE_ID_2, HttpStatus.SC_OK),
+            new MessageBatchResponse.Result(null, HttpStatus.SC_BAD_REQUEST)
+        ))).when(service).createAll(anyString(), anyList());
+
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(List.of(new MessageRequest("head", "body"), new MessageRequest("head", "")))
+            .post("/message/batch");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        verify(service).createAll(eq(EXISTING_USER), argThat(requests -> requests.size() == 2));
+        var results = response.as(MessageBatchResponse.class).results;
+        assertEquals(LIST_MESSAGE_ID_2, results.get(0).id);
+        assertEquals(HttpStatus.SC_BAD_REQUEST, results.get(1).status);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, MessageService.MAX_BATCH_SIZE + 1})
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void createBatchReturns400ForEmptyOrTooLargeBatch(int size) {
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(Collections.nCopies(size, new MessageRequest("head", "body")))
+            .post("/message/batch");
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+        verify(service, never()).createAll(anyString(), anyList());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void updateBatchPassesIds() {
+        doReturn(new MessageBatchResponse()).when(service).updateAll(anyString(), anyList());
+
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(List.of(new MessageUpdateRequest(EXISTING_MESSAGE_ID, "head", "body")))
+            .put("/message/batch");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        verify(service).updateAll(eq(EXISTING_USER), argThat(requests -> requests.get(0).id == EXISTING_MESSAGE_ID
+            && requests.get(0).header.equals("head")));
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = {"user"})
+    void deleteBatchPassesIds() {
+        doReturn(new MessageBatchResponse()).when(service).deleteAll(anyString(), anyList());
+
+        var response = given()
+            .when()
+            .contentType(ContentType.JSON)
+            .body(List.of(LIST_MESSAGE_ID_2, LIST_MESSAGE_ID_3))
+            .post("/message/batch/delete");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        verify(service).deleteAll(eq(EXISTING_USER), eq(List.of(LIST_MESSAGE_ID_2, LIST_MESSAGE_ID_3)));
+    }
+
     private static MessageResponse createResponse(long id) {
         return new MessageResponse(id, EXISTING_USER, "header", "body", LocalDateTime.now(), null);
     }
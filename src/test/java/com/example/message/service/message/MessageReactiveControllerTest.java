@@ -0,0 +1,156 @@
+package com.example.message.service.message;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectMock;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotFoundException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@QuarkusTest
+public class MessageReactiveControllerTest {
+    private static final String EXISTING_USER = "bob";
+
+    private static final long EXISTING_MESSAGE_ID = 1L;
+    private static final long NON_EXISTING_MESSAGE_ID = 888L;
+    private static final long LIST_MESSAGE_ID_2 = 2L;
+
+    @InjectMock
+    MessageService service;
+
+    @BeforeEach
+    void setupGetMessageById() {
+        doReturn(createResponse(EXISTING_MESSAGE_ID)).when(service).getById(eq(EXISTING_MESSAGE_ID));
+        doThrow(new NotFoundException()).when(service).getById(eq(NON_EXISTING_MESSAGE_ID));
+    }
+
+    @Test
+    void getAllWorksWithoutAuthentication() {
+        doReturn(new MessageListResponse(List.of(createResponse(EXISTING_MESSAGE_ID), createResponse(LIST_MESSAGE_ID_2))))
+            .when(service).getAll(anyInt(), anyInt());
+
+        var response = given()
+            .when().get("/reactive/message/all?limit=2&offset=1");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        verify(service).getAll(eq(2), eq(1));
+        var messages = response.jsonPath().getList("id", Long.class);
+        assertEquals(List.of(EXISTING_MESSAGE_ID, LIST_MESSAGE_ID_2), messages);
+    }
+
+    @Test
+    void getByIdWorksWithoutAuthentication() {
+        var response = given()
+            .when().get("/reactive/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        assertEquals(EXISTING_MESSAGE_ID, response.jsonPath().getLong("id"));
+        assertEquals(EXISTING_USER, response.jsonPath().getString("author"));
+        assertNotNull(response.jsonPath().getString("createdAt"));
+    }
+
+    @Test
+    void getNonExistingReturns404() {
+        var response = given()
+            .when().get("/reactive/message/" + NON_EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_NOT_FOUND, response.statusCode());
+    }
+
+    @Test
+    void createRequiresAuthentication() {
+        var response = given()
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("header", "body"))
+            .when().post("/reactive/message");
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, response.statusCode());
+        verify(service, never()).create(any(), any());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = "user")
+    void createWorksWithAuthentication() {
+        doReturn(EXISTING_MESSAGE_ID).when(service).create(eq(EXISTING_USER), any());
+
+        var response = given()
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("header", "body"))
+            .when().post("/reactive/message");
+
+        assertEquals(HttpStatus.SC_OK, response.statusCode());
+        assertEquals(EXISTING_MESSAGE_ID, Long.parseLong(response.asString()));
+        verify(service).create(eq(EXISTING_USER), argThat(request -> request.header.equals("header")));
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = "user")
+    void createWithoutBodyReturns400() {
+        var response = given()
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("header", null))
+            .when().post("/reactive/message");
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+        verify(service, never()).create(any(), any());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = "user")
+    void createWithMalformedJsonReturns400() {
+        var response = given()
+            .contentType(ContentType.JSON)
+            .body("{\"header\": ")
+            .when().post("/reactive/message");
+
+        assertEquals(HttpStatus.SC_BAD_REQUEST, response.statusCode());
+        verify(service, never()).create(any(), any());
+    }
+
+    @Test
+    void sharedVertxMapperIsLeftAlone() {
+        given().when().get("/reactive/message/" + EXISTING_MESSAGE_ID).then().statusCode(HttpStatus.SC_OK);
+
+        assertThrows(EncodeException.class, () -> Json.encode(LocalDateTime.now()));
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = "user")
+    void updateOfOtherUsersMessageReturns403() {
+        doThrow(new ForbiddenException()).when(service).update(eq(EXISTING_USER), eq(EXISTING_MESSAGE_ID), any());
+
+        var response = given()
+            .contentType(ContentType.JSON)
+            .body(new MessageRequest("header", "body"))
+            .when().put("/reactive/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_FORBIDDEN, response.statusCode());
+    }
+
+    @Test
+    @TestSecurity(user = EXISTING_USER, roles = "user")
+    void deleteWorksWithAuthentication() {
+        var response = given()
+            .when().delete("/reactive/message/" + EXISTING_MESSAGE_ID);
+
+        assertEquals(HttpStatus.SC_NO_CONTENT, response.statusCode());
+        verify(service).delete(eq(EXISTING_USER), eq(EXISTING_MESSAGE_ID));
+    }
+
+    private static MessageResponse createResponse(long id) {
+        return new MessageResponse(id, EXISTING_USER, "header", "body", LocalDateTime.now(), null);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRepositoryConcurrentTest extends MessageRepositoryContractTest<MessageRepositoryConcurrent> {
+    @Override
+    protected MessageRepositoryConcurrent createRepository() {
+        return new MessageRepositoryConcurrent();
+    }
+
+    @Test
+    void concurrentCreatesAssignUniqueIds() throws Exception {
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var tasks = new ArrayList<Callable<List<Long>>>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> preCreateEntities(500));
+            }
+            var ids = new ArrayList<Long>();
+            for (Future<List<Long>> future : executor.invokeAll(tasks)) {
+                ids.addAll(future.get());
+            }
+
+            assertEquals(4000, ids.stream().distinct().count());
+            assertEquals(4000, repository.getAll(Integer.MAX_VALUE, 0).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
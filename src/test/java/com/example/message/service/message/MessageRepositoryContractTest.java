@@ -0,0 +1,298 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour all message stores share. The tests of each store extend it with the cases only that store has.
+ */
+public abstract class MessageRepositoryContractTest<R extends MessageRepository> {
+    protected R repository;
+
+    protected abstract R createRepository() throws Exception;
+
+    @BeforeEach
+    void setupRepository() throws Exception {
+        repository = createRepository();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10})
+    void getAllUsesCorrectLimit(int limit) {
+        preCreateEntities(20);
+
+        var entities = repository.getAll(limit, 0);
+        assertEquals(limit, entities.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10})
+    void getAllUsesCorrectOffset(int offset) {
+        var ids = preCreateEntities(20);
+
+        var entities = repository.getAll(10, offset);
+        assertEquals(10, entities.size());
+        assertEquals(ids.get(offset), entities.get(0).getId());
+    }
+
+    @Test
+    void getAllKeepsInsertionOrder() {
+        var ids = preCreateEntities(20);
+
+        assertEquals(ids, ids(repository.getAll(20, 0)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10})
+    void getAfterReturnsFollowingMessages(int position) {
+        var ids = preCreateEntities(20);
+
+        var entities = repository.getAfter(ids.get(position), 5);
+        assertEquals(5, entities.size());
+        assertEquals(ids.get(position + 1), entities.get(0).getId());
+        assertEquals(ids.get(position + 5), entities.get(4).getId());
+    }
+
+    @Test
+    void getAfterReturnsTailOfLastPage() {
+        var ids = preCreateEntities(20);
+
+        var entities = repository.getAfter(ids.get(17), 5);
+        assertEquals(2, entities.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {19, 10, 5})
+    void getBeforeReturnsPrecedingMessagesNewestFirst(int position) {
+        var ids = preCreateEntities(20);
+
+        var entities = repository.getBefore(ids.get(position), 5);
+        assertEquals(5, entities.size());
+        assertEquals(ids.get(position - 1), entities.get(0).getId());
+        assertEquals(ids.get(position - 5), entities.get(4).getId());
+    }
+
+    @Test
+    void getByOwnerReturnsOnlyOwnersMessages() {
+        var ids = preCreateEntities(5);
+        var otherId = repository.create(new MessageEntity("other", "header", "body"));
+        ids.addAll(preCreateEntities(5));
+
+        assertEquals(ids, ids(repository.getByOwner("owner", -1, 100)));
+        assertEquals(List.of(otherId), ids(repository.getByOwner("other", -1, 100)));
+    }
+
+    @Test
+    void getByOwnerPagesAfterId() {
+        var ids = preCreateEntities(10);
+
+        assertEquals(ids.subList(3, 6), ids(repository.getByOwner("owner", ids.get(2), 3)));
+    }
+
+    @Test
+    void getByOwnerSkipsDeletedMessages() {
+        var ids = preCreateEntities(3);
+        repository.delete(ids.get(1));
+
+        assertEquals(List.of(ids.get(0), ids.get(2)), ids(repository.getByOwner("owner", -1, 100)));
+        assertTrue(repository.getByOwner("nobody", -1, 100).isEmpty());
+    }
+
+    @Test
+    void getByIdReturnsEmptyForNonExistingMessage() {
+        var entity = repository.getById(1L);
+        assertTrue(entity.isEmpty());
+    }
+
+    @Test
+    void getByIdReturnsNonEmptyForExistingMessage() {
+        var id = preCreateEntities(1).get(0);
+
+        var entity = repository.getById(id);
+        assertTrue(entity.isPresent());
+    }
+
+    @Test
+    void createAssignsIdAndCreatesEntity() {
+        var id = repository.create(getEntity());
+
+        var entity = repository.getById(id);
+        assertTrue(entity.isPresent());
+        var message = entity.get();
+        assertEquals(id, message.getId());
+        assertNotNull(message.getCreatedAt());
+        assertNull(message.getEditedAt());
+    }
+
+    @Test
+    void updateSavesMessage() {
+        var entity = repository.getById(repository.create(getEntity())).orElseThrow();
+        entity = entity.edited("new header", "new body");
+
+        repository.update(entity);
+        var updatedEntity = repository.getById(entity.getId());
+
+        assertTrue(updatedEntity.isPresent());
+        var message = updatedEntity.get();
+        assertEquals(entity.getHeader(), message.getHeader());
+        assertEquals(entity.getBody(), message.getBody());
+        assertEquals("new header", repository.getByOwner("owner", -1, 1).get(0).getHeader());
+    }
+
+    @Test
+    void updateDoesntRecreateDeletedMessage() {
+        var entity = repository.getById(repository.create(getEntity())).orElseThrow();
+        repository.delete(entity.getId());
+
+        repository.update(entity.edited("new header", "new body"));
+
+        assertTrue(repository.getById(entity.getId()).isEmpty());
+    }
+
+    @Test
+    void updateRejectsEditOfStaleVersion() {
+        var original = repository.getById(repository.create(getEntity())).orElseThrow();
+        var first = original.edited("first header", "first body");
+
+        assertEquals(List.of(true, false), repository.updateAll(List.of(
+            first,
+            original.edited("second header", "second body"))));
+        assertFalse(repository.update(original.edited("third header", "third body")));
+
+        var message = repository.getById(original.getId()).orElseThrow();
+        assertEquals("first header", message.getHeader());
+        assertEquals(first.getEditedAt(), message.getEditedAt());
+        assertEquals(1, message.getVersion());
+    }
+
+    @Test
+    void deleteRemovesMessage() {
+        var id = preCreateEntities(1).get(0);
+
+        repository.delete(id);
+
+        var entity = repository.getById(id);
+        assertTrue(entity.isEmpty());
+    }
+
+    @Test
+    void createAllAssignsIdsInOrder() {
+        var entities = List.of(getEntity(), getEntity(), getEntity());
+
+        var ids = repository.createAll(entities);
+
+        assertEquals(3, ids.size());
+        assertTrue(ids.get(0) < ids.get(1) && ids.get(1) < ids.get(2));
+        assertEquals(ids, ids(repository.getAll(10, 0)));
+    }
+
+    @Test
+    void deleteAllRemovesMessages() {
+        var ids = preCreateEntities(3);
+
+        repository.deleteAll(ids.subList(0, 2));
+
+        assertEquals(List.of(ids.get(2)), ids(repository.getAll(10, 0)));
+    }
+
+    @Test
+    void versionChangesOnEveryWrite() {
+        var versions = new ArrayList<Long>();
+        versions.add(repository.version());
+        var id = repository.create(getEntity());
+        versions.add(repository.version());
+        repository.update(repository.getById(id).orElseThrow().edited("new header", "new body"));
+        versions.add(repository.version());
+        repository.delete(id);
+        versions.add(repository.version());
+
+        assertEquals(versions.size(), versions.stream().distinct().count());
+    }
+
+    @Test
+    void versionIgnoresWritesToMissingMessages() {
+        var entity = repository.getById(repository.create(getEntity())).orElseThrow();
+        repository.delete(entity.getId());
+        var version = repository.version();
+
+        repository.update(entity.edited("new header", "new body"));
+        repository.delete(entity.getId());
+
+        assertEquals(version, repository.version());
+    }
+
+    @Test
+    void putAllStoresByIdAndMovesIdsPastThem() {
+        var id = repository.create(getEntity());
+        var edited = repository.getById(id).orElseThrow().edited("new header", "new body");
+        var putId = repository.nextId() + 10;
+
+        repository.putAll(List.of(edited, getEntity().withId(putId)));
+
+        var message = repository.getById(id).orElseThrow();
+        assertEquals("new header", message.getHeader());
+        assertEquals("new body", message.getBody());
+        assertEquals(1, message.getVersion());
+        assertEquals("new header", repository.getByOwner("owner", -1, 1).get(0).getHeader());
+        assertEquals(List.of(id, putId), ids(repository.getAll(100, 0)));
+        assertEquals(putId + 1, repository.nextId());
+        assertEquals(putId + 1, repository.create(getEntity()));
+    }
+
+    @Test
+    void cursorSeesEveryConcurrentCreate() throws Exception {
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var futures = new ArrayList<Future<List<Long>>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> preCreateEntities(1000)));
+            }
+            var seen = new ArrayList<Long>();
+            var cursor = -1L;
+            while (true) {
+                var done = futures.stream().allMatch(Future::isDone);
+                var page = repository.getAfter(cursor, 100);
+                for (var message : page) {
+                    seen.add(message.getId());
+                    cursor = message.getId();
+                }
+                if (done && page.isEmpty()) {
+                    break;
+                }
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+            // a message that became visible after a higher id would have been passed by the cursor
+            assertEquals(4000, seen.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected List<Long> preCreateEntities(int count) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> repository.create(getEntity()))
+            .collect(Collectors.toList());
+    }
+
+    protected static List<Long> ids(List<MessageEntity> messages) {
+        return messages.stream().map(MessageEntity::getId).collect(Collectors.toList());
+    }
+
+    protected static MessageEntity getEntity() {
+        return new MessageEntity("owner", "header", "body");
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRepositoryJdbcTest extends MessageRepositoryContractTest<MessageRepositoryJdbc> {
+    @TempDir
+    Path directory;
+
+    private JdbcConnectionPool pool;
+
+    @Override
+    protected MessageRepositoryJdbc createRepository() {
+        return openRepository();
+    }
+
+    @AfterEach
+    void closeRepository() {
+        pool.dispose();
+    }
+
+    @Test
+    void createdMessageIsReadBack() {
+        var created = new MessageEntity("owner", "Заголовок", "Body with ünïcödé and emoji 😀");
+
+        var id = repository.create(created);
+        var message = repository.getById(id).orElseThrow();
+
+        assertEquals(0, id);
+        assertEquals("owner", message.getOwnerName());
+        assertEquals("Заголовок", message.getHeader());
+        assertEquals("Body with ünïcödé and emoji 😀", message.getBody());
+        assertEquals(created.getCreatedAt(), message.getCreatedAt());
+        assertNull(message.getEditedAt());
+        assertTrue(repository.getById(id + 1).isEmpty());
+    }
+
+    @Test
+    void batchesAssignIdsInOrder() {
+        var ids = repository.createAll(List.of(getEntity(), getEntity(), getEntity()));
+        var next = repository.create(getEntity());
+
+        assertEquals(List.of(0L, 1L, 2L), ids);
+        assertEquals(3, next);
+        repository.deleteAll(List.of(ids.get(0), ids.get(2)));
+        assertEquals(List.of(ids.get(1), next), ids(repository.getAll(100, 0)));
+    }
+
+    @Test
+    void messagesAndVersionsSurviveRestart() {
+        var ids = preCreateEntities(3);
+        var original = repository.getById(ids.get(0)).orElseThrow();
+        repository.update(original.edited("new header", "new body"));
+        repository.delete(ids.get(1));
+
+        pool.dispose();
+        repository = openRepository();
+
+        var message = repository.getById(ids.get(0)).orElseThrow();
+        assertEquals("new body", message.getBody());
+        assertEquals(1, message.getVersion());
+        assertFalse(repository.update(original.edited("stale header", "stale body")));
+        assertTrue(repository.update(message.edited("newer header", "newer body")));
+        assertTrue(repository.getById(ids.get(1)).isEmpty());
+        assertTrue(repository.create(getEntity()) > ids.get(2));
+    }
+
+    @Test
+    void metricsCountStoredMessagesAndScannedEntries() {
+        preCreateEntities(4);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        repository.getAll(2, 1);
+
+        assertEquals(4, registry.get("message.repository.size").gauge().value());
+        assertEquals(4, registry.get("message.repository.next.id").gauge().value());
+        assertEquals(1, registry.get("message.repository.page.scans").functionCounter().count());
+        assertEquals(3, registry.get("message.repository.page.scanned").functionCounter().count());
+        assertTrue(registry.get("message.repository.lock.wait").functionTimer().count() > 0);
+    }
+
+    private MessageRepositoryJdbc openRepository() {
+        pool = JdbcConnectionPool.create("jdbc:h2:file:" + directory.resolve("messages-db"), "sa", "");
+        var repository = new MessageRepositoryJdbc();
+        repository.dataSource = pool;
+        repository.init();
+        return repository;
+    }
+}
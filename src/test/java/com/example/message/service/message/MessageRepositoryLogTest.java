@@ -0,0 +1,222 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRepositoryLogTest extends MessageRepositoryContractTest<MessageRepositoryLog> {
+    private static final long SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Override
+    protected MessageRepositoryLog createRepository() throws IOException {
+        return openRepository();
+    }
+
+    @AfterEach
+    void closeRepository() {
+        repository.stop();
+    }
+
+    @Test
+    void createdMessagesSurviveRestart() throws IOException {
+        var ids = preCreateEntities(20);
+
+        reopen();
+
+        var entities = repository.getAll(100, 0);
+        assertEquals(ids, entities.stream().map(MessageEntity::getId).collect(Collectors.toList()));
+        var message = entities.get(0);
+        assertEquals("owner", message.getOwnerName());
+        assertEquals("header", message.getHeader());
+        assertEquals("body", message.getBody());
+        assertNotNull(message.getCreatedAt());
+        assertNull(message.getEditedAt());
+    }
+
+    @Test
+    void updatesAndDeletesSurviveRestart() throws IOException {
+        var ids = preCreateEntities(3);
+        var entity = repository.getById(ids.get(0)).orElseThrow();
+        entity = entity.edited("new header", "new body");
+        repository.update(entity);
+        repository.delete(ids.get(1));
+
+        reopen();
+
+        var updated = repository.getById(ids.get(0)).orElseThrow();
+        assertEquals("new header", updated.getHeader());
+        assertEquals("new body", updated.getBody());
+        assertEquals(entity.getEditedAt(), updated.getEditedAt());
+        assertTrue(repository.getById(ids.get(1)).isEmpty());
+        assertTrue(repository.getById(ids.get(2)).isPresent());
+    }
+
+    @Test
+    void batchesSurviveRestart() throws IOException {
+        var ids = repository.createAll(List.of(getEntity(), getEntity(), getEntity()));
+        var updated = repository.getById(ids.get(0)).orElseThrow();
+        updated = updated.edited("new header", "new body");
+        repository.updateAll(List.of(updated));
+        repository.deleteAll(List.of(ids.get(1)));
+        var next = repository.create(getEntity());
+
+        reopen();
+
+        assertEquals(List.of(ids.get(0), ids.get(2), next),
+            repository.getAll(100, 0).stream().map(MessageEntity::getId).collect(Collectors.toList()));
+        assertEquals("new header", repository.getById(ids.get(0)).orElseThrow().getHeader());
+    }
+
+    @Test
+    void rejectedEditsAreNotLogged() throws IOException {
+        var id = repository.create(getEntity());
+        var original = repository.getById(id).orElseThrow();
+        var first = original.edited("first header", "first body");
+
+        assertEquals(List.of(true, false), repository.updateAll(List.of(first, original.edited("second header", "second body"))));
+        assertFalse(repository.update(original.edited("third header", "third body")));
+        reopen();
+
+        var message = repository.getById(id).orElseThrow();
+        assertEquals("first header", message.getHeader());
+        // versions start over after a restart, edits of the restored message are accepted
+        assertTrue(repository.update(message.edited("new header", "new body")));
+    }
+
+    @Test
+    void messagesPutByIdSurviveRestart() throws IOException {
+        repository.putAll(List.of(getEntity().withId(5), getEntity().withId(7)));
+
+        reopen();
+
+        assertEquals(List.of(5L, 7L), repository.getAll(100, 0).stream().map(MessageEntity::getId).collect(Collectors.toList()));
+        assertEquals(8, repository.nextId());
+    }
+
+    @Test
+    void idsAreNotReusedAfterRestart() throws IOException {
+        var ids = preCreateEntities(3);
+        repository.delete(ids.get(2));
+
+        reopen();
+
+        var id = repository.create(getEntity());
+        assertTrue(id > ids.get(2));
+    }
+
+    @Test
+    void snapshotKeepsLiveMessagesAndDropsOldSegments() throws IOException {
+        var ids = preCreateEntities(200);
+        ids.subList(0, 150).forEach(repository::delete);
+        var segmentsBefore = countFiles(".log");
+        repository.snapshot();
+        repository.create(getEntity());
+        repository.snapshot();
+
+        reopen();
+
+        assertTrue(countFiles(".log") < segmentsBefore);
+        assertEquals(2, countFiles(".snap"));
+        var entities = repository.getAll(1000, 0);
+        assertEquals(ids.subList(150, 200), entities.stream().limit(50).map(MessageEntity::getId).collect(Collectors.toList()));
+        assertEquals(51, entities.size());
+        assertTrue(repository.create(getEntity()) > ids.get(199));
+    }
+
+    @Test
+    void startupReplaysOnlyLogTailAfterSnapshot() throws IOException {
+        preCreateEntities(100);
+        repository.snapshot();
+        var ids = preCreateEntities(3);
+        repository.delete(ids.get(0));
+
+        reopen();
+
+        assertEquals(4, repository.getReplayedRecords());
+        assertEquals(102, repository.getAll(1000, 0).size());
+        assertTrue(repository.getById(ids.get(0)).isEmpty());
+    }
+
+    @Test
+    void idsDeletedBeforeSnapshotAreNotReused() throws IOException {
+        var ids = preCreateEntities(3);
+        repository.delete(ids.get(2));
+        repository.snapshot();
+        repository.snapshot();
+
+        reopen();
+
+        assertTrue(repository.create(getEntity()) > ids.get(2));
+    }
+
+    @Test
+    void corruptedSnapshotFallsBackToPreviousOne() throws IOException {
+        var ids = preCreateEntities(50);
+        repository.snapshot();
+        ids.addAll(preCreateEntities(50));
+        repository.snapshot();
+        repository.stop();
+        var newestSnapshot = lastFile(".snap");
+        try (var channel = FileChannel.open(newestSnapshot, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 100);
+        }
+
+        repository = openRepository();
+
+        var entities = repository.getAll(1000, 0);
+        assertEquals(ids, entities.stream().map(MessageEntity::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void tornWriteAtTailIsDiscarded() throws IOException {
+        var ids = preCreateEntities(5);
+        repository.stop();
+        var lastSegment = lastFile(".log");
+        try (var channel = FileChannel.open(lastSegment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        repository = openRepository();
+
+        var entities = repository.getAll(100, 0);
+        assertEquals(ids.subList(0, 4), entities.stream().map(MessageEntity::getId).collect(Collectors.toList()));
+    }
+
+    private void reopen() throws IOException {
+        repository.stop();
+        repository = openRepository();
+    }
+
+    private MessageRepositoryLog openRepository() throws IOException {
+        var repository = new MessageRepositoryLog();
+        repository.open(directory, SEGMENT_SIZE);
+        return repository;
+    }
+
+    private long countFiles(String suffix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).count();
+        }
+    }
+
+    private Path lastFile(String suffix) throws IOException {
+        try (var files = Files.list(directory)) {
+            var matching = files.filter(path -> path.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+            return matching.get(matching.size() - 1);
+        }
+    }
+}
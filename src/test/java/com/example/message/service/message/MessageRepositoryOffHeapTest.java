@@ -0,0 +1,128 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRepositoryOffHeapTest extends MessageRepositoryContractTest<MessageRepositoryOffHeap> {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Override
+    protected MessageRepositoryOffHeap createRepository() {
+        return openRepository(true);
+    }
+
+    private void setupRepository(boolean headersOffHeap) {
+        repository = openRepository(headersOffHeap);
+    }
+
+    private static MessageRepositoryOffHeap openRepository(boolean headersOffHeap) {
+        var repository = new MessageRepositoryOffHeap();
+        repository.segmentSize = SEGMENT_SIZE;
+        repository.headersOffHeap = headersOffHeap;
+        repository.init();
+        return repository;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void createdMessageIsReadBack(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var created = new MessageEntity("owner", "Заголовок", "Body with ünïcödé and emoji 😀");
+
+        var id = repository.create(created);
+        var message = repository.getById(id).orElseThrow();
+
+        assertEquals(id, message.getId());
+        assertEquals("owner", message.getOwnerName());
+        assertEquals("Заголовок", message.getHeader());
+        assertEquals("Body with ünïcödé and emoji 😀", message.getBody());
+        assertEquals(created.getCreatedAt(), message.getCreatedAt());
+        assertNull(message.getEditedAt());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void pagesAndOwnerPagesReadText(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var ids = preCreateEntities(10);
+        var otherId = repository.create(new MessageEntity("other", "other header", "other body"));
+
+        assertEquals(ids.subList(2, 5), ids(repository.getAll(3, 2)));
+        assertEquals(ids.subList(5, 7), ids(repository.getAfter(ids.get(4), 2)));
+        assertEquals(List.of(ids.get(4), ids.get(3)), ids(repository.getBefore(ids.get(5), 2)));
+        var owned = repository.getByOwner("other", -1, 10);
+        assertEquals(List.of(otherId), ids(owned));
+        assertEquals("other header", owned.get(0).getHeader());
+        assertEquals("other body", owned.get(0).getBody());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void updateReplacesTextAndFreesOldSlot(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var id = repository.create(getEntity());
+        var used = repository.usedBytes();
+
+        var edited = repository.getById(id).orElseThrow()
+            .edited("new header", "a new body that no longer fits the slot of the old one");
+        repository.update(edited);
+        repository.update(repository.getById(id).orElseThrow().edited("header", "body"));
+
+        var message = repository.getById(id).orElseThrow();
+        assertEquals("header", message.getHeader());
+        assertEquals("body", message.getBody());
+        assertNotNull(message.getEditedAt());
+        assertEquals(used, repository.usedBytes());
+        assertEquals("header", repository.getByOwner("owner", -1, 1).get(0).getHeader());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deleteFreesTextForReuse(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var ids = preCreateEntities(100);
+        var reserved = repository.reservedBytes();
+
+        repository.deleteAll(ids);
+        preCreateEntities(100);
+
+        assertEquals(reserved, repository.reservedBytes());
+        assertEquals(100, repository.count());
+        assertTrue(repository.getById(ids.get(0)).isEmpty());
+        assertEquals(100, repository.getByOwner("owner", ids.get(99), 200).size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void writesToMissingMessagesAreIgnored(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var entity = repository.getById(repository.create(getEntity())).orElseThrow();
+        repository.delete(entity.getId());
+        var version = repository.version();
+
+        repository.update(entity);
+        repository.delete(entity.getId());
+
+        assertEquals(version, repository.version());
+        assertTrue(repository.getById(entity.getId()).isEmpty());
+        assertEquals(0, repository.usedBytes());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void metricsReportSizeAndDirectMemory(boolean headersOffHeap) {
+        setupRepository(headersOffHeap);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+        preCreateEntities(20);
+
+        assertEquals(20, registry.get("message.repository.size").gauge().value());
+        assertEquals(repository.usedBytes(), registry.get("message.repository.off.heap.used").gauge().value());
+        assertEquals(SEGMENT_SIZE, registry.get("message.repository.off.heap.reserved").gauge().value());
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.message.service.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRepositoryShardedTest extends MessageRepositoryContractTest<MessageRepositorySharded> {
+    @Override
+    protected MessageRepositorySharded createRepository() {
+        var repository = new MessageRepositorySharded();
+        repository.shardCount = 4;
+        repository.init();
+        return repository;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10, 19})
+    void getAllMergesShardsInInsertionOrder(int offset) {
+        var ids = preCreateEntities(20);
+
+        assertEquals(ids.subList(offset, Math.min(offset + 5, 20)), ids(repository.getAll(5, offset)));
+    }
+
+    @Test
+    void getAllReadsPastMergeChunks() {
+        var ids = preCreateEntities(2000);
+
+        assertEquals(ids.subList(1500, 1800), ids(repository.getAll(300, 1500)));
+        assertEquals(ids, ids(repository.getAll(3000, 0)));
+    }
+
+    @Test
+    void getAllAcceptsHugeLimitAndOffset() {
+        var ids = preCreateEntities(10);
+
+        assertEquals(ids, ids(repository.getAll(Integer.MAX_VALUE, 0)));
+        assertTrue(repository.getAll(Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+        assertEquals(ids, ids(repository.getAfter(-1, Integer.MAX_VALUE)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 5, 19})
+    void getAfterAndBeforeCrossShards(int position) {
+        var ids = preCreateEntities(20);
+
+        assertEquals(ids.subList(position + 1, Math.min(position + 4, 20)), ids(repository.getAfter(ids.get(position), 3)));
+        var before = new ArrayList<>(ids.subList(Math.max(0, position - 3), position));
+        Collections.reverse(before);
+        assertEquals(before, ids(repository.getBefore(ids.get(position), 3)));
+    }
+
+    @Test
+    void getByOwnerMergesOwnersMessagesFromAllShards() {
+        var owned = new ArrayList<Long>();
+        for (var i = 0; i < 10; i++) {
+            repository.create(new MessageEntity("other", "header", "body"));
+            owned.add(repository.create(getEntity()));
+        }
+
+        assertEquals(owned, ids(repository.getByOwner("owner", -1, 100)));
+        assertEquals(owned.subList(3, 6), ids(repository.getByOwner("owner", owned.get(2), 3)));
+        assertTrue(repository.getByOwner("nobody", -1, 10).isEmpty());
+    }
+
+    @Test
+    void concurrentCreatesAssignUniqueIds() throws Exception {
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var tasks = new ArrayList<Callable<Long>>();
+            for (var i = 0; i < 1000; i++) {
+                tasks.add(() -> repository.create(getEntity()));
+            }
+            var ids = new ArrayList<Long>();
+            for (Future<Long> future : executor.invokeAll(tasks)) {
+                ids.add(future.get());
+            }
+
+            assertEquals(1000, ids.stream().distinct().count());
+            assertEquals(ids.stream().sorted().collect(Collectors.toList()), ids(repository.getAll(2000, 0)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void metricsCountStoredMessagesAndShards() {
+        preCreateEntities(4);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        repository.getAll(2, 1);
+
+        assertEquals(4, registry.get("message.repository.size").gauge().value());
+        assertEquals(4, registry.get("message.repository.next.id").gauge().value());
+        assertEquals(4, registry.get("message.repository.shards").gauge().value());
+        assertEquals(1, registry.get("message.repository.page.scans").functionCounter().count());
+        assertEquals(3, registry.get("message.repository.page.scanned").functionCounter().count());
+        assertTrue(registry.get("message.repository.lock.wait").functionTimer().count() > 0);
+    }
+
+    @Test
+    void shardPerCoreByDefault() {
+        var repository = new MessageRepositorySharded();
+        repository.init();
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        assertEquals(Runtime.getRuntime().availableProcessors(), registry.get("message.repository.shards").gauge().value());
+    }
+}
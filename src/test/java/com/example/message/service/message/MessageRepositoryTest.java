@@ -1,100 +1,39 @@
 package com.example.message.service.message;
 
-import org.junit.jupiter.api.BeforeEach;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.params.ParameterizedTest;
-import org.junit.jupiter.params.provider.ValueSource;
-
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-public class MessageRepositoryTest {
-    private MessageRepositoryInMemory repository;
-
-    @BeforeEach
-    void setupRepository() {
-        repository = new MessageRepositoryInMemory();
-    }
-
-    @ParameterizedTest
-    @ValueSource(ints = {0, 1, 10})
-    void getAllUsesCorrectLimit(int limit) {
-        preCreateEntities(20);
-
-        var entities = repository.getAll(limit, 0);
-        assertEquals(limit, entities.size());
-    }
-
-    @ParameterizedTest
-    @ValueSource(ints = {0, 1, 10})
-    void getAllUsesCorrectOffset(int offset) {
-        var ids = preCreateEntities(20);
-
-        var entities = repository.getAll(10, offset);
-        assertEquals(10, entities.size());
-        assertEquals(ids.get(offset), entities.get(0).getId());
+public class MessageRepositoryTest extends MessageRepositoryContractTest<MessageRepositoryInMemory> {
+    @Override
+    protected MessageRepositoryInMemory createRepository() {
+        return new MessageRepositoryInMemory();
     }
 
     @Test
-    void getByIdReturnsEmptyForNonExistingMessage() {
-        var entity = repository.getById(1L);
-        assertTrue(entity.isEmpty());
-    }
-
-    @Test
-    void getByIdReturnsNonEmptyForExistingMessage() {
-        var id = preCreateEntities(1).get(0);
-
-        var entity = repository.getById(id);
-        assertTrue(entity.isPresent());
-    }
-
-    @Test
-    void createAssignsIdAndCreatesEntity() {
-        var id = repository.create(getEntity());
-
-        var entity = repository.getById(id);
-        assertTrue(entity.isPresent());
-        var message = entity.get();
-        assertNotNull(message.getCreatedAt());
-        assertNull(message.getEditedAt());
-    }
-
-    @Test
-    void updateSavesMessage() {
-        var entity = getEntity();
-        repository.create(entity);
-        entity.update("new header", "new body");
+    void metricsCountStoreSizeAndScannedEntries() {
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+        preCreateEntities(20);
 
-        repository.update(entity);
-        var updatedEntity = repository.getById(entity.getId());
+        repository.getAll(5, 10);
 
-        assertTrue(updatedEntity.isPresent());
-        var message = updatedEntity.get();
-        assertEquals(entity.getHeader(), message.getHeader());
-        assertEquals(entity.getBody(), message.getBody());
+        assertEquals(20, registry.get("message.repository.size").gauge().value());
+        assertEquals(1, registry.get("message.repository.page.scans").functionCounter().count());
+        assertEquals(15, registry.get("message.repository.page.scanned").functionCounter().count());
+        assertEquals(21, registry.get("message.repository.lock.wait").functionTimer().count());
     }
 
     @Test
-    void deleteRemovesMessage() {
-        var id = preCreateEntities(1).get(0);
-
-        repository.delete(id);
-
-        var entity = repository.getById(id);
-        assertTrue(entity.isEmpty());
-    }
-
-    private List<Long> preCreateEntities(int count) {
-        return IntStream.range(0, count)
-            .mapToObj(i -> repository.create(getEntity()))
-            .collect(Collectors.toList());
-    }
-
-    private static MessageEntity getEntity() {
-        return new MessageEntity("owner", "header", "body");
+    void snowflakeIdsKeepPagesInCreationOrder() {
+        var generator = new SnowflakeIdGenerator();
+        generator.nodeId = 3;
+        repository.idGenerator = generator;
+        var ids = preCreateEntities(10);
+
+        assertEquals(ids, ids(repository.getAll(10, 0)));
+        assertEquals(ids.subList(5, 10), ids(repository.getAfter(ids.get(4), 10)));
+        assertTrue(repository.nextId() > ids.get(9));
     }
 }
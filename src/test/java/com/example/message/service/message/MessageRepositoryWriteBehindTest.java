@@ -0,0 +1,205 @@
+package com.example.message.service.message;
+
+import com.example.message.service.cache.ResponseCache;
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.replication.ReplicationFollower;
+import com.example.message.service.search.SearchIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class MessageRepositoryWriteBehindTest {
+    private static final long NO_LAG_FLUSH = TimeUnit.MINUTES.toMillis(10);
+
+    private final MessageRepositoryConcurrent durable = new MessageRepositoryConcurrent();
+    private MessageRepositoryWriteBehind repository;
+
+    @AfterEach
+    void stopRepository() {
+        repository.stop();
+    }
+
+    @Test
+    void writesAreServedBeforeTheyAreFlushed() {
+        start(durable, NO_LAG_FLUSH, 100);
+
+        var id = repository.create(getEntity());
+
+        assertEquals("body", repository.getById(id).orElseThrow().getBody());
+        assertTrue(durable.getById(id).isEmpty());
+        repository.stop();
+        assertEquals("body", durable.getById(id).orElseThrow().getBody());
+    }
+
+    @Test
+    void changesAreFlushedAfterMaxLag() {
+        start(durable, 10, 100);
+
+        var id = repository.create(getEntity());
+
+        await(() -> durable.getById(id).isPresent());
+        repository.delete(id);
+        await(() -> durable.getById(id).isEmpty());
+    }
+
+    @Test
+    void editsOfQueuedMessageAreCoalesced() {
+        start(durable, NO_LAG_FLUSH, 100);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        var id = repository.create(getEntity());
+        for (var i = 1; i <= 3; i++) {
+            var current = repository.getById(id).orElseThrow();
+            assertTrue(repository.update(current.edited("header " + i, "body " + i)));
+        }
+        repository.stop();
+
+        var stored = durable.getById(id).orElseThrow();
+        assertEquals("body 3", stored.getBody());
+        assertEquals(3, stored.getVersion());
+        assertEquals(1, durable.version());
+        assertEquals(3, registry.get("message.write.behind.coalesced").functionCounter().count());
+        assertEquals(1, registry.get("message.write.behind.flushed").functionCounter().count());
+    }
+
+    @Test
+    void messageCreatedAndDeletedBeforeFlushIsNeverWritten() {
+        start(durable, NO_LAG_FLUSH, 100);
+
+        var id = repository.create(getEntity());
+        repository.delete(id);
+        repository.stop();
+
+        assertEquals(0, durable.version());
+        assertTrue(repository.getById(id).isEmpty());
+    }
+
+    @Test
+    void staleEditsAreRejectedAndNotQueued() {
+        start(durable, NO_LAG_FLUSH, 100);
+        var original = repository.getById(repository.create(getEntity())).orElseThrow();
+
+        assertEquals(List.of(true, false), repository.updateAll(List.of(
+            original.edited("first header", "first body"),
+            original.edited("second header", "second body"))));
+        repository.stop();
+
+        assertEquals("first header", durable.getById(original.getId()).orElseThrow().getHeader());
+    }
+
+    @Test
+    void fullQueueMakesWritersWaitForFlush() {
+        var slow = new MessageRepositoryConcurrent() {
+            @Override
+            public void putAll(List<MessageEntity> messages) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.putAll(messages);
+            }
+        };
+        start(slow, NO_LAG_FLUSH, 2);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        for (var i = 0; i < 5; i++) {
+            repository.create(getEntity());
+        }
+
+        assertTrue(registry.get("message.write.behind.back.pressure").functionTimer().count() > 0);
+        assertTrue(registry.get("message.write.behind.pending").gauge().value() <= 2);
+        repository.stop();
+        assertEquals(5, slow.getAll(100, 0).size());
+    }
+
+    @Test
+    void startLoadsDurableMessagesWithoutReusingIds() {
+        var ids = durable.createAll(List.of(getEntity(), getEntity(), getEntity()));
+        durable.delete(ids.get(2));
+
+        start(durable, NO_LAG_FLUSH, 100);
+
+        assertEquals(ids.subList(0, 2), repository.getAll(100, 0).stream().map(MessageEntity::getId).collect(Collectors.toList()));
+        assertEquals(ids.get(2) + 1, repository.create(getEntity()));
+    }
+
+    @Test
+    void followerAppliesReplicatedChanges() {
+        start(durable, NO_LAG_FLUSH, 100);
+        var service = new MessageService();
+        service.repository = repository;
+        service.searchIndex = mock(SearchIndex.class);
+        service.responseCache = mock(ResponseCache.class);
+        service.changeLog = mock(ChangeLog.class);
+        service.follower = mock(ReplicationFollower.class);
+        var createdAt = LocalDateTime.now();
+
+        service.replicated(new MessageResponse(5L, "owner", "header", "body", createdAt, null, 0), true);
+        service.replicated(new MessageResponse(7L, "owner", "header", "body", createdAt, null, 0), false);
+        service.replicated(new MessageResponse(5L, "owner", "edited", "body", createdAt, createdAt, 1), false);
+        service.replicatedDelete(7L);
+
+        assertEquals("edited", repository.getById(5L).orElseThrow().getHeader());
+        assertTrue(repository.getById(7L).isEmpty());
+        assertEquals(8, repository.nextId());
+        assertTrue(durable.getById(5L).isEmpty());
+        repository.stop();
+        assertEquals(1, durable.getById(5L).orElseThrow().getVersion());
+        assertTrue(durable.getById(7L).isEmpty());
+    }
+
+    @Test
+    void failedFlushIsRetried() {
+        var failures = new AtomicInteger(1);
+        var failing = new MessageRepositoryConcurrent() {
+            @Override
+            public void putAll(List<MessageEntity> messages) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Disk unavailable");
+                }
+                super.putAll(messages);
+            }
+        };
+        start(failing, 10, 100);
+        var registry = new SimpleMeterRegistry();
+        repository.bindTo(registry);
+
+        var id = repository.create(getEntity());
+
+        await(() -> failing.getById(id).isPresent());
+        assertEquals(1, registry.get("message.write.behind.flush.failures").functionCounter().count());
+    }
+
+    private void start(MessageRepository durable, long maxLagMs, int maxPending) {
+        repository = new MessageRepositoryWriteBehind();
+        repository.durable = durable;
+        repository.maxLagMs = maxLagMs;
+        repository.maxPending = maxPending;
+        repository.start();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.onSpinWait();
+        }
+    }
+
+    private static MessageEntity getEntity() {
+        return new MessageEntity("owner", "header", "body");
+    }
+}
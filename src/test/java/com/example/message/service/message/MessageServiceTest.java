@@ -1,15 +1,29 @@
 package com.example.message.service.message;
 
+import com.example.message.service.live.ChangeLog;
+import com.example.message.service.replication.ReplicationFollower;
+import com.example.message.service.search.SearchIndex;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectMock;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatcher;
 
 import javax.inject.Inject;
+import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -33,6 +47,12 @@ public class MessageServiceTest {
     MessageService service;
     @InjectMock
     MessageRepository repository;
+    @InjectMock
+    SearchIndex searchIndex;
+    @InjectMock
+    ChangeLog changeLog;
+    @InjectMock
+    ReplicationFollower follower;
 
     @Test
     void getAllCallsRepositoryGetAll() {
@@ -40,6 +60,85 @@ public class MessageServiceTest {
         verify(repository).getAll(eq(LIMIT), eq(OFFSET));
     }
 
+    @Test
+    void getAllAfterCallsRepositoryGetAfter() {
+        service.getAllAfter(MESSAGE_ID, LIMIT);
+        verify(repository).getAfter(eq(MESSAGE_ID), eq(LIMIT));
+    }
+
+    @Test
+    void getAllBeforeCallsRepositoryGetBefore() {
+        service.getAllBefore(MESSAGE_ID, LIMIT);
+        verify(repository).getBefore(eq(MESSAGE_ID), eq(LIMIT));
+    }
+
+    @Test
+    void getByAuthorCallsRepositoryGetByOwner() {
+        service.getByAuthor(USER_NAME, MESSAGE_ID, LIMIT);
+        verify(repository).getByOwner(eq(USER_NAME), eq(MESSAGE_ID), eq(LIMIT));
+    }
+
+    @Test
+    void getAllReturnsNextCursorForFullPage() {
+        var entity = getEntity(MESSAGE_ID);
+        doReturn(List.of(entity)).when(repository).getAfter(anyLong(), eq(1));
+
+        var response = service.getAllAfter(0, 1);
+
+        assertEquals(MESSAGE_ID, response.nextCursor);
+    }
+
+    @Test
+    void getAllReturnsNoNextCursorForLastPage() {
+        doReturn(List.of(getEntity())).when(repository).getAfter(anyLong(), eq(LIMIT));
+
+        var response = service.getAllAfter(0, LIMIT);
+
+        assertNull(response.nextCursor);
+    }
+
+    @Test
+    void exportReadsRepositoryInBatches() {
+        var batchSize = MessageService.EXPORT_BATCH_SIZE;
+        var firstBatch = LongStream.range(0, batchSize).mapToObj(MessageServiceTest::getEntity).collect(Collectors.toList());
+        var lastBatch = List.of(getEntity(batchSize));
+        doReturn(firstBatch).when(repository).getAfter(eq(-1L), eq(batchSize));
+        doReturn(lastBatch).when(repository).getAfter(eq(batchSize - 1L), eq(batchSize));
+
+        var exported = service.export().map(message -> message.id).collect(Collectors.toList());
+
+        assertEquals(LongStream.rangeClosed(0, batchSize).boxed().collect(Collectors.toList()), exported);
+        verify(repository, times(2)).getAfter(anyLong(), anyInt());
+    }
+
+    @Test
+    void exportIsLazy() {
+        var firstBatch = LongStream.range(0, MessageService.EXPORT_BATCH_SIZE)
+            .mapToObj(MessageServiceTest::getEntity)
+            .collect(Collectors.toList());
+        doReturn(firstBatch).when(repository).getAfter(eq(-1L), anyInt());
+
+        var exported = service.export().limit(10).count();
+
+        assertEquals(10, exported);
+        verify(repository, times(1)).getAfter(anyLong(), anyInt());
+    }
+
+    @Test
+    void searchLoadsMatchesFromRepositoryInRankOrder() {
+        var first = getEntity(MESSAGE_ID + 1);
+        var second = getEntity(MESSAGE_ID);
+        doReturn(List.of(MESSAGE_ID + 1, MESSAGE_ID)).when(searchIndex).search(eq(HEADER), eq(LIMIT), eq(OFFSET));
+        doReturn(Optional.of(first)).when(repository).getById(eq(MESSAGE_ID + 1));
+        doReturn(Optional.of(second)).when(repository).getById(eq(MESSAGE_ID));
+
+        var response = service.search(HEADER, LIMIT, OFFSET);
+
+        assertEquals(2, response.messages.size());
+        assertEquals(MESSAGE_ID + 1, response.messages.get(0).id);
+        assertEquals(MESSAGE_ID, response.messages.get(1).id);
+    }
+
     @Test
     void getByIdThrowsExceptionIfMessageIdDoesntExist() {
         doReturn(Optional.empty()).when(repository).getById(anyInt());
@@ -55,6 +154,24 @@ public class MessageServiceTest {
         verify(repository).create(argThat(ENTITY_MATCHER));
     }
 
+    @Test
+    void createIndexesMessageForSearch() {
+        doReturn(MESSAGE_ID).when(repository).create(any());
+
+        service.create(USER_NAME, getRequest());
+
+        verify(searchIndex).index(eq(MESSAGE_ID), eq(HEADER), eq(BODY));
+    }
+
+    @Test
+    void createPublishesCreatedMessage() {
+        doReturn(MESSAGE_ID).when(repository).create(any());
+
+        service.create(USER_NAME, getRequest());
+
+        verify(changeLog).created(argThat(message -> message.id == MESSAGE_ID && message.body.equals(BODY)));
+    }
+
     @Test
     void updateThrowsExceptionIfMessageIdDoesntExist() {
         doReturn(Optional.empty()).when(repository).getById(anyInt());
@@ -73,11 +190,23 @@ public class MessageServiceTest {
 
         verify(repository).getById(eq(MESSAGE_ID));
         verify(repository, never()).update(argThat(ENTITY_MATCHER));
+        verify(changeLog, never()).updated(any());
+    }
+
+    @Test
+    void updatePublishesUpdatedMessage() {
+        doReturn(Optional.of(getEntity())).when(repository).getById(eq(MESSAGE_ID));
+        doReturn(true).when(repository).update(any());
+
+        service.update(USER_NAME, MESSAGE_ID, new MessageRequest(HEADER, "new body"));
+
+        verify(changeLog).updated(argThat(message -> message.body.equals("new body")));
     }
 
     @Test
     void updateCallsRepositoryUpdate() {
         doReturn(Optional.of(getEntity())).when(repository).getById(eq(MESSAGE_ID));
+        doReturn(true).when(repository).update(any());
 
         service.update(USER_NAME, MESSAGE_ID, getRequest());
 
@@ -86,6 +215,29 @@ public class MessageServiceTest {
         order.verify(repository).update(argThat(ENTITY_MATCHER));
     }
 
+    @Test
+    void updateThrowsConflictIfMessageChangedMeanwhile() {
+        doReturn(Optional.of(getEntity(MESSAGE_ID))).when(repository).getById(eq(MESSAGE_ID));
+        doReturn(false).when(repository).update(any());
+
+        var exception = assertThrows(ClientErrorException.class, () -> service.update(USER_NAME, MESSAGE_ID, getRequest()));
+
+        assertEquals(409, exception.getResponse().getStatus());
+        verify(searchIndex, never()).index(anyLong(), any(), any());
+        verify(changeLog, never()).updated(any());
+    }
+
+    @Test
+    void updateThrowsPreconditionFailedIfPreconditionDoesntHold() {
+        doReturn(Optional.of(getEntity(MESSAGE_ID))).when(repository).getById(eq(MESSAGE_ID));
+
+        var exception = assertThrows(WebApplicationException.class,
+            () -> service.update(USER_NAME, MESSAGE_ID, getRequest(), current -> false));
+
+        assertEquals(412, exception.getResponse().getStatus());
+        verify(repository, never()).update(any());
+    }
+
     @Test
     void deleteThrowsExceptionIfMessageIdDoesntExist() {
         doReturn(Optional.empty()).when(repository).getById(anyInt());
@@ -115,8 +267,199 @@ public class MessageServiceTest {
         var order = inOrder(repository);
         order.verify(repository).getById(eq(MESSAGE_ID));
         order.verify(repository).delete(eq(MESSAGE_ID));
+        verify(searchIndex).remove(eq(MESSAGE_ID));
+        verify(changeLog).deleted(eq(MESSAGE_ID));
+    }
+
+    @Test
+    void createAllCreatesValidMessagesInOneWrite() {
+        doReturn(List.of(MESSAGE_ID, MESSAGE_ID + 1)).when(repository).createAll(anyList());
+
+        var response = service.createAll(USER_NAME, List.of(getRequest(), new MessageRequest(HEADER, ""), getRequest()));
+
+        verify(repository).createAll(argThat(entities -> entities.size() == 2 && entities.stream().allMatch(ENTITY_MATCHER::matches)));
+        assertEquals(List.of(MESSAGE_ID, MESSAGE_ID + 1), List.of(response.results.get(0).id, response.results.get(2).id));
+        assertEquals(List.of(200, 400, 200), response.results.stream().map(result -> result.status).collect(Collectors.toList()));
+        assertNull(response.results.get(1).id);
+        verify(searchIndex).index(eq(MESSAGE_ID + 1), eq(HEADER), eq(BODY));
+    }
+
+    @Test
+    void updateAllReportsStatusPerMessage() {
+        doReturn(Optional.of(getEntity(MESSAGE_ID))).when(repository).getById(eq(MESSAGE_ID));
+        doReturn(Optional.of(new MessageEntity(WRONG_USER, HEADER, BODY))).when(repository).getById(eq(MESSAGE_ID + 1));
+        doReturn(Optional.empty()).when(repository).getById(eq(MESSAGE_ID + 2));
+        doReturn(Optional.of(getEntity(MESSAGE_ID + 4))).when(repository).getById(eq(MESSAGE_ID + 4));
+        doReturn(List.of(true, false)).when(repository).updateAll(anyList());
+
+        var response = service.updateAll(USER_NAME, List.of(
+            new MessageUpdateRequest(MESSAGE_ID, "new header", BODY),
+            new MessageUpdateRequest(MESSAGE_ID + 1, HEADER, BODY),
+            new MessageUpdateRequest(MESSAGE_ID + 2, HEADER, BODY),
+            new MessageUpdateRequest(MESSAGE_ID + 3, null, BODY),
+            new MessageUpdateRequest(MESSAGE_ID + 4, HEADER, BODY)
+        ));
+
+        assertEquals(List.of(200, 403, 404, 400, 409), response.results.stream().map(result -> result.status).collect(Collectors.toList()));
+        verify(repository).updateAll(argThat(entities -> entities.size() == 2 && entities.get(0).getHeader().equals("new header")));
+        verify(searchIndex).index(eq(MESSAGE_ID), eq("new header"), eq(BODY));
+        verify(searchIndex, never()).index(eq(MESSAGE_ID + 4), any(), any());
+    }
+
+    @Test
+    void deleteAllDeletesOnlyOwnMessages() {
+        doReturn(Optional.of(getEntity(MESSAGE_ID))).when(repository).getById(eq(MESSAGE_ID));
+        doReturn(Optional.of(new MessageEntity(WRONG_USER, HEADER, BODY))).when(repository).getById(eq(MESSAGE_ID + 1));
+
+        var response = service.deleteAll(USER_NAME, List.of(MESSAGE_ID, MESSAGE_ID + 1));
+
+        assertEquals(List.of(200, 403), response.results.stream().map(result -> result.status).collect(Collectors.toList()));
+        verify(repository).deleteAll(eq(List.of(MESSAGE_ID)));
+        verify(searchIndex).remove(eq(MESSAGE_ID));
+        verify(searchIndex, never()).remove(eq(MESSAGE_ID + 1));
+    }
+
+    @Test
+    void deleteWaitsForConcurrentUpdateToBePublished() throws Exception {
+        var stored = getEntity(MESSAGE_ID);
+        doReturn(Optional.of(stored)).when(repository).getById(eq(MESSAGE_ID));
+        var updating = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            updating.countDown();
+            release.await();
+            return true;
+        }).when(repository).update(any());
+        var update = CompletableFuture.runAsync(() -> service.update(USER_NAME, MESSAGE_ID, getRequest()));
+        updating.await();
+
+        var delete = CompletableFuture.runAsync(() -> service.delete(USER_NAME, MESSAGE_ID));
+        Thread.sleep(100);
+        verify(repository, never()).delete(anyLong());
+        release.countDown();
+        update.get(5, TimeUnit.SECONDS);
+        delete.get(5, TimeUnit.SECONDS);
+
+        var inOrder = inOrder(changeLog);
+        inOrder.verify(changeLog).updated(any());
+        inOrder.verify(changeLog).deleted(eq(MESSAGE_ID));
     }
 
+    @Test
+    void concurrentUpdatesAreIndexedInStoreOrder() throws Exception {
+        doReturn(Optional.of(getEntity(MESSAGE_ID))).when(repository).getById(eq(MESSAGE_ID));
+        var updating = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            updating.countDown();
+            release.await();
+            return true;
+        }).doReturn(true).when(repository).update(any());
+        var first = CompletableFuture.runAsync(() -> service.update(USER_NAME, MESSAGE_ID, new MessageRequest("first", BODY)));
+        updating.await();
+
+        var second = CompletableFuture.runAsync(() -> service.update(USER_NAME, MESSAGE_ID, new MessageRequest("second", BODY)));
+        Thread.sleep(100);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        var inOrder = inOrder(repository, searchIndex);
+        inOrder.verify(repository).update(argThat(message -> message.getHeader().equals("first")));
+        inOrder.verify(searchIndex).index(eq(MESSAGE_ID), eq("first"), any());
+        inOrder.verify(repository).update(argThat(message -> message.getHeader().equals("second")));
+        inOrder.verify(searchIndex).index(eq(MESSAGE_ID), eq("second"), any());
+    }
+
+    @Test
+    void createOvertakenByDeleteIsNotPublished() {
+        var otherId = MESSAGE_ID + 1;
+        doReturn(Optional.of(getEntity(otherId))).when(repository).getById(eq(otherId));
+        doReturn(Optional.empty()).when(repository).getById(eq(MESSAGE_ID));
+        // a delete published while the message is being created
+        doAnswer(invocation -> {
+            service.delete(USER_NAME, otherId);
+            return MESSAGE_ID;
+        }).when(repository).create(any());
+
+        assertEquals(MESSAGE_ID, service.create(USER_NAME, getRequest()));
+
+        verify(changeLog, never()).created(any());
+        verify(searchIndex, never()).index(eq(MESSAGE_ID), any(), any());
+    }
+
+    @Test
+    void followerForwardsCreateToLeader() {
+        doReturn(true).when(follower).isActive();
+        doReturn(MESSAGE_ID).when(follower).create(eq(USER_NAME), any());
+
+        assertEquals(MESSAGE_ID, service.create(USER_NAME, getRequest()));
+
+        verify(repository, never()).create(any());
+        verify(changeLog, never()).created(any());
+    }
+
+    @Test
+    void followerForwardsConditionalUpdateWithCheckedVersion() {
+        doReturn(true).when(follower).isActive();
+        var current = getEntity(MESSAGE_ID).edited(HEADER, BODY);
+        doReturn(Optional.of(current)).when(repository).getById(eq(MESSAGE_ID));
+
+        service.update(USER_NAME, MESSAGE_ID, getRequest(), message -> true);
+        service.update(USER_NAME, MESSAGE_ID, getRequest());
+
+        verify(follower).update(eq(USER_NAME), eq(MESSAGE_ID), any(), eq(1));
+        verify(follower).update(eq(USER_NAME), eq(MESSAGE_ID), any(), eq(ReplicationFollower.ANY_VERSION));
+        verify(repository, never()).update(any());
+    }
+
+    @Test
+    void replicatedMessageIsStoredIndexedAndPublished() {
+        doReturn(Optional.empty()).when(repository).getById(eq(MESSAGE_ID));
+        var message = new MessageResponse(MESSAGE_ID, USER_NAME, HEADER, BODY, LocalDateTime.now(), null, 0);
+
+        service.replicated(message, false);
+
+        verify(repository).putAll(argThat(messages -> messages.size() == 1 && messages.get(0).getId() == MESSAGE_ID));
+        verify(searchIndex).index(eq(MESSAGE_ID), eq(HEADER), eq(BODY));
+        verify(changeLog).created(same(message));
+    }
+
+    @Test
+    void replicatedMessageNotNewerThanStoredIsIgnored() {
+        var stored = getEntity(MESSAGE_ID).edited("newer", BODY);
+        doReturn(Optional.of(stored)).when(repository).getById(eq(MESSAGE_ID));
+
+        service.replicated(new MessageResponse(MESSAGE_ID, USER_NAME, HEADER, BODY, stored.getCreatedAt(), null, 0), false);
+        service.replicated(new MessageResponse(MESSAGE_ID, USER_NAME, "newer", BODY, stored.getCreatedAt(),
+            stored.getEditedAt(), 1), true);
+
+        verify(repository, never()).putAll(any());
+        verify(changeLog, never()).updated(any());
+    }
+
+    @Test
+    void snapshotReplacesOtherMessageUnderSameId() {
+        doReturn(Optional.of(getEntity(MESSAGE_ID).edited("old", BODY))).when(repository).getById(eq(MESSAGE_ID));
+        var message = new MessageResponse(MESSAGE_ID, WRONG_USER, HEADER, BODY, LocalDateTime.now(), null, 0);
+
+        service.replicated(message, true);
+
+        verify(repository).delete(eq(MESSAGE_ID));
+        verify(repository).putAll(argThat(messages -> messages.get(0).getOwnerName().equals(WRONG_USER)));
+        verify(changeLog).deleted(eq(MESSAGE_ID));
+        verify(changeLog).created(same(message));
+    }
+
+    @Test
+    void replicatedDeleteOfMissingMessageIsIgnored() {
+        doReturn(Optional.empty()).when(repository).getById(eq(MESSAGE_ID));
+
+        service.replicatedDelete(MESSAGE_ID);
+
+        verify(repository, never()).delete(anyLong());
+        verify(changeLog, never()).deleted(anyLong());
+    }
 
     private static MessageRequest getRequest() {
         return new MessageRequest(HEADER, BODY);
@@ -125,4 +468,8 @@ public class MessageServiceTest {
     private static MessageEntity getEntity() {
         return new MessageEntity(USER_NAME, HEADER, BODY);
     }
+
+    private static MessageEntity getEntity(long id) {
+        return getEntity().withId(id);
+    }
 }
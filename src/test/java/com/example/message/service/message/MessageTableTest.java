@@ -0,0 +1,114 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageTableTest {
+    private MessageTable<MessageEntity> table;
+
+    @BeforeEach
+    void setupTable() {
+        table = new MessageTable<>();
+    }
+
+    @Test
+    void getReturnsPutMessages() {
+        putAll(1, 40);
+
+        assertEquals(40, table.size());
+        assertEquals(17, table.get(17).getId());
+        assertNull(table.get(0));
+        assertNull(table.get(41));
+    }
+
+    @Test
+    void putKeepsIdsSortedWhenOutOfOrder() {
+        put(5);
+        put(1);
+        put(3);
+
+        assertEquals(List.of(1L, 3L, 5L), ids(table.page(0, 10)));
+    }
+
+    @Test
+    void replaceOnlyChangesExistingMessages() {
+        putAll(1, 3);
+
+        assertTrue(table.replace(2, message(2).edited("new header", "new body")));
+        assertFalse(table.replace(4, message(4)));
+        assertEquals("new header", table.get(2).getHeader());
+        assertNull(table.get(4));
+    }
+
+    @Test
+    void removedMessagesAreSkipped() {
+        putAll(1, 5);
+
+        assertEquals(3, table.remove(3).getId());
+        assertNull(table.remove(3));
+
+        assertEquals(4, table.size());
+        assertNull(table.get(3));
+        assertFalse(table.replace(3, message(3)));
+        assertEquals(List.of(1L, 2L, 4L, 5L), ids(table.page(0, 10)));
+        assertEquals(List.of(4L, 5L), ids(table.after(2, 10)));
+        assertEquals(List.of(2L, 1L), ids(table.before(4, 10)));
+    }
+
+    @Test
+    void pagesSkipOffsetAndStopAtLimit() {
+        putAll(1, 10);
+
+        assertEquals(List.of(4L, 5L, 6L), ids(table.page(3, 3)));
+        assertEquals(List.of(6L, 7L), ids(table.after(5, 2)));
+        assertEquals(List.of(4L, 3L), ids(table.before(5, 2)));
+        assertEquals(List.of(1L, 2L), ids(table.after(-1, 2)));
+        assertEquals(List.of(10L, 9L), ids(table.before(Long.MAX_VALUE, 2)));
+        assertTrue(table.page(10, 5).isEmpty());
+    }
+
+    @Test
+    void compactionKeepsRemainingMessages() {
+        putAll(1, 100);
+
+        LongStream.rangeClosed(1, 90).forEach(table::remove);
+        put(101);
+
+        assertEquals(11, table.size());
+        assertEquals(LongStream.rangeClosed(91, 101).boxed().collect(Collectors.toList()), ids(table.page(0, 100)));
+        assertEquals(95, table.get(95).getId());
+    }
+
+    @Test
+    void removedIdCanBeRestored() {
+        putAll(1, 3);
+        table.remove(2);
+
+        put(2);
+
+        assertEquals(3, table.size());
+        assertEquals(List.of(1L, 2L, 3L), ids(table.page(0, 10)));
+    }
+
+    private void putAll(long from, long to) {
+        LongStream.rangeClosed(from, to).forEach(this::put);
+    }
+
+    private void put(long id) {
+        table.put(id, message(id));
+    }
+
+    private static MessageEntity message(long id) {
+        return new MessageEntity("owner", "header", "body").withId(id);
+    }
+
+    private static List<Long> ids(List<MessageEntity> messages) {
+        return messages.stream().map(MessageEntity::getId).collect(Collectors.toList());
+    }
+}
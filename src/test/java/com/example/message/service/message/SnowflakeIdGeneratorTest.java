@@ -0,0 +1,154 @@
+package com.example.message.service.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnowflakeIdGeneratorTest {
+    private static final long NOW = SnowflakeIdGenerator.EPOCH + 1_000_000;
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    void setupGenerator() {
+        generator = newGenerator(5);
+    }
+
+    @Test
+    void idsAreTimeNodeAndSequence() {
+        var first = generator.next();
+        var second = generator.next();
+
+        assertEquals(NOW - SnowflakeIdGenerator.EPOCH, millis(first));
+        assertEquals(5, node(first));
+        assertEquals(first + 1, second);
+        assertTrue(first > 0);
+    }
+
+    @Test
+    void idsFollowTheClock() {
+        var first = generator.next();
+        clock.addAndGet(10);
+
+        var later = generator.next();
+
+        assertEquals(millis(first) + 10, millis(later));
+        assertEquals(later, generator.peek() - SnowflakeIdGenerator.BLOCK_SIZE);
+    }
+
+    @Test
+    void nodesNeverHandOutTheSameId() {
+        var other = newGenerator(6);
+
+        var ids = new HashSet<Long>();
+        for (var i = 0; i < 10_000; i++) {
+            assertTrue(ids.add(generator.next()));
+            assertTrue(ids.add(other.next()));
+        }
+    }
+
+    @Test
+    void fullMillisecondBorrowsFromTheNext() {
+        var ids = IntStream.range(0, 5000).mapToObj(i -> generator.next()).collect(Collectors.toList());
+
+        assertIncreasing(ids);
+        assertEquals(millis(ids.get(0)) + 1, millis(ids.get(ids.size() - 1)));
+    }
+
+    @Test
+    void clockGoingBackDoesNotRepeatIds() {
+        var before = generator.next();
+        clock.addAndGet(-1000);
+
+        assertTrue(generator.next() > before);
+    }
+
+    @Test
+    void blockOfAnIdleThreadIsNotReusedLater() throws Exception {
+        var idle = generator.next();
+        clock.addAndGet(1);
+        var other = new long[1];
+        var thread = new Thread(() -> other[0] = generator.next());
+        thread.start();
+        thread.join();
+
+        var next = generator.next();
+
+        assertTrue(other[0] > idle);
+        assertTrue(next > other[0]);
+    }
+
+    @Test
+    void advancePastMovesAllThreadsBeyondTheId() {
+        generator.next();
+        var restored = newGenerator(7);
+        clock.addAndGet(100);
+        var stored = restored.next();
+        clock.addAndGet(-100);
+
+        generator.advancePast(stored);
+
+        assertTrue(generator.next() > stored);
+        assertTrue(generator.peek() > stored);
+    }
+
+    @Test
+    void concurrentThreadsGetUniqueIds() throws Exception {
+        clock.set(0);
+        generator.clock = System::currentTimeMillis;
+        var ids = ConcurrentHashMap.<Long>newKeySet();
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (var j = 0; j < 20_000; j++) {
+                    ids.add(generator.next());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80_000, ids.size());
+    }
+
+    @Test
+    void nodeIdMustFitItsBits() {
+        generator.nodeId = SnowflakeIdGenerator.MAX_NODE_ID + 1;
+
+        assertThrows(IllegalArgumentException.class, generator::init);
+    }
+
+    private SnowflakeIdGenerator newGenerator(int nodeId) {
+        var generator = new SnowflakeIdGenerator();
+        generator.nodeId = nodeId;
+        generator.clock = clock::get;
+        generator.init();
+        return generator;
+    }
+
+    private static long millis(long id) {
+        return id >>> (SnowflakeIdGenerator.NODE_BITS + SnowflakeIdGenerator.SEQUENCE_BITS);
+    }
+
+    private static long node(long id) {
+        return id >>> SnowflakeIdGenerator.SEQUENCE_BITS & SnowflakeIdGenerator.MAX_NODE_ID;
+    }
+
+    private static void assertIncreasing(List<Long> ids) {
+        for (var i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i) > ids.get(i - 1));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.message.service.metrics;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class MetricsTest {
+    @Test
+    void endpointServiceAndRepositoryMetricsAreExposed() {
+        given().when().get("/message/all?limit=10&offset=5").then().statusCode(HttpStatus.SC_OK);
+        given().when().get("/message/888").then().statusCode(HttpStatus.SC_NOT_FOUND);
+
+        var metrics = given()
+            .when().get("/q/metrics")
+            .then().statusCode(HttpStatus.SC_OK)
+            .extract().asString();
+
+        assertTrue(metrics.contains("http_server_requests_seconds_bucket{method=\"GET\",outcome=\"CLIENT_ERROR\",status=\"404\""));
+        assertTrue(metrics.contains("http_server_requests_seconds_bucket{method=\"GET\",outcome=\"SUCCESS\",status=\"200\",uri=\"/message/all\""));
+        assertTrue(metrics.contains("message_service_seconds_bucket{class=\"com.example.message.service.message.MessageService\",exception=\"none\",method=\"getAll\""));
+        assertTrue(metrics.contains("message_service_seconds_count{class=\"com.example.message.service.message.MessageService\",exception=\"NotFoundException\",method=\"getById\""));
+        assertTrue(metrics.contains("message_repository_size "));
+        assertTrue(metrics.contains("message_repository_next_id "));
+        assertTrue(metrics.contains("message_repository_lock_wait_seconds_count "));
+        assertTrue(metrics.contains("message_repository_page_scans_total "));
+        assertTrue(metrics.contains("message_repository_page_scanned_total "));
+        assertTrue(metrics.contains("message_response_cache_requests_total{kind=\"page\",result=\"miss\",}"));
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.message.service.replication;
+
+import com.example.message.service.message.MessageBatchResponse;
+import com.example.message.service.message.MessageRequest;
+import com.example.message.service.message.MessageResponse;
+import com.example.message.service.message.MessageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import javax.inject.Inject;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the application as leader and connects followers to it over localhost. The followers apply changes to a
+ * mocked service, which only records them.
+ */
+@QuarkusTest
+@TestProfile(ReplicationTest.LeaderProfile.class)
+public class ReplicationTest {
+    private static final String USER_NAME = "alice";
+    private static final String SECRET = "replication-secret";
+
+    @Inject
+    MessageService leaderService;
+    @Inject
+    ReplicationLeader leader;
+
+    private final MessageService followerService = mock(MessageService.class);
+    private ReplicationFollower follower;
+
+    public static class LeaderProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "message.replication.role", "leader",
+                "message.replication.port", "0",
+                "message.replication.heartbeat-ms", "100",
+                "message.replication.secret", SECRET);
+        }
+    }
+
+    @AfterEach
+    void stopFollower() {
+        if (follower != null) {
+            follower.stop();
+        }
+    }
+
+    @Test
+    void followerGetsSnapshotThenChangesInOrder() {
+        var first = leaderService.create(USER_NAME, new MessageRequest("first", "body"));
+        var second = leaderService.create(USER_NAME, new MessageRequest("second", "body"));
+
+        follower = startFollower("localhost:" + leader.port());
+        await(() -> follower.lagEvents() == 0 && follower.lagNanos() == 0);
+
+        verify(followerService).replicated(argThat(message -> message.id == first), eq(true));
+        verify(followerService).replicated(argThat(message -> message.id == second), eq(true));
+        verify(followerService).export();
+
+        leaderService.update(USER_NAME, first, new MessageRequest("edited", "body"));
+        leaderService.delete(USER_NAME, second);
+
+        InOrder inOrder = inOrder(followerService);
+        inOrder.verify(followerService, timeout(5000))
+            .replicated(argThat(message -> message.id == first && message.version == 1 && message.header.equals("edited")), eq(false));
+        inOrder.verify(followerService, timeout(5000)).replicatedDelete(second);
+    }
+
+    @Test
+    void snapshotDeletesMessagesTheLeaderNoLongerHas() {
+        var kept = leaderService.create(USER_NAME, new MessageRequest("kept", "body"));
+        var stale = new MessageResponse(Long.MAX_VALUE, USER_NAME, "stale", "body", null, null);
+        doReturn(Stream.of(stale), Stream.of(stale)).when(followerService).export();
+
+        follower = startFollower("localhost:" + leader.port());
+
+        verify(followerService, timeout(5000)).replicatedDelete(Long.MAX_VALUE);
+        verify(followerService, never()).replicatedDelete(kept);
+    }
+
+    @Test
+    void forwardedWritesReturnOnceAppliedByFollower() {
+        follower = startFollower("localhost:" + leader.port());
+        await(() -> follower.lagNanos() == 0);
+
+        var id = follower.create(USER_NAME, new MessageRequest("forwarded", "body"));
+
+        assertEquals("forwarded", leaderService.getById(id).header);
+        verify(followerService).replicated(argThat(message -> message.id == id), eq(false));
+
+        follower.update(USER_NAME, id, new MessageRequest("edited", "body"), 0);
+        verify(followerService).replicated(argThat(message -> message.id == id && message.version == 1), eq(false));
+        var stale = assertThrows(WebApplicationException.class,
+            () -> follower.update(USER_NAME, id, new MessageRequest("stale", "body"), 0));
+        assertEquals(412, stale.getResponse().getStatus());
+        assertThrows(ForbiddenException.class,
+            () -> follower.update("bob", id, new MessageRequest("other", "body"), ReplicationFollower.ANY_VERSION));
+
+        follower.delete(USER_NAME, id);
+        verify(followerService).replicatedDelete(id);
+    }
+
+    @Test
+    void batchWritesAreForwardedWithResultPerItem() {
+        follower = startFollower("localhost:" + leader.port());
+        await(() -> follower.lagNanos() == 0);
+
+        var created = follower.createAll(USER_NAME, Arrays.asList(new MessageRequest("header", "body"), null));
+
+        assertEquals(List.of(200, 400), statuses(created.results));
+        var id = created.results.get(0).id;
+        assertEquals(List.of(200, 404), statuses(follower.deleteAll(USER_NAME, List.of(id, Long.MAX_VALUE)).results));
+        verify(followerService).replicatedDelete(id);
+    }
+
+    @Test
+    void lagAndForwardedWritesAreReported() {
+        follower = startFollower("localhost:" + leader.port());
+        var registry = new SimpleMeterRegistry();
+        follower.bindTo(registry);
+        await(() -> follower.lagNanos() == 0);
+
+        follower.create(USER_NAME, new MessageRequest("header", "body"));
+
+        assertEquals(0, registry.get("message.replication.lag").timeGauge().value());
+        assertEquals(0, registry.get("message.replication.lag.events").gauge().value());
+        assertEquals(1, registry.get("message.replication.connected").gauge().value());
+        assertEquals(1, registry.get("message.replication.snapshots.received").functionCounter().count());
+        assertEquals(1, registry.get("message.replication.forwarded").functionTimer().count());
+        await(() -> leader.followerCount() == 1);
+    }
+
+    @Test
+    void writesFailWhileLeaderIsUnreachable() throws Exception {
+        int unusedPort;
+        try (var socket = new ServerSocket(0)) {
+            unusedPort = socket.getLocalPort();
+        }
+        follower = startFollower("localhost:" + unusedPort);
+
+        assertThrows(ServiceUnavailableException.class,
+            () -> follower.create(USER_NAME, new MessageRequest("header", "body")));
+        assertTrue(follower.lagNanos() > 0);
+    }
+
+    @Test
+    void followerWithWrongSecretIsRejected() {
+        follower = startFollower("localhost:" + leader.port(), "wrong-secret");
+
+        assertThrows(ServiceUnavailableException.class,
+            () -> follower.create(USER_NAME, new MessageRequest("header", "body")));
+        assertEquals(0, leader.followerCount());
+        verify(followerService, never()).export();
+        assertTrue(follower.lagNanos() > 0);
+    }
+
+    @Test
+    void followerWithoutSecretDoesNotStart() {
+        assertThrows(IllegalStateException.class, () -> startFollower("localhost:" + leader.port(), null));
+    }
+
+    @Test
+    void leaderOnlyListensOnBindAddress() {
+        assertTrue(leader.boundAddress().isLoopbackAddress());
+    }
+
+    private ReplicationFollower startFollower(String leaderAddress) {
+        return startFollower(leaderAddress, SECRET);
+    }
+
+    private ReplicationFollower startFollower(String leaderAddress, String secret) {
+        var follower = new ReplicationFollower();
+        follower.role = ReplicationFollower.ROLE;
+        follower.leader = leaderAddress;
+        follower.heartbeatMs = 100;
+        follower.timeoutMs = 5000;
+        follower.secret = Optional.ofNullable(secret);
+        follower.service = followerService;
+        follower.start();
+        return follower;
+    }
+
+    private static List<Integer> statuses(List<MessageBatchResponse.Result> results) {
+        return results.stream().map(result -> result.status).collect(Collectors.toList());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.message.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+    private SearchIndex index;
+
+    @BeforeEach
+    void setupIndex() {
+        index = new SearchIndex();
+        index.index(1, "Weekly report", "Sales grew in the north region");
+        index.index(2, "Lunch", "Pizza on Friday, report to the kitchen");
+        index.index(3, "Report draft", "Please review the report before the meeting");
+        index.index(4, "Holidays", "Office closed next week");
+    }
+
+    @Test
+    void searchFindsMessagesContainingAllTerms() {
+        assertEquals(List.of(2L), index.search("pizza report", 10, 0));
+        assertEquals(List.of(4L), index.search("OFFICE", 10, 0));
+        assertTrue(index.search("pizza holidays", 10, 0).isEmpty());
+        assertTrue(index.search("unknown", 10, 0).isEmpty());
+    }
+
+    @Test
+    void searchRanksBetterMatchesFirst() {
+        var ids = index.search("report", 10, 0);
+
+        assertEquals(3, ids.size());
+        assertEquals(3L, ids.get(0));
+        assertEquals(2L, ids.get(2));
+    }
+
+    @Test
+    void searchAppliesLimitAndOffset() {
+        var all = index.search("report", 10, 0);
+
+        assertEquals(all.subList(0, 2), index.search("report", 2, 0));
+        assertEquals(all.subList(1, 3), index.search("report", 2, 1));
+        assertTrue(index.search("report", 2, 3).isEmpty());
+    }
+
+    @Test
+    void searchAcceptsLimitAndOffsetBeyondTheirSum() {
+        var all = index.search("report", 10, 0);
+
+        assertEquals(all, index.search("report", Integer.MAX_VALUE, 0));
+        assertEquals(all.subList(1, 3), index.search("report", Integer.MAX_VALUE, 1));
+    }
+
+    @Test
+    void searchIgnoresEmptyQuery() {
+        assertTrue(index.search(" ,. ", 10, 0).isEmpty());
+    }
+
+    @Test
+    void reindexReplacesOldTerms() {
+        index.index(4, "Holidays", "Office open as usual");
+
+        assertTrue(index.search("closed", 10, 0).isEmpty());
+        assertEquals(List.of(4L), index.search("usual", 10, 0));
+    }
+
+    @Test
+    void removedMessagesAreNotFound() {
+        index.remove(2);
+
+        assertTrue(index.search("pizza", 10, 0).isEmpty());
+        assertFalse(index.search("report", 10, 0).contains(2L));
+    }
+
+    @Test
+    void searchIntersectsLargePostingLists() {
+        for (long id = 10; id < 10_000; id++) {
+            index.index(id, "header", id % 3 == 0 ? "fizz" + (id % 5 == 0 ? " buzz" : "") : "buzz");
+        }
+
+        var ids = index.search("fizz buzz", 10_000, 0);
+
+        assertEquals(666, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id % 15 == 0));
+    }
+}
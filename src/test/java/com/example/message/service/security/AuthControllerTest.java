@@ -0,0 +1,64 @@
+package com.example.message.service.security;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class AuthControllerTest {
+    @Test
+    void tokenIsAcceptedByProtectedEndpoints() {
+        var token = token();
+
+        var messageId = given().auth().oauth2(token)
+            .contentType(ContentType.JSON)
+            .body("{\"header\": \"token header\", \"body\": \"token body\"}")
+            .when().post("/message")
+            .then().statusCode(HttpStatus.SC_OK)
+            .extract().asString();
+
+        String author = given().when().get("/message/" + messageId)
+            .then().statusCode(HttpStatus.SC_OK)
+            .extract().path("author");
+        assertEquals("bob", author);
+        given().auth().oauth2(token)
+            .when().delete("/message/" + messageId)
+            .then().statusCode(HttpStatus.SC_OK);
+    }
+
+    @Test
+    void tokenRequiresPassword() {
+        given().when().post("/auth/token").then().statusCode(HttpStatus.SC_UNAUTHORIZED);
+        given().auth().preemptive().basic("bob", "wrong")
+            .when().post("/auth/token")
+            .then().statusCode(HttpStatus.SC_UNAUTHORIZED);
+    }
+
+    @Test
+    void tokenCannotRenewItself() {
+        given().auth().oauth2(token())
+            .when().post("/auth/token")
+            .then().statusCode(HttpStatus.SC_FORBIDDEN);
+    }
+
+    @Test
+    void invalidTokenIsRejected() {
+        var token = token();
+        given().auth().oauth2(token.substring(0, token.length() - 2))
+            .when().delete("/message/888")
+            .then().statusCode(HttpStatus.SC_UNAUTHORIZED);
+    }
+
+    private static String token() {
+        String token = given().auth().preemptive().basic("bob", "qwerty")
+            .when().post("/auth/token")
+            .then().statusCode(HttpStatus.SC_OK)
+            .extract().path("token");
+        assertNotNull(token);
+        return token;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.message.service.security;
+
+import io.quarkus.security.runtime.QuarkusSecurityIdentity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthenticationCacheTest {
+    private static final long TTL = 100;
+
+    private final AtomicLong clock = new AtomicLong();
+    private AuthenticationCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AuthenticationCache(2, TTL, clock::get);
+    }
+
+    @Test
+    void returnsCachedIdentityForSameCredentials() {
+        var identity = identity("bob");
+        cache.put("bob", "qwerty".toCharArray(), identity);
+
+        assertSame(identity, cache.get("bob", "qwerty".toCharArray()).orElseThrow());
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.misses());
+    }
+
+    @Test
+    void missesOnOtherPasswordOrUser() {
+        cache.put("bob", "qwerty".toCharArray(), identity("bob"));
+
+        assertTrue(cache.get("bob", "wrong".toCharArray()).isEmpty());
+        assertTrue(cache.get("alice", "qwerty".toCharArray()).isEmpty());
+        assertEquals(0, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void expiresAfterTtl() {
+        cache.put("bob", "qwerty".toCharArray(), identity("bob"));
+
+        clock.set(TTL - 1);
+        assertTrue(cache.get("bob", "qwerty".toCharArray()).isPresent());
+        clock.set(TTL);
+        assertTrue(cache.get("bob", "qwerty".toCharArray()).isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        cache.put("bob", "1".toCharArray(), identity("bob"));
+        cache.put("alice", "2".toCharArray(), identity("alice"));
+        cache.get("bob", "1".toCharArray());
+        cache.put("carol", "3".toCharArray(), identity("carol"));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get("bob", "1".toCharArray()).isPresent());
+        assertTrue(cache.get("alice", "2".toCharArray()).isEmpty());
+        assertTrue(cache.get("carol", "3".toCharArray()).isPresent());
+    }
+
+    private static QuarkusSecurityIdentity identity(String name) {
+        return QuarkusSecurityIdentity.builder()
+            .setPrincipal(() -> name)
+            .addRole("user")
+            .build();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.message.service.security;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class CachingPasswordIdentityProviderTest {
+    private static final Pattern HITS = Pattern.compile("message_auth_cache_requests_total\\{result=\"hit\",} ([0-9.]+)");
+
+    @Test
+    void repeatedAuthenticationIsServedFromCache() {
+        var hitsBefore = hits();
+
+        given().auth().preemptive().basic("bob", "qwerty")
+            .when().delete("/message/888")
+            .then().statusCode(HttpStatus.SC_NOT_FOUND);
+        given().auth().preemptive().basic("bob", "qwerty")
+            .when().delete("/message/888")
+            .then().statusCode(HttpStatus.SC_NOT_FOUND);
+
+        assertTrue(hits() >= hitsBefore + 1);
+    }
+
+    @Test
+    void wrongPasswordIsRejected() {
+        given().auth().preemptive().basic("bob", "qwerty")
+            .when().delete("/message/888")
+            .then().statusCode(HttpStatus.SC_NOT_FOUND);
+
+        given().auth().preemptive().basic("bob", "wrong")
+            .when().delete("/message/888")
+            .then().statusCode(HttpStatus.SC_UNAUTHORIZED);
+    }
+
+    private static double hits() {
+        var metrics = given().when().get("/q/metrics").then().statusCode(HttpStatus.SC_OK).extract().asString();
+        var matcher = HITS.matcher(metrics);
+        assertTrue(matcher.find(), "hit counter is not exposed");
+        return Double.parseDouble(matcher.group(1));
+    }
+}
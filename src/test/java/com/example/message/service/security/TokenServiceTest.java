@@ -0,0 +1,86 @@
+package com.example.message.service.security;
+
+import io.quarkus.security.runtime.QuarkusSecurityIdentity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenServiceTest {
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private TokenService tokenService;
+
+    @BeforeEach
+    void setUp() {
+        tokenService = tokenService(Optional.of(KEY), 60_000);
+    }
+
+    @Test
+    void verifiesIssuedToken() {
+        var token = tokenService.issue(identity("bob", "user", "admin"));
+
+        var identity = tokenService.verify(token.token).orElseThrow();
+        assertEquals("bob", identity.getPrincipal().getName());
+        assertEquals(Set.of("user", "admin"), identity.getRoles());
+        assertEquals(Boolean.TRUE, identity.getAttribute(TokenService.TOKEN_ATTRIBUTE));
+        assertTrue(token.expiresAt > System.currentTimeMillis());
+    }
+
+    @Test
+    void keepsIdentityWithoutRoles() {
+        var token = tokenService.issue(identity("bob"));
+
+        assertEquals(Set.of(), tokenService.verify(token.token).orElseThrow().getRoles());
+    }
+
+    @Test
+    void rejectsTamperedPayload() {
+        var token = tokenService.issue(identity("bob", "user")).token;
+        var forged = Base64.getUrlEncoder().withoutPadding().encodeToString("alice\n9999999999999\nuser".getBytes())
+            + token.substring(token.indexOf('.'));
+
+        assertTrue(tokenService.verify(forged).isEmpty());
+    }
+
+    @Test
+    void rejectsTokenOfOtherKey() {
+        var token = tokenService(Optional.empty(), 60_000).issue(identity("bob", "user"));
+
+        assertTrue(tokenService.verify(token.token).isEmpty());
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        var token = tokenService(Optional.of(KEY), -1).issue(identity("bob", "user"));
+
+        assertTrue(tokenService.verify(token.token).isEmpty());
+    }
+
+    @Test
+    void rejectsMalformedToken() {
+        assertTrue(tokenService.verify("").isEmpty());
+        assertTrue(tokenService.verify("no-separator").isEmpty());
+        assertTrue(tokenService.verify("not base64!.sig").isEmpty());
+        assertTrue(tokenService.verify(".").isEmpty());
+    }
+
+    private static TokenService tokenService(Optional<String> key, long ttlMs) {
+        var tokenService = new TokenService();
+        tokenService.configuredKey = key;
+        tokenService.ttlMs = ttlMs;
+        tokenService.init();
+        return tokenService;
+    }
+
+    private static QuarkusSecurityIdentity identity(String name, String... roles) {
+        return QuarkusSecurityIdentity.builder()
+            .setPrincipal(() -> name)
+            .addRoles(Set.of(roles))
+            .build();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.message.service.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapTextStoreTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    private OffHeapTextStore store;
+
+    @BeforeEach
+    void setupStore() {
+        store = new OffHeapTextStore(SEGMENT_SIZE);
+    }
+
+    @Test
+    void getReturnsAddedBytes() {
+        var first = store.add(bytes("first"));
+        var empty = store.add(new byte[0]);
+        var second = store.add(bytes("second, a bit longer"));
+
+        assertEquals("first", text(first));
+        assertEquals("", text(empty));
+        assertEquals("second, a bit longer", text(second));
+    }
+
+    @Test
+    void slotsAreSizedToPowersOfTwo() {
+        store.add(bytes("12345678901"));
+        store.add(bytes("123456789012345678901234567"));
+
+        // 4 bytes of length each, rounded up to 16 and 32
+        assertEquals(48, store.usedBytes());
+        assertEquals(SEGMENT_SIZE, store.reservedBytes());
+    }
+
+    @Test
+    void freedSlotIsReused() {
+        var handle = store.add(bytes("message body"));
+        store.free(handle);
+
+        var reused = store.add(bytes("another body"));
+
+        assertEquals(handle, reused);
+        assertEquals("another body", text(reused));
+        assertEquals(16, store.usedBytes());
+    }
+
+    @Test
+    void replaceKeepsSlotWhenTextFits() {
+        var handle = store.add(bytes("short"));
+
+        assertEquals(handle, store.replace(handle, bytes("other")));
+        assertEquals("other", text(handle));
+    }
+
+    @Test
+    void replaceMovesTextThatOutgrowsSlot() {
+        var handle = store.add(bytes("short"));
+
+        var moved = store.replace(handle, bytes("much longer than the slot it had"));
+
+        assertNotEquals(handle, moved);
+        assertEquals("much longer than the slot it had", text(moved));
+        assertEquals(64, store.usedBytes());
+        assertEquals(handle, store.add(bytes("short again")));
+    }
+
+    @Test
+    void fullSegmentIsFollowedByNewOne() {
+        for (int i = 0; i < SEGMENT_SIZE / 16 + 1; i++) {
+            assertEquals("text " + i, text(store.add(bytes("text " + i))));
+        }
+
+        assertEquals(2 * SEGMENT_SIZE, store.reservedBytes());
+    }
+
+    @Test
+    void textLargerThanSegmentIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> store.add(new byte[SEGMENT_SIZE]));
+    }
+
+    private String text(long handle) {
+        return new String(store.get(handle), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}